@@ -1,7 +1,9 @@
 package com.xiexy.base;
 
 import java.io.Closeable;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface DB
         extends Iterable<Map.Entry<byte[], byte[]>>, Closeable
@@ -12,6 +14,16 @@ public interface DB
     byte[] get(byte[] key, ReadOptions options)
             throws DBException;
 
+    /**
+     * 批量查找，所有key使用同一个snapshot。
+     * @return 与keys顺序一致的value列表，key不存在时对应的元素为null
+     */
+    List<byte[]> multiGet(List<byte[]> keys)
+            throws DBException;
+
+    List<byte[]> multiGet(List<byte[]> keys, ReadOptions options)
+            throws DBException;
+
     @Override
     DBIterator iterator();
 
@@ -49,6 +61,17 @@ public interface DB
     Snapshot write(WriteBatch updates, WriteOptions options)
             throws DBException;
 
+    /**
+     * 异步写入，调用者不会阻塞在锁或者fsync上。
+     * 写入按options.sync()的要求持久化之后完成future，options.snapshot()为true时结果为写入之后的snapshot，否则为null；
+     * 写入失败时future以对应的异常完成。future完成之前不能修改updates
+     */
+    CompletableFuture<Snapshot> writeAsync(WriteBatch updates, WriteOptions options);
+
+    CompletableFuture<Snapshot> putAsync(byte[] key, byte[] value, WriteOptions options);
+
+    CompletableFuture<Snapshot> deleteAsync(byte[] key, WriteOptions options);
+
     Snapshot getSnapshot();
 
     long[] getApproximateSizes(Range... ranges);
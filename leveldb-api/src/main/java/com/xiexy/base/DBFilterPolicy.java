@@ -0,0 +1,24 @@
+package com.xiexy.base;
+
+/**
+ * 过滤策略，用于在读取data block之前判断key是否可能存在，减少无用的磁盘读取。
+ * 典型实现为布隆过滤器。
+ */
+public interface DBFilterPolicy
+{
+    /**
+     * 策略名称，会写入sstable的metaindex中，名称或编码方式变化后必须修改名称
+     */
+    String name();
+
+    /**
+     * 为一组key生成过滤器数据
+     */
+    byte[] createFilter(byte[][] keys);
+
+    /**
+     * 如果key在生成filter时的key集合中，必须返回true；
+     * 不在集合中时，应尽量返回false
+     */
+    boolean keyMayMatch(byte[] key, byte[] filter);
+}
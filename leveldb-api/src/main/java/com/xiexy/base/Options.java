@@ -5,6 +5,7 @@ public class Options
     private boolean createIfMissing = true;
     private boolean errorIfExists;
     private int writeBufferSize = 4 << 20;
+    private int maxWriteBufferNumber = 2;
 
     private int maxOpenFiles = 1000;
 
@@ -14,8 +15,14 @@ public class Options
     private boolean verifyChecksums = true;
     private boolean paranoidChecks;
     private DBComparator comparator;
+    private DBFilterPolicy filterPolicy;
     private Logger logger;
     private long cacheSize;
+    private int maxBackgroundCompactions = 1;
+    private long delayedWriteRate = 16 << 20;
+    private boolean metrics;
+    private boolean offHeapMemTable;
+    private boolean concurrentMemTableWrites;
 
     static void checkArgNotNull(Object value, String name)
     {
@@ -57,6 +64,24 @@ public class Options
         return this;
     }
 
+    public int maxWriteBufferNumber()
+    {
+        return maxWriteBufferNumber;
+    }
+
+    /**
+     * 内存中memtable的最大个数，包括正在写入的memtable和等待flush的immutable memtable，
+     * 等待flush的memtable达到maxWriteBufferNumber - 1个时写入会被阻塞
+     */
+    public Options maxWriteBufferNumber(int maxWriteBufferNumber)
+    {
+        if (maxWriteBufferNumber < 2) {
+            throw new IllegalArgumentException("maxWriteBufferNumber must be at least 2");
+        }
+        this.maxWriteBufferNumber = maxWriteBufferNumber;
+        return this;
+    }
+
     public int maxOpenFiles()
     {
         return maxOpenFiles;
@@ -102,6 +127,10 @@ public class Options
         return this;
     }
 
+    /**
+     * 没有传入ReadOptions的读取（get(key)、multiGet(keys)、iterator()）是否校验data block的checksum，
+     * 传入ReadOptions时以ReadOptions.verifyChecksums()为准
+     */
     public boolean verifyChecksums()
     {
         return verifyChecksums;
@@ -124,6 +153,82 @@ public class Options
         return this;
     }
 
+    public int maxBackgroundCompactions()
+    {
+        return maxBackgroundCompactions;
+    }
+
+    /**
+     * 后台执行compaction的线程数，key range不重叠的compaction可以并行执行
+     */
+    public Options maxBackgroundCompactions(int maxBackgroundCompactions)
+    {
+        if (maxBackgroundCompactions < 1) {
+            throw new IllegalArgumentException("maxBackgroundCompactions must be at least 1");
+        }
+        this.maxBackgroundCompactions = maxBackgroundCompactions;
+        return this;
+    }
+
+    public long delayedWriteRate()
+    {
+        return delayedWriteRate;
+    }
+
+    /**
+     * compaction跟不上写入时，写入被限速到的最大速率（字节/秒），compaction积压越多实际速率越低
+     */
+    public Options delayedWriteRate(long delayedWriteRate)
+    {
+        if (delayedWriteRate <= 0) {
+            throw new IllegalArgumentException("delayedWriteRate must be positive");
+        }
+        this.delayedWriteRate = delayedWriteRate;
+        return this;
+    }
+
+    public boolean metrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * 记录读写各阶段的延迟直方图，并注册为JMX MBean
+     */
+    public Options metrics(boolean metrics)
+    {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public boolean offHeapMemTable()
+    {
+        return offHeapMemTable;
+    }
+
+    /**
+     * memtable的key和value编码后保存在堆外的arena中，插入时不产生堆上的对象，内存按实际分配的大小计算
+     */
+    public Options offHeapMemTable(boolean offHeapMemTable)
+    {
+        this.offHeapMemTable = offHeapMemTable;
+        return this;
+    }
+
+    public boolean concurrentMemTableWrites()
+    {
+        return concurrentMemTableWrites;
+    }
+
+    /**
+     * 合并写入的一组writer写完log后，各自在自己的线程中并行写入memtable，全部写完后才对读可见
+     */
+    public Options concurrentMemTableWrites(boolean concurrentMemTableWrites)
+    {
+        this.concurrentMemTableWrites = concurrentMemTableWrites;
+        return this;
+    }
+
     public DBComparator comparator()
     {
         return comparator;
@@ -135,6 +240,17 @@ public class Options
         return this;
     }
 
+    public DBFilterPolicy filterPolicy()
+    {
+        return filterPolicy;
+    }
+
+    public Options filterPolicy(DBFilterPolicy filterPolicy)
+    {
+        this.filterPolicy = filterPolicy;
+        return this;
+    }
+
     public Logger logger()
     {
         return logger;
@@ -0,0 +1,84 @@
+package com.xiexy.base.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * 生成与db_bench相同形式的key和value
+ */
+public final class BenchmarkData
+{
+    private BenchmarkData()
+    {
+    }
+
+    /**
+     * 十进制的i，左边补0到keySize个字节，与db_bench的"%016d"一致
+     */
+    public static byte[] key(long i, int keySize)
+    {
+        checkArgument(keySize >= 1, "keySize must be positive");
+        byte[] digits = Long.toString(i).getBytes(UTF_8);
+        byte[] key = new byte[keySize];
+        Arrays.fill(key, (byte) '0');
+        int length = Math.min(digits.length, keySize);
+        System.arraycopy(digits, digits.length - length, key, keySize - length, length);
+        return key;
+    }
+
+    /**
+     * db_bench读取不存在的key时，在存在的key后面加一个'.'
+     */
+    public static byte[] missingKey(long i, int keySize)
+    {
+        byte[] key = key(i, keySize);
+        byte[] missing = Arrays.copyOf(key, key.length + 1);
+        missing[key.length] = '.';
+        return missing;
+    }
+
+    /**
+     * 对应于db_bench的RandomGenerator：预先生成1MB压缩率约为compressionRatio的数据，
+     * 每次返回其中的一段，避免生成value的开销影响测试结果
+     */
+    public static final class ValueGenerator
+    {
+        private static final int DATA_SIZE = 1 << 20;
+
+        private final byte[] data;
+        private int position;
+
+        public ValueGenerator(long seed, double compressionRatio)
+        {
+            Random random = new Random(seed);
+            data = new byte[DATA_SIZE];
+            int offset = 0;
+            while (offset < DATA_SIZE) {
+                // 每100个字节中只有compressionRatio比例是随机的，其余重复
+                int length = Math.min(100, DATA_SIZE - offset);
+                int randomLength = Math.max(1, (int) (length * compressionRatio));
+                for (int i = 0; i < randomLength; i++) {
+                    data[offset + i] = (byte) (' ' + random.nextInt(95));
+                }
+                for (int i = randomLength; i < length; i++) {
+                    data[offset + i] = data[offset + i % randomLength];
+                }
+                offset += length;
+            }
+        }
+
+        public byte[] next(int length)
+        {
+            checkArgument(length <= DATA_SIZE, "length is larger than %s", DATA_SIZE);
+            if (position + length > DATA_SIZE) {
+                position = 0;
+            }
+            byte[] value = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.xiexy.base.benchmark;
+
+import com.xiexy.base.DBIterator;
+import com.xiexy.base.WriteOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 与db_bench对应的benchmark，每个方法执行一次操作，输出ops/s和MB/s（megabytes）。
+ * 打包后运行：
+ * <pre>
+ * java -jar leveldb-benchmark/target/benchmarks.jar DbBench.readrandom -t 4 -p entries=100000 -p valueSize=1000 -p mmap=false
+ * </pre>
+ * fill开头的benchmark从空的DB开始写入，其余的benchmark在trial开始时顺序写入entries个key
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DbBench
+{
+    @State(Scope.Benchmark)
+    public static class EmptyDb
+            extends DbState
+    {
+        // fillseq的下一个key，多个线程共享
+        final AtomicLong sequence = new AtomicLong();
+
+        @Override
+        protected boolean populate()
+        {
+            return false;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class PopulatedDb
+            extends DbState
+    {
+        @Override
+        protected boolean populate()
+        {
+            return true;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class IteratorState
+    {
+        DBIterator iterator;
+
+        @Setup(Level.Iteration)
+        public void open(PopulatedDb db)
+        {
+            iterator = db.db.iterator();
+        }
+
+        @TearDown(Level.Iteration)
+        public void close()
+                throws IOException
+        {
+            iterator.close();
+        }
+    }
+
+    @Benchmark
+    public void fillseq(EmptyDb db, ThreadState thread)
+    {
+        long i = db.sequence.getAndIncrement() % db.entries;
+        put(db, thread, i, new WriteOptions());
+    }
+
+    @Benchmark
+    public void fillrandom(EmptyDb db, ThreadState thread)
+    {
+        put(db, thread, thread.random.nextInt(db.entries), new WriteOptions());
+    }
+
+    @Benchmark
+    public void fillsync(EmptyDb db, ThreadState thread)
+    {
+        put(db, thread, thread.random.nextInt(db.entries), new WriteOptions().sync(true));
+    }
+
+    @Benchmark
+    public void overwrite(PopulatedDb db, ThreadState thread)
+    {
+        put(db, thread, thread.random.nextInt(db.entries), new WriteOptions());
+    }
+
+    @Benchmark
+    public void deleterandom(PopulatedDb db, ThreadState thread)
+    {
+        db.db.delete(BenchmarkData.key(thread.random.nextInt(db.entries), db.keySize));
+        thread.addBytes(db.keySize);
+    }
+
+    @Benchmark
+    public byte[] readrandom(PopulatedDb db, ThreadState thread)
+    {
+        byte[] value = db.db.get(BenchmarkData.key(thread.random.nextInt(db.entries), db.keySize));
+        if (value != null) {
+            thread.addBytes(db.keySize + value.length);
+        }
+        return value;
+    }
+
+    @Benchmark
+    public byte[] readmissing(PopulatedDb db, ThreadState thread)
+    {
+        return db.db.get(BenchmarkData.missingKey(thread.random.nextInt(db.entries), db.keySize));
+    }
+
+    @Benchmark
+    public Map.Entry<byte[], byte[]> readseq(IteratorState iteratorState, ThreadState thread)
+    {
+        DBIterator iterator = iteratorState.iterator;
+        if (!iterator.hasNext()) {
+            iterator.seekToFirst();
+        }
+        Map.Entry<byte[], byte[]> entry = iterator.next();
+        thread.addBytes(entry.getKey().length + entry.getValue().length);
+        return entry;
+    }
+
+    @Benchmark
+    public Map.Entry<byte[], byte[]> readreverse(IteratorState iteratorState, ThreadState thread)
+    {
+        DBIterator iterator = iteratorState.iterator;
+        if (!iterator.hasPrev()) {
+            iterator.seekToLast();
+        }
+        Map.Entry<byte[], byte[]> entry = iterator.prev();
+        thread.addBytes(entry.getKey().length + entry.getValue().length);
+        return entry;
+    }
+
+    /**
+     * 与db_bench一致，每次seek都创建新的iterator
+     */
+    @Benchmark
+    public Map.Entry<byte[], byte[]> seekrandom(PopulatedDb db, ThreadState thread)
+            throws IOException
+    {
+        try (DBIterator iterator = db.db.iterator()) {
+            iterator.seek(BenchmarkData.key(thread.random.nextInt(db.entries), db.keySize));
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            Map.Entry<byte[], byte[]> entry = iterator.next();
+            thread.addBytes(entry.getKey().length + entry.getValue().length);
+            return entry;
+        }
+    }
+
+    private static void put(DbState db, ThreadState thread, long i, WriteOptions writeOptions)
+    {
+        byte[] key = BenchmarkData.key(i, db.keySize);
+        byte[] value = thread.values.next(db.valueSize);
+        db.db.put(key, value, writeOptions);
+        thread.addBytes(key.length + value.length);
+    }
+}
@@ -0,0 +1,102 @@
+package com.xiexy.base.benchmark;
+
+import com.xiexy.base.CompressionType;
+import com.xiexy.base.DB;
+import com.xiexy.base.Options;
+import com.xiexy.base.WriteBatch;
+import com.xiexy.base.impl.LevelDBFactory;
+import com.xiexy.base.utils.FileUtils;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * 各个benchmark共用的DB和参数，参数的默认值与db_bench相同。
+ * 每组参数在新的fork中运行，trial开始时打开一个新的DB，populate()返回true时先顺序写入entries个key
+ */
+public abstract class DbState
+{
+    @Param("16")
+    public int keySize;
+
+    @Param("100")
+    public int valueSize;
+
+    // key的范围，也是预先写入的key的个数
+    @Param("1000000")
+    public int entries;
+
+    @Param("4096")
+    public int blockSize;
+
+    @Param("SNAPPY")
+    public CompressionType compression;
+
+    @Param("4194304")
+    public int writeBufferSize;
+
+    // block cache的大小，0表示使用默认值
+    @Param("0")
+    public long cacheSize;
+
+    // 对应于-Dleveldb.mmap，LevelDBFactory初始化时读取
+    @Param("true")
+    public boolean mmap;
+
+    public DB db;
+    private File databaseDir;
+
+    protected abstract boolean populate();
+
+    @Setup
+    public void openDb()
+            throws IOException
+    {
+        System.setProperty("leveldb.mmap", String.valueOf(mmap));
+        checkState(LevelDBFactory.USE_MMAP == mmap, "LevelDBFactory was initialized before leveldb.mmap was set");
+
+        Options options = new Options()
+                .createIfMissing(true)
+                .blockSize(blockSize)
+                .compressionType(compression)
+                .writeBufferSize(writeBufferSize);
+        if (cacheSize > 0) {
+            options.cacheSize(cacheSize);
+        }
+        databaseDir = Files.createTempDirectory("leveldb-benchmark").toFile();
+        db = LevelDBFactory.factory.open(databaseDir, options);
+
+        if (populate()) {
+            BenchmarkData.ValueGenerator values = new BenchmarkData.ValueGenerator(301, 0.5);
+            int batchSize = 1000;
+            for (int i = 0; i < entries; i += batchSize) {
+                try (WriteBatch batch = db.createWriteBatch()) {
+                    for (int j = i; j < Math.min(i + batchSize, entries); j++) {
+                        batch.put(BenchmarkData.key(j, keySize), values.next(valueSize));
+                    }
+                    db.write(batch);
+                }
+            }
+        }
+    }
+
+    @TearDown
+    public void closeDb()
+            throws IOException
+    {
+        if (db != null) {
+            db.close();
+            db = null;
+        }
+        if (databaseDir != null) {
+            FileUtils.deleteRecursively(databaseDir);
+            databaseDir = null;
+        }
+    }
+}
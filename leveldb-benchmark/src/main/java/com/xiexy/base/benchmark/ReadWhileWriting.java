@@ -0,0 +1,48 @@
+package com.xiexy.base.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对应于db_bench的readwhilewriting：一个线程随机写入，其余线程随机读取，分别输出读和写的吞吐量。
+ * 读线程数可以通过-tg调整，例如-tg 7,1
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ReadWhileWriting
+{
+    @Benchmark
+    @Group("readwhilewriting")
+    @GroupThreads(3)
+    public byte[] read(DbBench.PopulatedDb db, ThreadState thread)
+    {
+        byte[] value = db.db.get(BenchmarkData.key(thread.random.nextInt(db.entries), db.keySize));
+        if (value != null) {
+            thread.addBytes(db.keySize + value.length);
+        }
+        return value;
+    }
+
+    @Benchmark
+    @Group("readwhilewriting")
+    @GroupThreads(1)
+    public void write(DbBench.PopulatedDb db, ThreadState thread)
+    {
+        byte[] key = BenchmarkData.key(thread.random.nextInt(db.entries), db.keySize);
+        byte[] value = thread.values.next(db.valueSize);
+        db.db.put(key, value);
+        thread.addBytes(key.length + value.length);
+    }
+}
@@ -0,0 +1,49 @@
+package com.xiexy.base.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 每个线程的随机数和value生成器，以及读写的字节数。
+ * 字节数通过AuxCounters按时间归一化，和ops/s一起以MB/s输出
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ThreadState
+{
+    private static final AtomicLong SEEDS = new AtomicLong(301);
+
+    SplittableRandom random;
+    BenchmarkData.ValueGenerator values;
+    private long bytes;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        long seed = SEEDS.getAndIncrement();
+        random = new SplittableRandom(seed);
+        values = new BenchmarkData.ValueGenerator(seed, 0.5);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetCounters()
+    {
+        bytes = 0;
+    }
+
+    void addBytes(long bytes)
+    {
+        this.bytes += bytes;
+    }
+
+    public double megabytes()
+    {
+        return bytes / 1048576.0;
+    }
+}
@@ -0,0 +1,103 @@
+package com.xiexy.base.benchmark.micro;
+
+import com.xiexy.base.benchmark.BenchmarkData;
+import com.xiexy.base.include.Slice;
+import com.xiexy.base.table.Block;
+import com.xiexy.base.table.BlockBuilder;
+import com.xiexy.base.table.BlockEntry;
+import com.xiexy.base.table.BlockIterator;
+import com.xiexy.base.table.BytewiseComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BlockBuilder.add/finish和BlockIterator.seek/next，restartInterval越大block越小，seek时线性扫描越长
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockBenchmark
+{
+    // 4KB的block大约可以放下30个100字节的value，这里用同样的entry数
+    private static final int ENTRIES = 32;
+
+    @Param({"1", "4", "16", "64"})
+    public int restartInterval;
+
+    @Param({"16"})
+    public int keySize;
+
+    @Param({"100"})
+    public int valueSize;
+
+    private final BytewiseComparator comparator = new BytewiseComparator();
+    private Slice[] keys;
+    private Slice[] values;
+    private BlockBuilder builder;
+    private Block block;
+
+    @Setup
+    public void setup()
+    {
+        BenchmarkData.ValueGenerator generator = new BenchmarkData.ValueGenerator(301, 0.5);
+        keys = new Slice[ENTRIES];
+        values = new Slice[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            keys[i] = new Slice(BenchmarkData.key(i * 10L, keySize));
+            values[i] = new Slice(generator.next(valueSize));
+        }
+        builder = new BlockBuilder(4096, restartInterval, comparator);
+        block = new Block(build(), comparator);
+    }
+
+    private Slice build()
+    {
+        builder.reset();
+        for (int i = 0; i < ENTRIES; i++) {
+            builder.add(keys[i], values[i]);
+        }
+        return builder.finish();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public Slice addAndFinish()
+    {
+        return build();
+    }
+
+    @Benchmark
+    public BlockEntry seek()
+    {
+        BlockIterator iterator = block.iterator();
+        iterator.seek(keys[ThreadLocalRandom.current().nextInt(ENTRIES)]);
+        return iterator.next();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public void next(Blackhole blackhole)
+    {
+        BlockIterator iterator = block.iterator();
+        while (iterator.hasNext()) {
+            blackhole.consume(iterator.next());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.xiexy.base.benchmark.micro;
+
+import com.xiexy.base.include.DynamicSliceOutput;
+import com.xiexy.base.include.Slice;
+import com.xiexy.base.include.SliceInput;
+import com.xiexy.base.utils.Coding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 解析block entry和log record时使用的varint编解码。
+ * maxBytes限制每个varint的字节数，block entry中的shared/non-shared/value长度大多只有1个字节
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodingBenchmark
+{
+    private static final int COUNT = 1024;
+
+    @Param({"1", "2", "5"})
+    public int maxBytes;
+
+    private int[] intValues;
+    private long[] longValues;
+    private Slice encodedInts;
+    private Slice encodedLongs;
+    private ByteBuffer encodedIntBuffer;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(301);
+        intValues = new int[COUNT];
+        longValues = new long[COUNT];
+        DynamicSliceOutput ints = new DynamicSliceOutput(COUNT * 5);
+        DynamicSliceOutput longs = new DynamicSliceOutput(COUNT * 10);
+        for (int i = 0; i < COUNT; i++) {
+            // 每个varint字节保存7位，生成编码后正好为bytes个字节的值
+            int bytes = 1 + random.nextInt(maxBytes);
+            int min = bytes == 1 ? 0 : 1 << (7 * (bytes - 1));
+            int max = bytes >= 5 ? Integer.MAX_VALUE : (1 << (7 * bytes)) - 1;
+            intValues[i] = min + random.nextInt(max - min);
+            longValues[i] = intValues[i] * 31L;
+            Coding.encodeInt(intValues[i], ints);
+            Coding.encodeLong(longValues[i], longs);
+        }
+        encodedInts = ints.slice();
+        encodedLongs = longs.slice();
+        encodedIntBuffer = ByteBuffer.wrap(encodedInts.getBytes());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public Slice encodeInt()
+    {
+        DynamicSliceOutput output = new DynamicSliceOutput(COUNT * 5);
+        for (int value : intValues) {
+            Coding.encodeInt(value, output);
+        }
+        return output.slice();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int decodeInt()
+    {
+        SliceInput input = encodedInts.input();
+        int sum = 0;
+        for (int i = 0; i < COUNT; i++) {
+            sum += Coding.decodeInt(input);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long decodeLong()
+    {
+        SliceInput input = encodedLongs.input();
+        long sum = 0;
+        for (int i = 0; i < COUNT; i++) {
+            sum += Coding.decodeLong(input);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int decodeIntFromByteBuffer()
+    {
+        ByteBuffer buffer = encodedIntBuffer.duplicate();
+        int sum = 0;
+        for (int i = 0; i < COUNT; i++) {
+            sum += Coding.decodeInt(buffer);
+        }
+        return sum;
+    }
+}
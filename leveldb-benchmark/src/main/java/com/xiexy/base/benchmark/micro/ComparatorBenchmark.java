@@ -0,0 +1,83 @@
+package com.xiexy.base.benchmark.micro;
+
+import com.xiexy.base.benchmark.BenchmarkData;
+import com.xiexy.base.impl.InternalKey;
+import com.xiexy.base.impl.InternalKeyComparator;
+import com.xiexy.base.impl.ValueType;
+import com.xiexy.base.include.Slice;
+import com.xiexy.base.table.BytewiseComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 比较相邻的key，db_bench形式的key有很长的公共前缀，比较需要扫描到最后几个字节。
+ * InternalKeyComparator在user key相同时还要比较sequence
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComparatorBenchmark
+{
+    private static final int COUNT = 1024;
+
+    @Param({"16", "64"})
+    public int keySize;
+
+    private final BytewiseComparator bytewiseComparator = new BytewiseComparator();
+    private final InternalKeyComparator internalKeyComparator = new InternalKeyComparator(bytewiseComparator);
+    private Slice[] userKeys;
+    private InternalKey[] internalKeys;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(301);
+        userKeys = new Slice[COUNT + 1];
+        internalKeys = new InternalKey[COUNT + 1];
+        for (int i = 0; i <= COUNT; i++) {
+            // 一半的相邻key的user key相同，只有sequence不同
+            long key = random.nextInt(1000);
+            userKeys[i] = new Slice(BenchmarkData.key(key, keySize));
+            Slice userKey = i > 0 && random.nextBoolean() ? userKeys[i - 1] : userKeys[i];
+            internalKeys[i] = new InternalKey(userKey, random.nextInt(1 << 20), ValueType.VALUE);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int bytewise()
+    {
+        int result = 0;
+        for (int i = 0; i < COUNT; i++) {
+            result += bytewiseComparator.compare(userKeys[i], userKeys[i + 1]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int internalKey()
+    {
+        int result = 0;
+        for (int i = 0; i < COUNT; i++) {
+            result += internalKeyComparator.compare(internalKeys[i], internalKeys[i + 1]);
+        }
+        return result;
+    }
+}
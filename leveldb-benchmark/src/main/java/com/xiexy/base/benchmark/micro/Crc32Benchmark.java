@@ -0,0 +1,80 @@
+package com.xiexy.base.benchmark.micro;
+
+import com.xiexy.base.benchmark.BenchmarkData;
+import com.xiexy.base.utils.Checksums;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
+
+/**
+ * 计算block和log record的crc，size分别对应一条小的log record、一个data block和一个大的log record。
+ * checksum为jdk时使用java.util.zip.CRC32C（JDK 9及以上），为java时使用纯Java实现的Crc32；
+ * directBuffer对应mmap读取block时在直接内存上校验。
+ * microbenchmarks profile在JDK 8上只运行java，参数名不用provider，避免-p同时作用于SnappyBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Crc32Benchmark
+{
+    @Param({"64", "4096", "32768"})
+    public int size;
+
+    @Param({"jdk", "java"})
+    public String checksum;
+
+    private byte[] data;
+    private ByteBuffer directBuffer;
+    private Checksums.Provider checksums;
+
+    @Setup
+    public void setup()
+    {
+        data = new BenchmarkData.ValueGenerator(301, 0.5).next(size);
+        directBuffer = ByteBuffer.allocateDirect(size);
+        directBuffer.put(data).flip();
+        if ("jdk".equals(checksum)) {
+            try {
+                Class.forName("java.util.zip.CRC32C");
+            }
+            catch (ClassNotFoundException e) {
+                throw new IllegalStateException("java.util.zip.CRC32C requires JDK 9 or later, run with -p checksum=java");
+            }
+            checksums = new Checksums.JdkCrc32C();
+        }
+        else {
+            checksums = new Checksums.PureJavaCrc32C();
+        }
+    }
+
+    @Benchmark
+    public int update()
+    {
+        Checksum crc32c = checksums.newChecksum();
+        crc32c.update(data, 0, data.length);
+        return Checksums.getMaskedValue(crc32c);
+    }
+
+    @Benchmark
+    public int updateDirectBuffer()
+    {
+        Checksum crc32c = checksums.newChecksum();
+        checksums.update(crc32c, directBuffer);
+        return Checksums.getMaskedValue(crc32c);
+    }
+}
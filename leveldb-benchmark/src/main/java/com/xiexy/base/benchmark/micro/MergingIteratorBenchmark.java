@@ -0,0 +1,145 @@
+package com.xiexy.base.benchmark.micro;
+
+import com.google.common.collect.Maps;
+import com.xiexy.base.benchmark.BenchmarkData;
+import com.xiexy.base.impl.InternalKey;
+import com.xiexy.base.impl.InternalKeyComparator;
+import com.xiexy.base.impl.ValueType;
+import com.xiexy.base.include.Slice;
+import com.xiexy.base.table.BytewiseComparator;
+import com.xiexy.base.utils.AbstractSeekingIterator;
+import com.xiexy.base.utils.InternalIterator;
+import com.xiexy.base.utils.MergingIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并多个有序的iterator，children对应level 0的文件数加上其他level的个数。
+ * 子iterator直接遍历内存中的数组，只测量MergingIterator本身的开销
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergingIteratorBenchmark
+{
+    private static final int ENTRIES = 10_000;
+
+    @Param({"2", "5", "10", "20"})
+    public int children;
+
+    private final InternalKeyComparator comparator = new InternalKeyComparator(new BytewiseComparator());
+    private List<Map.Entry<InternalKey, Slice>>[] entries;
+    private InternalKey[] seekKeys;
+
+    @SuppressWarnings("unchecked")
+    @Setup
+    public void setup()
+    {
+        // key按轮转的方式分配给各个子iterator，合并时每一步都要在子iterator之间切换
+        entries = new List[children];
+        for (int i = 0; i < children; i++) {
+            entries[i] = new ArrayList<>();
+        }
+        Slice value = new Slice(new byte[100]);
+        seekKeys = new InternalKey[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            InternalKey key = new InternalKey(new Slice(BenchmarkData.key(i, 16)), i, ValueType.VALUE);
+            entries[i % children].add(Maps.immutableEntry(key, value));
+            seekKeys[i] = key;
+        }
+    }
+
+    private MergingIterator newIterator()
+    {
+        List<InternalIterator> iterators = new ArrayList<>(children);
+        for (List<Map.Entry<InternalKey, Slice>> childEntries : entries) {
+            iterators.add(new ArrayIterator(childEntries, comparator));
+        }
+        return new MergingIterator(iterators, comparator);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public void next(Blackhole blackhole)
+    {
+        MergingIterator iterator = newIterator();
+        while (iterator.hasNext()) {
+            blackhole.consume(iterator.next());
+        }
+    }
+
+    @Benchmark
+    public Map.Entry<InternalKey, Slice> seek()
+    {
+        MergingIterator iterator = newIterator();
+        iterator.seek(seekKeys[ThreadLocalRandom.current().nextInt(ENTRIES)]);
+        return iterator.next();
+    }
+
+    private static final class ArrayIterator
+            extends AbstractSeekingIterator<InternalKey, Slice>
+            implements InternalIterator
+    {
+        private final List<Map.Entry<InternalKey, Slice>> entries;
+        private final InternalKeyComparator comparator;
+        private int index;
+
+        private ArrayIterator(List<Map.Entry<InternalKey, Slice>> entries, InternalKeyComparator comparator)
+        {
+            this.entries = entries;
+            this.comparator = comparator;
+        }
+
+        @Override
+        protected void seekToFirstInternal()
+        {
+            index = 0;
+        }
+
+        @Override
+        protected void seekInternal(InternalKey targetKey)
+        {
+            int low = 0;
+            int high = entries.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (comparator.compare(entries.get(mid).getKey(), targetKey) < 0) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            index = low;
+        }
+
+        @Override
+        protected Map.Entry<InternalKey, Slice> getNextElement()
+        {
+            if (index >= entries.size()) {
+                return null;
+            }
+            return entries.get(index++);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.xiexy.base.benchmark.micro;
+
+import com.xiexy.base.benchmark.BenchmarkData;
+import com.xiexy.base.utils.Snappy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分别通过每个Snappy.SPI实现压缩和解压一个block，数据的压缩率与db_bench相同
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnappyBenchmark
+{
+    @Param({"xerial", "iq80"})
+    public String provider;
+
+    @Param({"4096", "65536"})
+    public int blockSize;
+
+    private Snappy.SPI snappy;
+    private byte[] uncompressed;
+    private byte[] compressed;
+    private int compressedLength;
+    private byte[] output;
+    private ByteBuffer compressedBuffer;
+    private ByteBuffer outputBuffer;
+
+    @Setup
+    public void setup()
+            throws IOException
+    {
+        switch (provider) {
+            case "xerial":
+                snappy = new Snappy.XerialSnappy();
+                break;
+            case "iq80":
+                snappy = new Snappy.IQ80Snappy();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown snappy provider " + provider);
+        }
+
+        uncompressed = new BenchmarkData.ValueGenerator(301, 0.5).next(blockSize);
+        compressed = new byte[snappy.maxCompressedLength(blockSize)];
+        compressedLength = snappy.compress(uncompressed, 0, uncompressed.length, compressed, 0);
+        output = new byte[blockSize];
+
+        // table读取block时使用的是direct buffer
+        compressedBuffer = ByteBuffer.allocateDirect(compressedLength);
+        compressedBuffer.put(compressed, 0, compressedLength);
+        compressedBuffer.flip();
+        outputBuffer = ByteBuffer.allocateDirect(blockSize);
+    }
+
+    @Benchmark
+    public int compress()
+            throws IOException
+    {
+        return snappy.compress(uncompressed, 0, uncompressed.length, compressed, 0);
+    }
+
+    @Benchmark
+    public int uncompress()
+            throws IOException
+    {
+        return snappy.uncompress(compressed, 0, compressedLength, output, 0);
+    }
+
+    @Benchmark
+    public int uncompressDirect()
+            throws IOException
+    {
+        compressedBuffer.rewind();
+        outputBuffer.clear();
+        return snappy.uncompress(compressedBuffer, outputBuffer);
+    }
+}
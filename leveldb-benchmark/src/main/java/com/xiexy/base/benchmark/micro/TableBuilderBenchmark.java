@@ -0,0 +1,99 @@
+package com.xiexy.base.benchmark.micro;
+
+import com.xiexy.base.CompressionType;
+import com.xiexy.base.Options;
+import com.xiexy.base.benchmark.BenchmarkData;
+import com.xiexy.base.include.Slice;
+import com.xiexy.base.table.BytewiseComparator;
+import com.xiexy.base.table.TableBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TableBuilder从add到finish的完整过程，包括data block、index block、压缩和crc，不fsync
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableBuilderBenchmark
+{
+    private static final int ENTRIES = 10_000;
+
+    @Param({"NONE", "SNAPPY"})
+    public CompressionType compression;
+
+    @Param({"16"})
+    public int restartInterval;
+
+    @Param({"100"})
+    public int valueSize;
+
+    private final BytewiseComparator comparator = new BytewiseComparator();
+    private Options options;
+    private Slice[] keys;
+    private Slice[] values;
+    private File file;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+
+    @Setup
+    public void setup()
+            throws IOException
+    {
+        options = new Options().compressionType(compression).blockRestartInterval(restartInterval);
+        BenchmarkData.ValueGenerator generator = new BenchmarkData.ValueGenerator(301, 0.5);
+        keys = new Slice[ENTRIES];
+        values = new Slice[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            keys[i] = new Slice(BenchmarkData.key(i, 16));
+            values[i] = new Slice(generator.next(valueSize));
+        }
+        file = File.createTempFile("table-builder-benchmark", ".sst");
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+    }
+
+    @TearDown
+    public void tearDown()
+            throws IOException
+    {
+        channel.close();
+        randomAccessFile.close();
+        file.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public long build()
+            throws IOException
+    {
+        channel.truncate(0);
+        channel.position(0);
+        TableBuilder builder = new TableBuilder(options, channel, comparator);
+        for (int i = 0; i < ENTRIES; i++) {
+            builder.add(keys[i], values[i]);
+        }
+        builder.finish();
+        return builder.getFileSize();
+    }
+}
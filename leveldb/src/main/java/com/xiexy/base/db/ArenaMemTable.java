@@ -0,0 +1,404 @@
+package com.xiexy.base.db;
+
+import com.google.common.collect.Maps;
+import com.xiexy.base.impl.InternalEntry;
+import com.xiexy.base.impl.InternalKey;
+import com.xiexy.base.impl.InternalKeyComparator;
+import com.xiexy.base.impl.LookupKey;
+import com.xiexy.base.impl.LookupResult;
+import com.xiexy.base.impl.SequenceNumber;
+import com.xiexy.base.impl.ValueType;
+import com.xiexy.base.include.Slice;
+import com.xiexy.base.table.BytewiseComparator;
+import com.xiexy.base.table.UserComparator;
+import com.xiexy.base.utils.InternalIterator;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.xiexy.base.utils.DataUnit.INT_UNIT;
+import static com.xiexy.base.utils.DataUnit.LONG_UNIT;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * 把记录编码后保存在堆外arena中的memtable，与源码中的MemTable相同，每条记录的格式为：
+ * internal key长度(4字节) | user key | sequence和value type(8字节) | value长度(4字节) | value
+ *
+ * 跳表的节点保存在堆上的long数组页中，一个节点占连续的height + 1个long：记录在arena中的地址，以及每一层下一个节点的编号。
+ * 插入时不分配InternalKey、Slice和节点对象，内存使用量是已分配的chunk和页的实际大小
+ */
+public class ArenaMemTable
+        extends MemTable
+{
+    private static final int MAX_HEIGHT = 12;
+    private static final int BRANCHING = 4;
+    // 头节点的编号是0，头节点不会是任何节点的下一个节点，所以0也表示没有下一个节点
+    private static final long HEAD = 0;
+    private static final long NIL = 0;
+
+    private final UserComparator userComparator;
+    private final boolean bytewise;
+    private final OffHeapArena arena;
+
+    private final int pageShift;
+    private final int pageSize;
+    // 只在持有锁时替换，读操作通过已发布的节点编号访问页
+    private volatile AtomicLongArray[] pages = new AtomicLongArray[0];
+    private long nextNode;
+
+    public ArenaMemTable(InternalKeyComparator internalKeyComparator, int chunkSize)
+    {
+        requireNonNull(internalKeyComparator, "internalKeyComparator is null");
+        checkArgument(chunkSize >= 4096, "chunkSize must be at least 4096");
+        this.userComparator = internalKeyComparator.getUserComparator();
+        this.bytewise = userComparator.getClass() == BytewiseComparator.class;
+        this.arena = new OffHeapArena(chunkSize);
+
+        // 每个节点平均约2.33个long，页的大小取chunk的八分之一左右
+        this.pageShift = 31 - Integer.numberOfLeadingZeros(chunkSize / 8 / LONG_UNIT);
+        this.pageSize = 1 << pageShift;
+
+        long head = allocateNode(MAX_HEIGHT, -1);
+        checkArgument(head == HEAD, "head must be the first node");
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return getNext(HEAD, 0) == NIL;
+    }
+
+    @Override
+    public long approximateMemoryUsage()
+    {
+        return arena.memoryUsage() + (long) pages.length * pageSize * LONG_UNIT;
+    }
+
+    @Override
+    public void add(long sequenceNumber, ValueType valueType, Slice key, Slice value)
+    {
+        requireNonNull(valueType, "valueType is null");
+        requireNonNull(key, "key is null");
+
+        int internalKeyLength = key.length() + LONG_UNIT;
+        long entry = arena.allocate(INT_UNIT + internalKeyLength + INT_UNIT + value.length());
+        ByteBuffer chunk = arena.chunk(entry);
+        int offset = OffHeapArena.offset(entry);
+        chunk.putInt(offset, internalKeyLength);
+        OffHeapArena.write(chunk, offset + INT_UNIT, key);
+        chunk.putLong(offset + INT_UNIT + key.length(), SequenceNumber.packSequenceAndValueType(sequenceNumber, valueType));
+        chunk.putInt(offset + INT_UNIT + internalKeyLength, value.length());
+        OffHeapArena.write(chunk, offset + INT_UNIT + internalKeyLength + INT_UNIT, value);
+
+        insert(entry, key, sequenceNumber);
+    }
+
+    @Override
+    public LookupResult get(LookupKey key)
+    {
+        requireNonNull(key, "key is null");
+
+        InternalKey internalKey = key.getInternalKey();
+        long node = findGreaterOrEqual(internalKey.getUserKey(), internalKey.getSequenceNumber());
+        if (node == NIL) {
+            return null;
+        }
+
+        long entry = entry(node);
+        ByteBuffer chunk = arena.chunk(entry);
+        int offset = OffHeapArena.offset(entry);
+        int userKeyLength = chunk.getInt(offset) - LONG_UNIT;
+        if (!userKeyEquals(chunk, offset + INT_UNIT, userKeyLength, key.getUserKey())) {
+            return null;
+        }
+        ValueType valueType = SequenceNumber.unpackValueType(chunk.getLong(offset + INT_UNIT + userKeyLength));
+        if (valueType == ValueType.DELETION) {
+            return LookupResult.deleted(key);
+        }
+        return LookupResult.ok(key, readValue(chunk, offset));
+    }
+
+    @Override
+    public InternalIterator iterator()
+    {
+        return new ArenaMemTableIterator();
+    }
+
+    /**
+     * 直接复制arena中编码好的internal key，不需要再次编码
+     */
+    @Override
+    public Iterator<Map.Entry<Slice, Slice>> encodedIterator()
+    {
+        return new Iterator<Map.Entry<Slice, Slice>>()
+        {
+            private long node = getNext(HEAD, 0);
+
+            @Override
+            public boolean hasNext()
+            {
+                return node != NIL;
+            }
+
+            @Override
+            public Map.Entry<Slice, Slice> next()
+            {
+                if (node == NIL) {
+                    throw new NoSuchElementException();
+                }
+                long entry = entry(node);
+                node = getNext(node, 0);
+
+                ByteBuffer chunk = arena.chunk(entry);
+                int offset = OffHeapArena.offset(entry);
+                Slice internalKey = OffHeapArena.read(chunk, offset + INT_UNIT, chunk.getInt(offset));
+                return Maps.immutableEntry(internalKey, readValue(chunk, offset));
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private void insert(long entry, Slice userKey, long sequenceNumber)
+    {
+        int height = randomHeight();
+        long node = allocateNode(height, entry);
+
+        long[] previous = new long[MAX_HEIGHT];
+        long[] successors = new long[MAX_HEIGHT];
+        long x = HEAD;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            x = findSplice(x, level, userKey, sequenceNumber, previous, successors);
+        }
+
+        // 从下往上链接，节点在第0层可见后就可以被读到，上层只用于加速查找
+        for (int level = 0; level < height; level++) {
+            while (true) {
+                setNext(node, level, successors[level]);
+                if (compareAndSetNext(previous[level], level, successors[level], node)) {
+                    break;
+                }
+                // 其他线程在同一个位置插入了节点，从previous开始重新查找这一层
+                findSplice(previous[level], level, userKey, sequenceNumber, previous, successors);
+            }
+        }
+    }
+
+    /**
+     * 在level层从start开始找到插入位置，返回前一个节点
+     */
+    private long findSplice(long start, int level, Slice userKey, long sequenceNumber, long[] previous, long[] successors)
+    {
+        long x = start;
+        while (true) {
+            long next = getNext(x, level);
+            if (next != NIL && compare(entry(next), userKey, sequenceNumber) < 0) {
+                x = next;
+            }
+            else {
+                previous[level] = x;
+                successors[level] = next;
+                return x;
+            }
+        }
+    }
+
+    /**
+     * 第一个大于等于目标的节点，没有时返回NIL
+     */
+    private long findGreaterOrEqual(Slice userKey, long sequenceNumber)
+    {
+        long x = HEAD;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            while (true) {
+                long next = getNext(x, level);
+                if (next != NIL && compare(entry(next), userKey, sequenceNumber) < 0) {
+                    x = next;
+                }
+                else {
+                    if (level == 0) {
+                        return next;
+                    }
+                    break;
+                }
+            }
+        }
+        return NIL;
+    }
+
+    /**
+     * 与InternalKeyComparator相同，先按user key升序，再按sequence降序
+     */
+    private int compare(long entry, Slice userKey, long sequenceNumber)
+    {
+        ByteBuffer chunk = arena.chunk(entry);
+        int offset = OffHeapArena.offset(entry);
+        int userKeyLength = chunk.getInt(offset) - LONG_UNIT;
+
+        int result;
+        if (bytewise) {
+            result = compareBytes(chunk, offset + INT_UNIT, userKeyLength, userKey);
+        }
+        else {
+            result = userComparator.compare(OffHeapArena.read(chunk, offset + INT_UNIT, userKeyLength), userKey);
+        }
+        if (result != 0) {
+            return result;
+        }
+        long entrySequence = SequenceNumber.unpackSequenceNumber(chunk.getLong(offset + INT_UNIT + userKeyLength));
+        return Long.compare(sequenceNumber, entrySequence);
+    }
+
+    // 与Slice.compareTo相同，按无符号字节比较
+    private static int compareBytes(ByteBuffer chunk, int offset, int length, Slice key)
+    {
+        byte[] data = key.getData();
+        int keyOffset = key.getOffset();
+        int minLength = Math.min(length, key.length());
+        for (int i = 0; i < minLength; i++) {
+            int thisByte = 0xFF & chunk.get(offset + i);
+            int thatByte = 0xFF & data[keyOffset + i];
+            if (thisByte != thatByte) {
+                return thisByte - thatByte;
+            }
+        }
+        return length - key.length();
+    }
+
+    private static boolean userKeyEquals(ByteBuffer chunk, int offset, int length, Slice key)
+    {
+        return length == key.length() && compareBytes(chunk, offset, length, key) == 0;
+    }
+
+    private static Slice readValue(ByteBuffer chunk, int offset)
+    {
+        int valueOffset = offset + INT_UNIT + chunk.getInt(offset);
+        return OffHeapArena.read(chunk, valueOffset + INT_UNIT, chunk.getInt(valueOffset));
+    }
+
+    private InternalEntry readEntry(long node)
+    {
+        long entry = entry(node);
+        ByteBuffer chunk = arena.chunk(entry);
+        int offset = OffHeapArena.offset(entry);
+        InternalKey internalKey = new InternalKey(OffHeapArena.read(chunk, offset + INT_UNIT, chunk.getInt(offset)));
+        return new InternalEntry(internalKey, readValue(chunk, offset));
+    }
+
+    private static int randomHeight()
+    {
+        int height = 1;
+        while (height < MAX_HEIGHT && ThreadLocalRandom.current().nextInt(BRANCHING) == 0) {
+            height++;
+        }
+        return height;
+    }
+
+    /**
+     * 分配height + 1个连续的long，节点不跨页
+     */
+    private synchronized long allocateNode(int height, long entry)
+    {
+        int size = height + 1;
+        if ((nextNode & (pageSize - 1)) + size > pageSize) {
+            nextNode = (nextNode + pageSize) & ~(long) (pageSize - 1);
+        }
+        int page = (int) (nextNode >>> pageShift);
+        if (page == pages.length) {
+            AtomicLongArray[] newPages = Arrays.copyOf(pages, page + 1);
+            newPages[page] = new AtomicLongArray(pageSize);
+            pages = newPages;
+        }
+        long node = nextNode;
+        nextNode += size;
+        slots(node).lazySet(slot(node), entry);
+        return node;
+    }
+
+    private AtomicLongArray slots(long node)
+    {
+        return pages[(int) (node >>> pageShift)];
+    }
+
+    private int slot(long node)
+    {
+        return (int) (node & (pageSize - 1));
+    }
+
+    private long entry(long node)
+    {
+        return slots(node).get(slot(node));
+    }
+
+    private long getNext(long node, int level)
+    {
+        return slots(node).get(slot(node) + 1 + level);
+    }
+
+    private void setNext(long node, int level, long next)
+    {
+        slots(node).lazySet(slot(node) + 1 + level, next);
+    }
+
+    private boolean compareAndSetNext(long node, int level, long expect, long update)
+    {
+        return slots(node).compareAndSet(slot(node) + 1 + level, expect, update);
+    }
+
+    private class ArenaMemTableIterator
+            implements InternalIterator
+    {
+        private long node = getNext(HEAD, 0);
+
+        @Override
+        public boolean hasNext()
+        {
+            return node != NIL;
+        }
+
+        @Override
+        public void seekToFirst()
+        {
+            node = getNext(HEAD, 0);
+        }
+
+        @Override
+        public void seek(InternalKey targetKey)
+        {
+            node = findGreaterOrEqual(targetKey.getUserKey(), targetKey.getSequenceNumber());
+        }
+
+        @Override
+        public InternalEntry peek()
+        {
+            if (node == NIL) {
+                throw new NoSuchElementException();
+            }
+            return readEntry(node);
+        }
+
+        @Override
+        public InternalEntry next()
+        {
+            InternalEntry entry = peek();
+            node = getNext(node, 0);
+            return entry;
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
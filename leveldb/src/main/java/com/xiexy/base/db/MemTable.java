@@ -13,18 +13,19 @@
  */
 package com.xiexy.base.db;
 
+import com.google.common.base.Function;
 import com.google.common.collect.Iterators;
-import com.google.common.collect.PeekingIterator;
-import com.xiexy.base.impl.*;
+import com.google.common.collect.Maps;
+import com.xiexy.base.impl.InternalKey;
+import com.xiexy.base.impl.LookupKey;
+import com.xiexy.base.impl.LookupResult;
+import com.xiexy.base.impl.SeekingIterable;
+import com.xiexy.base.impl.ValueType;
 import com.xiexy.base.include.Slice;
 import com.xiexy.base.utils.InternalIterator;
-import java.util.Map;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.atomic.AtomicLong;
-
-import static com.xiexy.base.utils.DataUnit.LONG_UNIT;
-import static java.util.Objects.requireNonNull;
 
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * leveldb之所以有level这个单词就是因为数据存储分层管理，而日志和内存表（memtable）处于第0层
@@ -37,123 +38,45 @@ import static java.util.Objects.requireNonNull;
  * Memtable提供了写入KV记录，删除以及读取KV记录的接口，
  * 但是事实上Memtable并不执行真正的删除操作,删除某个Key的Value在Memtable内是作为插入一条记录实施的，但是会打上一个Key的删除标记，
  * 真正的删除操作在后面的 Compaction过程中，lazy delete。
- * ConcurrentSkipListMap是MemTable的核心数据结构，memtable的KV数据都存储在ConcurrentSkipListMap中。
+ *
+ * {@link SkipListMemTable}把记录保存在ConcurrentSkipListMap中，
+ * {@link ArenaMemTable}把编码后的记录保存在堆外的arena中，由Options.offHeapMemTable选择。
  */
-public class MemTable
+public abstract class MemTable
         implements SeekingIterable<InternalKey, Slice>
 {
-    private final ConcurrentSkipListMap<InternalKey, Slice> table;
-    private final AtomicLong approximateMemoryUsage = new AtomicLong();
-
-    public MemTable(InternalKeyComparator internalKeyComparator)
-    {
-        table = new ConcurrentSkipListMap<>(internalKeyComparator);
-    }
-
-    public boolean isEmpty()
-    {
-        return table.isEmpty();
-    }
-
-    public long approximateMemoryUsage()
-    {
-        return approximateMemoryUsage.get();
-    }
-
-    public void add(long sequenceNumber, ValueType valueType, Slice key, Slice value)
-    {
-        requireNonNull(valueType, "valueType is null");
-        requireNonNull(key, "key is null");
-
-        InternalKey internalKey = new InternalKey(key, sequenceNumber, valueType);
-        table.put(internalKey, value);
+    public abstract boolean isEmpty();
 
-        // 将在函数的参数中传递的值添加到先前的值,并返回数据类型为long的新更新值。
-        approximateMemoryUsage.addAndGet(key.length() + LONG_UNIT + value.length());
-    }
-
-    // Memtable的查询接口传入的是LookupKey，它也是由User Key和Sequence Number组合而成的
-    public LookupResult get(LookupKey key)
-    {
-        requireNonNull(key, "key is null");
+    /**
+     * memtable占用的内存，超过Options.writeBufferSize时切换memtable
+     */
+    public abstract long approximateMemoryUsage();
 
-        InternalKey internalKey = key.getInternalKey();
-        // 返回与该键至少大于或等于给定键,如果不存在这样的键的键 - 值映射,则返回null相关联。
-        Map.Entry<InternalKey, Slice> entry = table.ceilingEntry(internalKey);
-        if (entry == null) {
-            return null;
-        }
+    public abstract void add(long sequenceNumber, ValueType valueType, Slice key, Slice value);
 
-        InternalKey entryKey = entry.getKey();
-        if (entryKey.getUserKey().equals(key.getUserKey())) {
-            if (entryKey.getValueType() == ValueType.DELETION) {
-                return LookupResult.deleted(key);
-            }
-            else {
-                return LookupResult.ok(key, entry.getValue());
-            }
-        }
-        return null;
-    }
+    /**
+     * 找到user key相同且sequence不大于key的最新记录，没有时返回null
+     */
+    public abstract LookupResult get(LookupKey key);
 
     /**
-     * 可以遍历访问table的内部数据，很好的设计思想，这种方式隐藏了table的内部实现。
      * 外部调用者必须保证使用Iterator访问Memtable的时候该Memtable是live的。
-     * @return 返回一个迭代器
      */
     @Override
-    public MemTableIterator iterator()
-    {
-        return new MemTableIterator();
-    }
+    public abstract InternalIterator iterator();
 
-    public class MemTableIterator
-            implements InternalIterator
+    /**
+     * 按顺序返回编码后的internal key和value，flush时直接写入sstable
+     */
+    public Iterator<Map.Entry<Slice, Slice>> encodedIterator()
     {
-        // PeekingIterator是自定义的迭代器，是对顶层迭代器Iterator的封装。
-        private PeekingIterator<Map.Entry<InternalKey, Slice>> iterator;
-
-        public MemTableIterator()
-        {
-            iterator = Iterators.peekingIterator(table.entrySet().iterator());
-        }
-
-        @Override
-        public boolean hasNext()
+        return Iterators.transform(iterator(), new Function<Map.Entry<InternalKey, Slice>, Map.Entry<Slice, Slice>>()
         {
-            return iterator.hasNext();
-        }
-
-        @Override
-        public void seekToFirst()
-        {
-            iterator = Iterators.peekingIterator(table.entrySet().iterator());
-        }
-
-        @Override
-        public void seek(InternalKey targetKey)
-        {
-            iterator = Iterators.peekingIterator(table.tailMap(targetKey).entrySet().iterator());
-        }
-
-        @Override
-        public InternalEntry peek()
-        {
-            Map.Entry<InternalKey, Slice> entry = iterator.peek();
-            return new InternalEntry(entry.getKey(), entry.getValue());
-        }
-
-        @Override
-        public InternalEntry next()
-        {
-            Map.Entry<InternalKey, Slice> entry = iterator.next();
-            return new InternalEntry(entry.getKey(), entry.getValue());
-        }
-
-        @Override
-        public void remove()
-        {
-            throw new UnsupportedOperationException();
-        }
+            @Override
+            public Map.Entry<Slice, Slice> apply(Map.Entry<InternalKey, Slice> entry)
+            {
+                return Maps.immutableEntry(entry.getKey().encode(), entry.getValue());
+            }
+        });
     }
 }
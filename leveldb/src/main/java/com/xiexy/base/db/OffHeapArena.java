@@ -0,0 +1,105 @@
+package com.xiexy.base.db;
+
+import com.xiexy.base.include.Slice;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * 对应于源码中的Arena，从堆外分配固定大小的chunk，再从chunk中顺序分配内存，分配的内存不会单独释放，
+ * 整个arena不再被引用后由direct buffer的cleaner一起释放。
+ * 地址用long表示，高32位是chunk的编号，低32位是chunk内的偏移量
+ */
+final class OffHeapArena
+{
+    private final int chunkSize;
+    // 只在持有锁时替换，读操作通过已发布的地址访问chunk
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private int currentChunk = -1;
+    private int position;
+    private final AtomicLong memoryUsage = new AtomicLong();
+
+    OffHeapArena(int chunkSize)
+    {
+        checkArgument(chunkSize > 0, "chunkSize must be positive");
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * 分配size字节，返回其地址
+     */
+    synchronized long allocate(int size)
+    {
+        checkArgument(size >= 0, "size is negative");
+        if (currentChunk < 0 || chunkSize - position < size) {
+            // 大于chunk四分之一的分配单独使用一个chunk，避免浪费当前chunk剩下的空间
+            if (size > chunkSize / 4) {
+                return address(addChunk(size), 0);
+            }
+            currentChunk = addChunk(chunkSize);
+            position = 0;
+        }
+        long address = address(currentChunk, position);
+        position += size;
+        return address;
+    }
+
+    private int addChunk(int capacity)
+    {
+        ByteBuffer[] chunks = this.chunks;
+        ByteBuffer[] newChunks = Arrays.copyOf(chunks, chunks.length + 1);
+        newChunks[chunks.length] = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        this.chunks = newChunks;
+        memoryUsage.addAndGet(capacity);
+        return chunks.length;
+    }
+
+    /**
+     * 地址所在的chunk，使用绝对位置读写，不改变chunk的position
+     */
+    ByteBuffer chunk(long address)
+    {
+        return chunks[(int) (address >>> 32)];
+    }
+
+    static int offset(long address)
+    {
+        return (int) address;
+    }
+
+    /**
+     * 已经分配的chunk的总大小
+     */
+    long memoryUsage()
+    {
+        return memoryUsage.get();
+    }
+
+    static void write(ByteBuffer chunk, int offset, Slice slice)
+    {
+        ByteBuffer target = chunk.duplicate();
+        target.position(offset);
+        target.put(slice.getData(), slice.getOffset(), slice.length());
+    }
+
+    /**
+     * 把[offset, offset + length)复制到堆上
+     */
+    static Slice read(ByteBuffer chunk, int offset, int length)
+    {
+        ByteBuffer source = chunk.duplicate();
+        source.limit(offset + length).position(offset);
+        Slice slice = new Slice(length);
+        slice.setBytes(0, source);
+        return slice;
+    }
+
+    private static long address(int chunk, int offset)
+    {
+        return ((long) chunk << 32) | offset;
+    }
+}
@@ -0,0 +1,173 @@
+package com.xiexy.base.impl;
+
+import java.util.List;
+
+/**
+ * 每一层compaction的累计统计，对应于源码中的DBImpl::CompactionStats。
+ * 记录在compaction输出的level上，memtable flush记录在flush到的level上。
+ * 每次flush或compaction先记录到一个新的CompactionStats中，完成后add到对应level的统计上，由DbImpl的mutex保护
+ */
+public class CompactionStats
+{
+    // flush和compaction的次数
+    private long count;
+    private long micros;
+    private long cpuMicros;
+
+    // 从level N（compaction的输入层）和level N+1读取的文件和字节数
+    private long filesReadFromLevel;
+    private long bytesReadFromLevel;
+    private long filesReadFromNextLevel;
+    private long bytesReadFromNextLevel;
+
+    private long filesWritten;
+    private long bytesWritten;
+
+    private long recordsIn;
+    // 被同一个user key更新的entry覆盖而丢弃的entry
+    private long recordsDropped;
+    // 已经没有用的删除标记
+    private long deletionsDropped;
+
+    public CompactionStats()
+    {
+    }
+
+    public CompactionStats(CompactionStats stats)
+    {
+        add(stats);
+        count = stats.count;
+    }
+
+    public void addTime(long micros, long cpuMicros)
+    {
+        this.micros += micros;
+        this.cpuMicros += cpuMicros;
+    }
+
+    public void addInputs(List<FileMetaData> levelInputs, List<FileMetaData> levelUpInputs)
+    {
+        filesReadFromLevel += levelInputs.size();
+        bytesReadFromLevel += Compaction.totalFileSize(levelInputs);
+        filesReadFromNextLevel += levelUpInputs.size();
+        bytesReadFromNextLevel += Compaction.totalFileSize(levelUpInputs);
+    }
+
+    public void addOutput(long fileSize)
+    {
+        filesWritten++;
+        bytesWritten += fileSize;
+    }
+
+    public void addRecords(long recordsIn, long recordsDropped, long deletionsDropped)
+    {
+        this.recordsIn += recordsIn;
+        this.recordsDropped += recordsDropped;
+        this.deletionsDropped += deletionsDropped;
+    }
+
+    /**
+     * 累加一次flush或compaction的统计
+     */
+    public void add(CompactionStats stats)
+    {
+        count++;
+        micros += stats.micros;
+        cpuMicros += stats.cpuMicros;
+        filesReadFromLevel += stats.filesReadFromLevel;
+        bytesReadFromLevel += stats.bytesReadFromLevel;
+        filesReadFromNextLevel += stats.filesReadFromNextLevel;
+        bytesReadFromNextLevel += stats.bytesReadFromNextLevel;
+        filesWritten += stats.filesWritten;
+        bytesWritten += stats.bytesWritten;
+        recordsIn += stats.recordsIn;
+        recordsDropped += stats.recordsDropped;
+        deletionsDropped += stats.deletionsDropped;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public long getMicros()
+    {
+        return micros;
+    }
+
+    public long getCpuMicros()
+    {
+        return cpuMicros;
+    }
+
+    public long getFilesReadFromLevel()
+    {
+        return filesReadFromLevel;
+    }
+
+    public long getBytesReadFromLevel()
+    {
+        return bytesReadFromLevel;
+    }
+
+    public long getFilesReadFromNextLevel()
+    {
+        return filesReadFromNextLevel;
+    }
+
+    public long getBytesReadFromNextLevel()
+    {
+        return bytesReadFromNextLevel;
+    }
+
+    public long getBytesRead()
+    {
+        return bytesReadFromLevel + bytesReadFromNextLevel;
+    }
+
+    public long getFilesWritten()
+    {
+        return filesWritten;
+    }
+
+    public long getBytesWritten()
+    {
+        return bytesWritten;
+    }
+
+    public long getRecordsIn()
+    {
+        return recordsIn;
+    }
+
+    public long getRecordsDropped()
+    {
+        return recordsDropped;
+    }
+
+    public long getDeletionsDropped()
+    {
+        return deletionsDropped;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("CompactionStats");
+        sb.append("{count=").append(count);
+        sb.append(", micros=").append(micros);
+        sb.append(", cpuMicros=").append(cpuMicros);
+        sb.append(", filesReadFromLevel=").append(filesReadFromLevel);
+        sb.append(", bytesReadFromLevel=").append(bytesReadFromLevel);
+        sb.append(", filesReadFromNextLevel=").append(filesReadFromNextLevel);
+        sb.append(", bytesReadFromNextLevel=").append(bytesReadFromNextLevel);
+        sb.append(", filesWritten=").append(filesWritten);
+        sb.append(", bytesWritten=").append(bytesWritten);
+        sb.append(", recordsIn=").append(recordsIn);
+        sb.append(", recordsDropped=").append(recordsDropped);
+        sb.append(", deletionsDropped=").append(deletionsDropped);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -17,7 +17,7 @@ public final class DbConstants
     public static final int L0_COMPACTION_TRIGGER = 4;
 
     /**
-     * level 0 文件的数量达到下述值的时候，写入的时候增加1ms的延时
+     * level 0 文件的数量超过下述值的时候，开始对写入限速
      */
     public static final int L0_SLOWDOWN_WRITES_TRIGGER = 8;
 
@@ -26,6 +26,16 @@ public final class DbConstants
      */
     public static final int L0_STOP_WRITES_TRIGGER = 12;
 
+    /**
+     * 待compaction的字节数超过下述值的时候，开始对写入限速
+     */
+    public static final long SOFT_PENDING_COMPACTION_BYTES_LIMIT = 128L << 20;
+
+    /**
+     * 待compaction的字节数达到下述值的时候，写入速率降到最低
+     */
+    public static final long HARD_PENDING_COMPACTION_BYTES_LIMIT = 512L << 20;
+
     /**
      * Maximum level to which a new compacted memtable is pushed if it
      * does not create overlap.  We try to push to level 2 to avoid the
@@ -36,6 +46,11 @@ public final class DbConstants
      */
     public static final int MAX_MEM_COMPACT_LEVEL = 2;
 
+    /**
+     * 未指定Options.cacheSize时，block cache的默认大小为8MB
+     */
+    public static final long DEFAULT_BLOCK_CACHE_SIZE = 8 << 20;
+
     private DbConstants()
     {
     }
@@ -3,38 +3,49 @@ package com.xiexy.base.impl;
 import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.xiexy.base.*;
+import com.xiexy.base.db.ArenaMemTable;
 import com.xiexy.base.db.MemTable;
+import com.xiexy.base.db.SkipListMemTable;
 import com.xiexy.base.db.Slices;
 import com.xiexy.base.include.Slice;
-import com.xiexy.base.include.SliceInput;
-import com.xiexy.base.include.SliceOutput;
+import com.xiexy.base.table.BlockCache;
 import com.xiexy.base.table.BytewiseComparator;
+import com.xiexy.base.table.CustomFilterPolicy;
 import com.xiexy.base.table.CustomUserComparator;
+import com.xiexy.base.table.FilterPolicy;
 import com.xiexy.base.table.TableBuilder;
 import com.xiexy.base.table.UserComparator;
+import com.xiexy.base.utils.InternalIterator;
 import com.xiexy.base.utils.MergingIterator;
 import com.xiexy.base.utils.Snappy;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 import com.xiexy.base.impl.WriteBatchImpl.Handler;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
-import static com.xiexy.base.db.Slices.writeLengthPrefixedBytes;
 import static com.xiexy.base.impl.DbConstants.*;
 import static com.xiexy.base.impl.ValueType.DELETION;
 import static com.xiexy.base.impl.ValueType.VALUE;
-import static com.xiexy.base.utils.DataUnit.INT_UNIT;
-import static com.xiexy.base.utils.DataUnit.LONG_UNIT;
 import static java.util.Objects.requireNonNull;
 
 public class DbImpl
@@ -55,15 +66,52 @@ public class DbImpl
     private LogWriter log;
 
     private MemTable memTable;
-    private MemTable immutableMemTable;
+    // 等待flush的memtable，从旧到新排列，flush时从最旧的开始
+    private final Deque<ImmutableMemTable> immutableMemTables = new ArrayDeque<>();
+    // 读操作使用的memTable、immutableMemTables和current version，只在持有mutex时替换
+    private volatile SuperVersion superVersion;
 
     private final InternalKeyComparator internalKeyComparator;
+    // 未配置filter policy时为null
+    private final FilterPolicy internalFilterPolicy;
 
     private volatile Throwable backgroundException;
     private final ExecutorService compactionExecutor;
-    private Future<?> backgroundCompaction;
+    // 单独的线程把immutableMemTables写入level 0，不会被正在执行的compaction阻塞
+    private final ExecutorService flushExecutor;
+    // 已经提交但还没有完成的后台任务数，由mutex保护
+    private int backgroundCompactions;
+    private boolean backgroundFlushScheduled;
+    // 是否有线程正在把immutableMemTables写入level 0
+    private boolean memTableCompacting;
 
     private ManualCompaction manualCompaction;
+    private boolean manualCompactionRunning;
+
+    // 等待写入的writer队列，由mutex保护
+    private final Deque<Writer> writers = new ArrayDeque<>();
+    // 已经分配了sequence、还没有发布的组，按sequence排列，由mutex保护
+    private final Deque<WriteGroup> pendingWriteGroups = new ArrayDeque<>();
+    // 流水线中的组写完log或者发布后唤醒等待的leader
+    private final Condition pipelineCondition = mutex.newCondition();
+    // 有组写入失败后，之后发布的组都失败，由mutex保护
+    private boolean failedWriteGroup;
+    // 异步写入的writer，由asyncWriteExecutor的线程加入写入队列并代替调用者等待
+    private final Queue<Writer> asyncWriters = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean asyncWriteScheduled = new AtomicBoolean();
+    private final ExecutorService asyncWriteExecutor;
+    // 已经发布的异步writer，释放mutex之后再完成future，调用者的回调不会在持有mutex时执行
+    private final Queue<Writer> completedAsyncWriters = new ConcurrentLinkedQueue<>();
+    // compaction积压时对写入限速
+    private final WriteController writeController;
+    // 每一层的compaction统计，由mutex保护
+    private final CompactionStats[] stats = new CompactionStats[NUM_LEVELS];
+    // 用户写入的字节数、写入log的字节数和memtable flush写出的字节数，用于计算写放大
+    private final AtomicLong userBytesWritten = new AtomicLong();
+    private final AtomicLong walBytesWritten = new AtomicLong();
+    private final AtomicLong bytesFlushed = new AtomicLong();
+    // 未打开Options.metrics()时为null
+    private final DbMetrics metrics;
 
     public DbImpl(Options options, File databaseDir)
             throws IOException
@@ -89,28 +137,65 @@ public class DbImpl
             userComparator = new BytewiseComparator();
         }
         internalKeyComparator = new InternalKeyComparator(userComparator);
-        memTable = new MemTable(internalKeyComparator);
-        immutableMemTable = null;
 
+        // sstable中的key是internal key，需要包装用户的filter policy
+        DBFilterPolicy filterPolicy = options.filterPolicy();
+        if (filterPolicy instanceof FilterPolicy) {
+            internalFilterPolicy = new InternalFilterPolicy((FilterPolicy) filterPolicy);
+        }
+        else if (filterPolicy != null) {
+            internalFilterPolicy = new InternalFilterPolicy(new CustomFilterPolicy(filterPolicy));
+        }
+        else {
+            internalFilterPolicy = null;
+        }
+        memTable = newMemTable();
+        writeController = new WriteController(options.delayedWriteRate());
+        for (int level = 0; level < NUM_LEVELS; level++) {
+            stats[level] = new CompactionStats();
+        }
+
+        Thread.UncaughtExceptionHandler uncaughtExceptionHandler = new Thread.UncaughtExceptionHandler()
+        {
+            @Override
+            public void uncaughtException(Thread t, Throwable e)
+            {
+
+                System.out.printf("%s%n", t);
+                e.printStackTrace();
+            }
+        };
         ThreadFactory compactionThreadFactory = new ThreadFactoryBuilder()
                 .setNameFormat("leveldb-compaction-%s")
-                .setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler()
-                {
-                    @Override
-                    public void uncaughtException(Thread t, Throwable e)
-                    {
-
-                        System.out.printf("%s%n", t);
-                        e.printStackTrace();
-                    }
-                })
+                .setUncaughtExceptionHandler(uncaughtExceptionHandler)
+                .build();
+        compactionExecutor = Executors.newFixedThreadPool(options.maxBackgroundCompactions(), compactionThreadFactory);
+        // flush使用单独的线程，不会排在耗时的compaction之后，写入阻塞在makeRoomForWrite时等待的是flush
+        ThreadFactory flushThreadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("leveldb-flush-%s")
+                .setUncaughtExceptionHandler(uncaughtExceptionHandler)
+                .build();
+        flushExecutor = Executors.newSingleThreadExecutor(flushThreadFactory);
+        ThreadFactory asyncWriteThreadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("leveldb-write-%s")
+                .setDaemon(true)
+                .setUncaughtExceptionHandler(uncaughtExceptionHandler)
                 .build();
-        compactionExecutor = Executors.newSingleThreadExecutor(compactionThreadFactory);
+        asyncWriteExecutor = Executors.newSingleThreadExecutor(asyncWriteThreadFactory);
 
         // 在函数体中，创建TableCache和VersionSet。
         // 为其他预留10个文件，其余的都给TableCache.
         int tableCacheSize = options.maxOpenFiles() - 10;
-        tableCache = new TableCache(databaseDir, tableCacheSize, new InternalUserComparator(internalKeyComparator), options.verifyChecksums());
+        // 未指定cacheSize时，与源码一致使用8MB的block cache
+        long blockCacheSize = options.cacheSize() > 0 ? options.cacheSize() : DEFAULT_BLOCK_CACHE_SIZE;
+        tableCache = new TableCache(databaseDir,
+                tableCacheSize,
+                new InternalUserComparator(internalKeyComparator),
+                // 与源码一致，打开table时读取的block只在paranoidChecks时校验，data block由ReadOptions决定
+                options.paranoidChecks(),
+                internalFilterPolicy,
+                new BlockCache(blockCacheSize));
+        metrics = options.metrics() ? new DbMetrics(writeController, tableCache) : null;
 
         // create the version set
 
@@ -178,6 +263,7 @@ public class DbImpl
 
             // apply recovered edits
             versions.logAndApply(edit);
+            installSuperVersion();
 
             // cleanup unused files
             deleteObsoleteFiles();
@@ -188,6 +274,10 @@ public class DbImpl
         finally {
             mutex.unlock();
         }
+
+        if (metrics != null) {
+            metrics.register(databaseDir);
+        }
     }
 
     @Override
@@ -197,23 +287,40 @@ public class DbImpl
             return;
         }
 
+        // 已经提交的异步写入在关闭前写完，之后提交的异步写入直接失败
+        asyncWriteExecutor.shutdown();
+        try {
+            asyncWriteExecutor.awaitTermination(1, TimeUnit.DAYS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failAsyncWriters(new DatabaseShutdownException("Database has been closed"));
+
         mutex.lock();
         try {
-            while (backgroundCompaction != null) {
+            while (backgroundCompactions > 0 || backgroundFlushScheduled) {
                 backgroundCondition.awaitUninterruptibly();
             }
+            // 等流水线中的组写完log再关闭
+            while (!pendingWriteGroups.isEmpty()) {
+                pipelineCondition.awaitUninterruptibly();
+            }
         }
         finally {
             mutex.unlock();
         }
 
+        flushExecutor.shutdown();
         compactionExecutor.shutdown();
         try {
+            flushExecutor.awaitTermination(1, TimeUnit.DAYS);
             compactionExecutor.awaitTermination(1, TimeUnit.DAYS);
         }
         catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        superVersion.release();
         try {
             versions.destroy();
         }
@@ -225,14 +332,185 @@ public class DbImpl
         catch (IOException ignored) {
         }
         tableCache.close();
+        if (metrics != null) {
+            metrics.unregister();
+        }
         dbLock.release();
     }
 
     @Override
     public String getProperty(String name)
     {
+        requireNonNull(name, "name is null");
         checkBackgroundException();
-        return null;
+
+        String prefix = "leveldb.";
+        if (!name.startsWith(prefix)) {
+            return null;
+        }
+        String property = name.substring(prefix.length());
+
+        mutex.lock();
+        try {
+            if (property.startsWith("num-files-at-level")) {
+                int level;
+                try {
+                    level = Integer.parseInt(property.substring("num-files-at-level".length()));
+                }
+                catch (NumberFormatException e) {
+                    return null;
+                }
+                if (level < 0 || level >= NUM_LEVELS) {
+                    return null;
+                }
+                return String.valueOf(versions.numberOfFilesInLevel(level));
+            }
+            switch (property) {
+                case "stats":
+                    return getStatsProperty();
+                case "sstables":
+                    return getSSTablesProperty();
+                case "approximate-memory-usage":
+                    return String.valueOf(getApproximateMemoryUsage());
+                case "pending-compaction-bytes":
+                    return String.valueOf(versions.estimatePendingCompactionBytes());
+                case "delayed-write-rate":
+                    return String.valueOf(writeController.getDelayedWriteRate());
+                case "write-delay-count":
+                    return String.valueOf(writeController.getDelayCount());
+                case "write-stop-count":
+                    return String.valueOf(writeController.getStopCount());
+                case "write-stall-micros":
+                    return String.valueOf(TimeUnit.NANOSECONDS.toMicros(getWriteStallNanos()));
+                case "compaction-stats":
+                    return getCompactionStatsProperty();
+                case "user-bytes-written":
+                    return String.valueOf(userBytesWritten.get());
+                case "wal-bytes-written":
+                    return String.valueOf(walBytesWritten.get());
+                case "bytes-flushed":
+                    return String.valueOf(bytesFlushed.get());
+                case "write-amplification":
+                    return String.format("%.2f", getWriteAmplification());
+                case "num-open-tables":
+                    return String.valueOf(tableCache.getOpenTableCount());
+                case "num-pinned-tables":
+                    return String.valueOf(tableCache.getPinnedHandleCount());
+                case "block-cache-usage":
+                    BlockCache blockCache = tableCache.getBlockCache();
+                    return String.valueOf(blockCache == null ? 0 : blockCache.getUsage());
+                default:
+                    return null;
+            }
+        }
+        finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * 与源码中leveldb.stats的格式相同，只输出有文件或者有过compaction的level，之后是写入限速的统计
+     */
+    private String getStatsProperty()
+    {
+        checkState(mutex.isHeldByCurrentThread());
+        StringBuilder sb = new StringBuilder();
+        sb.append("                               Compactions\n");
+        sb.append("Level  Files Size(MB) Time(sec) Read(MB) Write(MB)\n");
+        sb.append("--------------------------------------------------\n");
+        for (int level = 0; level < NUM_LEVELS; level++) {
+            int files = versions.numberOfFilesInLevel(level);
+            CompactionStats levelStats = stats[level];
+            if (files > 0 || levelStats.getMicros() > 0) {
+                sb.append(String.format("%3d %8d %8.0f %9.0f %8.0f %9.0f\n",
+                        level,
+                        files,
+                        versions.numberOfBytesInLevel(level) / 1048576.0,
+                        levelStats.getMicros() / 1e6,
+                        levelStats.getBytesRead() / 1048576.0,
+                        levelStats.getBytesWritten() / 1048576.0));
+            }
+        }
+        sb.append(String.format("Write (MB): user %.1f, log %.1f, flush %.1f, write amplification %.2f\n",
+                userBytesWritten.get() / 1048576.0,
+                walBytesWritten.get() / 1048576.0,
+                bytesFlushed.get() / 1048576.0,
+                getWriteAmplification()));
+        sb.append(String.format("Pending compaction (MB): %.1f\n", versions.estimatePendingCompactionBytes() / 1048576.0));
+        sb.append(String.format("Write stall: delayed %d, stopped %d, %.3f sec, rate %d bytes/sec\n",
+                writeController.getDelayCount(),
+                writeController.getStopCount(),
+                getWriteStallNanos() / 1e9,
+                writeController.getDelayedWriteRate()));
+        return sb.toString();
+    }
+
+    /**
+     * 每一层详细的compaction统计，Rn为从本次compaction的输入层读取的数据，Rn+1为从输出层读取的数据
+     */
+    private String getCompactionStatsProperty()
+    {
+        checkState(mutex.isHeldByCurrentThread());
+        StringBuilder sb = new StringBuilder();
+        sb.append("Level Count Time(sec) CPU(sec) Rn(MB) Rn+1(MB) Write(MB) FilesIn(n) FilesIn(n+1) FilesOut RecordsIn Dropped DelDropped\n");
+        sb.append("-------------------------------------------------------------------------------------------------------------------\n");
+        for (int level = 0; level < NUM_LEVELS; level++) {
+            CompactionStats levelStats = stats[level];
+            if (levelStats.getCount() == 0) {
+                continue;
+            }
+            sb.append(String.format("%5d %5d %9.1f %8.1f %6.0f %8.0f %9.0f %10d %12d %8d %9d %7d %10d\n",
+                    level,
+                    levelStats.getCount(),
+                    levelStats.getMicros() / 1e6,
+                    levelStats.getCpuMicros() / 1e6,
+                    levelStats.getBytesReadFromLevel() / 1048576.0,
+                    levelStats.getBytesReadFromNextLevel() / 1048576.0,
+                    levelStats.getBytesWritten() / 1048576.0,
+                    levelStats.getFilesReadFromLevel(),
+                    levelStats.getFilesReadFromNextLevel(),
+                    levelStats.getFilesWritten(),
+                    levelStats.getRecordsIn(),
+                    levelStats.getRecordsDropped(),
+                    levelStats.getDeletionsDropped()));
+        }
+        return sb.toString();
+    }
+
+    private String getSSTablesProperty()
+    {
+        checkState(mutex.isHeldByCurrentThread());
+        Version current = versions.getCurrent();
+        StringBuilder sb = new StringBuilder();
+        for (int level = 0; level < current.numberOfLevels(); level++) {
+            sb.append("--- level ").append(level).append(" ---\n");
+            for (FileMetaData file : current.getFiles(level)) {
+                sb.append(' ').append(file.getNumber())
+                        .append(':').append(file.getFileSize())
+                        .append('[').append(file.getSmallest())
+                        .append(" .. ").append(file.getLargest())
+                        .append("]\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * memtable、immutable memtable、打开的table的index和filter，以及block cache占用的内存
+     */
+    private long getApproximateMemoryUsage()
+    {
+        checkState(mutex.isHeldByCurrentThread());
+        long usage = memTable.approximateMemoryUsage();
+        for (ImmutableMemTable immutableMemTable : immutableMemTables) {
+            usage += immutableMemTable.memTable.approximateMemoryUsage();
+        }
+        usage += tableCache.getApproximateMemoryUsage();
+        BlockCache blockCache = tableCache.getBlockCache();
+        if (blockCache != null) {
+            usage += blockCache.getUsage();
+        }
+        return usage;
     }
 
     /**
@@ -290,11 +568,11 @@ public class DbImpl
     {
         mutex.lock();
         try {
-            // force compaction
-            makeRoomForWrite(true);
+            // force compaction，通过写入队列切换memtable，避免与正在写log的leader冲突
+            writeGroup(new Writer(null, false, mutex.newCondition()));
 
             // todo bg_error code
-            while (immutableMemTable != null) {
+            while (!immutableMemTables.isEmpty()) {
                 backgroundCondition.awaitUninterruptibly();
             }
 
@@ -332,25 +610,18 @@ public class DbImpl
     }
 
     /**
-     * 判断后台线程是否已经启动和一些其他的错误判断，如果未启动则启动后台compaction线程
+     * 有immutableMemTables时提交flush任务；有需要执行的compaction且后台线程没有用完时，提交后台compaction任务，
+     * 最多同时执行options.maxBackgroundCompactions()个
      */
     private void maybeScheduleCompaction()
     {
         checkState(mutex.isHeldByCurrentThread());
 
-        if (backgroundCompaction != null) {
-            // 已经在后台执行compact
-        }
-        else if (shuttingDown.get()) {
-            // DB 已经被关闭了
-        }
-        else if (immutableMemTable == null &&
-                manualCompaction == null &&
-                !versions.needsCompaction()) {
-            // No work to be done
-        }
-        else {
-            backgroundCompaction = compactionExecutor.submit(new Callable<Void>()
+        maybeScheduleFlush();
+
+        while (backgroundCompactions < options.maxBackgroundCompactions() && !shuttingDown.get() && hasBackgroundWork()) {
+            backgroundCompactions++;
+            compactionExecutor.submit(new Callable<Void>()
             {
                 @Override
                 public Void call()
@@ -371,6 +642,74 @@ public class DbImpl
         }
     }
 
+    private void maybeScheduleFlush()
+    {
+        checkState(mutex.isHeldByCurrentThread());
+
+        if (backgroundFlushScheduled || shuttingDown.get() || immutableMemTables.isEmpty()) {
+            return;
+        }
+        backgroundFlushScheduled = true;
+        flushExecutor.submit(new Callable<Void>()
+        {
+            @Override
+            public Void call()
+                    throws Exception
+            {
+                try {
+                    backgroundFlush();
+                }
+                catch (DatabaseShutdownException ignored) {
+                }
+                catch (Throwable e) {
+                    backgroundException = e;
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 在flush线程中把最旧的immutable memtable写入level 0，完成后level 0的文件数增加，可能需要调度compaction，
+     * 还有其他immutable memtable时会继续调度flush
+     */
+    private void backgroundFlush()
+            throws IOException
+    {
+        mutex.lock();
+        try {
+            try {
+                if (!shuttingDown.get()) {
+                    compactMemTableInternal();
+                }
+            }
+            finally {
+                backgroundFlushScheduled = false;
+            }
+        }
+        finally {
+            try {
+                maybeScheduleCompaction();
+            }
+            finally {
+                try {
+                    backgroundCondition.signalAll();
+                }
+                finally {
+                    mutex.unlock();
+                }
+            }
+        }
+    }
+
+    private boolean hasBackgroundWork()
+    {
+        if (manualCompaction != null) {
+            return !manualCompactionRunning;
+        }
+        return versions.needsCompaction();
+    }
+
     public void checkBackgroundException()
     {
         Throwable e = backgroundException;
@@ -387,24 +726,24 @@ public class DbImpl
             throws IOException
     {
         mutex.lock();
+        boolean madeProgress = false;
         try {
-            if (backgroundCompaction == null) {
-                return;
-            }
-
             try {
                 if (!shuttingDown.get()) {
-                    backgroundCompaction();
+                    madeProgress = backgroundCompaction();
                 }
             }
             finally {
-                backgroundCompaction = null;
+                backgroundCompactions--;
             }
         }
         finally {
             try {
-                // 如果之前的compact产生了太多文件的话，就在这里再进行一次compact
-                maybeScheduleCompaction();
+                // 如果之前的compact产生了太多文件的话，就在这里再进行一次compact。
+                // 没有可执行的compaction时不再调度，等正在执行的compaction完成后再调度，避免空转
+                if (madeProgress) {
+                    maybeScheduleCompaction();
+                }
             }
             finally {
                 try {
@@ -417,16 +756,25 @@ public class DbImpl
         }
     }
 
-    // compact的核心实现
-    private void backgroundCompaction()
+    /**
+     * compact的核心实现，多个后台线程可以同时执行，VersionSet保证选出的compaction的输入文件和key range不重叠。
+     * immutableMemTables由flush线程处理
+     * @return 是否执行了compaction
+     */
+    private boolean backgroundCompaction()
             throws IOException
     {
         checkState(mutex.isHeldByCurrentThread());
 
-        compactMemTableInternal();
-
         Compaction compaction;
+        boolean isManual = false;
         if (manualCompaction != null) {
+            if (manualCompactionRunning || versions.hasCompactionsInProgress()) {
+                // 等正在执行的compaction完成后再执行manual compaction
+                return false;
+            }
+            isManual = true;
+            manualCompactionRunning = true;
             compaction = versions.compactRange(manualCompaction.level,
                     new InternalKey(manualCompaction.begin, MAX_SEQUENCE_NUMBER, VALUE),
                     new InternalKey(manualCompaction.end, 0, DELETION));
@@ -435,28 +783,41 @@ public class DbImpl
             compaction = versions.pickCompaction();
         }
 
-        if (compaction == null) {
-            // no compaction
-        }
-        else if (manualCompaction == null && compaction.isTrivialMove()) {
-            // Move file to next level
-            checkState(compaction.getLevelInputs().size() == 1);
-            FileMetaData fileMetaData = compaction.getLevelInputs().get(0);
-            compaction.getEdit().deleteFile(compaction.getLevel(), fileMetaData.getNumber());
-            compaction.getEdit().addFile(compaction.getLevel() + 1, fileMetaData);
-            versions.logAndApply(compaction.getEdit());
-            // log
-        }
-        else {
-            CompactionState compactionState = new CompactionState(compaction);
-            doCompactionWork(compactionState);
-            cleanupCompaction(compactionState);
+        try {
+            if (compaction == null) {
+                // no compaction
+            }
+            else if (!isManual && compaction.isTrivialMove()) {
+                // Move file to next level
+                checkState(compaction.getLevelInputs().size() == 1);
+                FileMetaData fileMetaData = compaction.getLevelInputs().get(0);
+                compaction.getEdit().deleteFile(compaction.getLevel(), fileMetaData.getNumber());
+                compaction.getEdit().addFile(compaction.getLevel() + 1, fileMetaData);
+                versions.logAndApply(compaction.getEdit());
+                installSuperVersion();
+                // log
+            }
+            else {
+                CompactionState compactionState = new CompactionState(compaction);
+                try {
+                    doCompactionWork(compactionState);
+                }
+                finally {
+                    cleanupCompaction(compactionState);
+                }
+            }
         }
-
-        // manual compaction complete
-        if (manualCompaction != null) {
-            manualCompaction = null;
+        finally {
+            if (compaction != null) {
+                versions.releaseCompaction(compaction);
+            }
+            // manual compaction complete
+            if (isManual) {
+                manualCompaction = null;
+                manualCompactionRunning = false;
+            }
         }
+        return compaction != null || isManual;
     }
 
     private void cleanupCompaction(CompactionState compactionState)
@@ -491,23 +852,22 @@ public class DbImpl
             long maxSequence = 0;
             MemTable memTable = null;
             for (Slice record = logReader.readRecord(); record != null; record = logReader.readRecord()) {
-                SliceInput sliceInput = record.input();
                 // read header
-                if (sliceInput.available() < 12) {
-                    logMonitor.corruption(sliceInput.available(), "log record too small");
+                if (record.length() < WriteBatchImpl.HEADER_SIZE) {
+                    logMonitor.corruption(record.length(), "log record too small");
                     continue;
                 }
-                long sequenceBegin = sliceInput.readLong();
-                int updateSize = sliceInput.readInt();
+                long sequenceBegin = record.getLong(0);
+                int updateSize = record.getInt(8);
 
-                // read entries
-                WriteBatchImpl writeBatch = readWriteBatch(sliceInput, updateSize);
-
-                // apply entries to memTable
+                // apply entries to memTable，直接遍历record中的记录
                 if (memTable == null) {
-                    memTable = new MemTable(internalKeyComparator);
+                    memTable = newMemTable();
+                }
+                int entries = WriteBatchImpl.forEach(record, new InsertIntoHandler(memTable, sequenceBegin));
+                if (entries != updateSize) {
+                    throw new IOException(String.format("Expected %d entries in log record but found %s entries", updateSize, entries));
                 }
-                writeBatch.forEach(new InsertIntoHandler(memTable, sequenceBegin));
 
                 // update the maxSequence
                 long lastSequence = sequenceBegin + updateSize - 1;
@@ -535,7 +895,7 @@ public class DbImpl
     public byte[] get(byte[] key)
             throws DBException
     {
-        return get(key, new ReadOptions());
+        return get(key, defaultReadOptions());
     }
 
     @Override
@@ -543,28 +903,608 @@ public class DbImpl
             throws DBException
     {
         checkBackgroundException();
-        LookupKey lookupKey;
-        mutex.lock();
+        long start = System.nanoTime();
+        // 先获取SuperVersion，再确定sequence，整个读过程不需要持有mutex。
+        // 顺序反过来时，两步之间的flush或compaction可能用更大的smallest snapshot丢掉这个sequence可见的旧记录
+        SuperVersion current = acquireSuperVersion();
+        LookupResult lookupResult;
         try {
-            SnapshotImpl snapshot = getSnapshot(options);
-            lookupKey = new LookupKey(Slices.wrappedBuffer(key), snapshot.getLastSequence());
+            LookupKey lookupKey = new LookupKey(Slices.wrappedBuffer(key), readSequence(options));
+            lookupResult = current.getMemTable().get(lookupKey);
+            if (lookupResult == null) {
+                // 从新到旧查找immutable memtable
+                for (MemTable immutableMemTable : current.getImmutableMemTables()) {
+                    lookupResult = immutableMemTable.get(lookupKey);
+                    if (lookupResult != null) {
+                        break;
+                    }
+                }
+            }
+            if (lookupResult == null) {
+                ReadStats readStats = new ReadStats();
+                lookupResult = current.getVersion().get(lookupKey, options, readStats);
 
-            LookupResult lookupResult = memTable.get(lookupKey);
-            if (lookupResult != null) {
-                Slice value = lookupResult.getValue();
-                if (value == null) {
-                    return null;
+                // 只有seek次数达到阈值时才需要获取mutex调度compaction
+                if (current.getVersion().updateStats(readStats)) {
+                    mutex.lock();
+                    try {
+                        maybeScheduleCompaction();
+                    }
+                    finally {
+                        mutex.unlock();
+                    }
                 }
-                return value.getBytes();
             }
-            if (immutableMemTable != null) {
-                lookupResult = immutableMemTable.get(lookupKey);
+        }
+        finally {
+            current.release();
+        }
+
+        byte[] value = null;
+        if (lookupResult != null && lookupResult.getValue() != null) {
+            value = lookupResult.getValue().getBytes();
+        }
+        if (metrics != null) {
+            metrics.recordGet(System.nanoTime() - start, value == null ? 0 : value.length);
+        }
+        return value;
+    }
+
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys)
+            throws DBException
+    {
+        return multiGet(keys, defaultReadOptions());
+    }
+
+    /**
+     * 批量查找，所有key使用同一个sequence和SuperVersion。
+     * 先逐个查找memtable，剩下的key按user key排序后交给Version，落在同一个文件和data block中的key只读取一次
+     */
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys, ReadOptions options)
+            throws DBException
+    {
+        requireNonNull(keys, "keys is null");
+        checkBackgroundException();
+
+        LookupResult[] lookupResults = new LookupResult[keys.size()];
+        // 与get相同，先获取SuperVersion再确定sequence
+        SuperVersion current = acquireSuperVersion();
+        try {
+            long sequence = readSequence(options);
+            List<LookupKey> remaining = new ArrayList<>();
+            List<Integer> positions = new ArrayList<>();
+            for (int i = 0; i < keys.size(); i++) {
+                LookupKey lookupKey = new LookupKey(Slices.wrappedBuffer(keys.get(i)), sequence);
+                LookupResult lookupResult = current.getMemTable().get(lookupKey);
+                if (lookupResult == null) {
+                    // 从新到旧查找immutable memtable
+                    for (MemTable immutableMemTable : current.getImmutableMemTables()) {
+                        lookupResult = immutableMemTable.get(lookupKey);
+                        if (lookupResult != null) {
+                            break;
+                        }
+                    }
+                }
                 if (lookupResult != null) {
-                    Slice value = lookupResult.getValue();
-                    if (value == null) {
-                        return null;
+                    lookupResults[i] = lookupResult;
+                }
+                else {
+                    remaining.add(lookupKey);
+                    positions.add(i);
+                }
+            }
+
+            if (!remaining.isEmpty()) {
+                // 按user key排序，使落在同一个文件中的key相邻
+                Integer[] order = new Integer[remaining.size()];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+                final List<LookupKey> unsorted = remaining;
+                final UserComparator userComparator = internalKeyComparator.getUserComparator();
+                Arrays.sort(order, new Comparator<Integer>()
+                {
+                    @Override
+                    public int compare(Integer left, Integer right)
+                    {
+                        return userComparator.compare(unsorted.get(left).getUserKey(), unsorted.get(right).getUserKey());
+                    }
+                });
+
+                List<LookupKey> sortedKeys = new ArrayList<>(order.length);
+                for (Integer index : order) {
+                    sortedKeys.add(remaining.get(index));
+                }
+                LookupResult[] versionResults = current.getVersion().multiGet(sortedKeys, options);
+                for (int i = 0; i < order.length; i++) {
+                    lookupResults[positions.get(order[i])] = versionResults[i];
+                }
+            }
+        }
+        finally {
+            current.release();
+        }
+
+        List<byte[]> values = new ArrayList<>(keys.size());
+        for (LookupResult lookupResult : lookupResults) {
+            if (lookupResult != null && lookupResult.getValue() != null) {
+                values.add(lookupResult.getValue().getBytes());
+            }
+            else {
+                values.add(null);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value)
+            throws DBException
+    {
+        put(key, value, new WriteOptions());
+    }
+
+    @Override
+    public Snapshot put(byte[] key, byte[] value, WriteOptions options)
+            throws DBException
+    {
+        return writeInternal(new WriteBatchImpl().put(key, value), options);
+    }
+
+    @Override
+    public void delete(byte[] key)
+            throws DBException
+    {
+        writeInternal(new WriteBatchImpl().delete(key), new WriteOptions());
+    }
+
+    @Override
+    public Snapshot delete(byte[] key, WriteOptions options)
+            throws DBException
+    {
+        return writeInternal(new WriteBatchImpl().delete(key), options);
+    }
+
+    @Override
+    public void write(WriteBatch updates)
+            throws DBException
+    {
+        writeInternal((WriteBatchImpl) updates, new WriteOptions());
+    }
+
+    @Override
+    public Snapshot write(WriteBatch updates, WriteOptions options)
+            throws DBException
+    {
+        return writeInternal((WriteBatchImpl) updates, options);
+    }
+
+    public Snapshot writeInternal(WriteBatchImpl updates, WriteOptions options)
+            throws DBException
+    {
+        checkBackgroundException();
+        long start = System.nanoTime();
+        mutex.lock();
+        try {
+            long sequenceEnd;
+            if (updates.size() != 0) {
+                sequenceEnd = writeGroup(new Writer(updates, options.sync(), mutex.newCondition()));
+            }
+            else {
+                sequenceEnd = versions.getLastSequence();
+            }
+
+            if (metrics != null) {
+                metrics.recordWrite(System.nanoTime() - start, updates.getApproximateSize() - WriteBatchImpl.HEADER_SIZE);
+            }
+
+            if (options.snapshot()) {
+                return new SnapshotImpl(versions.getCurrent(), sequenceEnd);
+            }
+            else {
+                return null;
+            }
+        }
+        finally {
+            mutex.unlock();
+            // 这一组中可能有异步写入
+            completeAsyncWriters();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Snapshot> putAsync(byte[] key, byte[] value, WriteOptions options)
+    {
+        return writeAsync(new WriteBatchImpl().put(key, value), options);
+    }
+
+    @Override
+    public CompletableFuture<Snapshot> deleteAsync(byte[] key, WriteOptions options)
+    {
+        return writeAsync(new WriteBatchImpl().delete(key), options);
+    }
+
+    /**
+     * 调用者不获取mutex，也不等待log写入和fsync。writer由单独的线程加入写入队列，
+     * 和其他写入一起合并成组写log，这一组发布后在释放mutex的线程中完成future
+     */
+    @Override
+    public CompletableFuture<Snapshot> writeAsync(WriteBatch updates, WriteOptions options)
+    {
+        CompletableFuture<Snapshot> future = new CompletableFuture<>();
+        if (shuttingDown.get()) {
+            future.completeExceptionally(new DatabaseShutdownException("Database has been closed"));
+            return future;
+        }
+        try {
+            checkBackgroundException();
+        }
+        catch (DBException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        asyncWriters.add(new Writer((WriteBatchImpl) updates, options.sync(), options.snapshot(), future, mutex.newCondition()));
+        if (asyncWriteScheduled.compareAndSet(false, true)) {
+            try {
+                asyncWriteExecutor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        processAsyncWrites();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                // close已经停止了异步写入的线程
+                asyncWriteScheduled.set(false);
+                failAsyncWriters(new DatabaseShutdownException("Database has been closed"));
+            }
+        }
+        return future;
+    }
+
+    /**
+     * 把提交的异步writer加入写入队列，依次作为leader写入或者等待被其他leader写入，直到没有新的异步写入
+     */
+    private void processAsyncWrites()
+    {
+        while (true) {
+            List<Writer> pending = new ArrayList<>();
+            for (Writer writer = asyncWriters.poll(); writer != null; writer = asyncWriters.poll()) {
+                pending.add(writer);
+            }
+            if (pending.isEmpty()) {
+                asyncWriteScheduled.set(false);
+                // 设置之前提交的writer没有调度新的任务，由当前线程继续处理
+                if (asyncWriters.isEmpty() || !asyncWriteScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+
+            mutex.lock();
+            try {
+                for (Writer writer : pending) {
+                    if (writer.batch.size() == 0) {
+                        writer.sequenceEnd = versions.getLastSequence();
+                        publishAsyncWriter(writer);
+                    }
+                    else {
+                        writers.addLast(writer);
+                    }
+                }
+                for (Writer writer : pending) {
+                    if (writer.done) {
+                        continue;
+                    }
+                    try {
+                        writeQueued(writer);
+                    }
+                    catch (Throwable e) {
+                        // 组中的writer发布时已经记录了错误，这里只处理还没有组成组的writer
+                        if (!writer.done) {
+                            writer.error = e;
+                            publishAsyncWriter(writer);
+                        }
+                    }
+                }
+            }
+            finally {
+                mutex.unlock();
+            }
+            completeAsyncWriters();
+        }
+    }
+
+    /**
+     * 异步writer已经写入或者失败，释放mutex之后由completeAsyncWriters完成future
+     */
+    private void publishAsyncWriter(Writer writer)
+    {
+        checkState(mutex.isHeldByCurrentThread());
+        writer.done = true;
+        if (writer.error == null && writer.snapshot) {
+            writer.result = new SnapshotImpl(versions.getCurrent(), writer.sequenceEnd);
+        }
+        completedAsyncWriters.add(writer);
+    }
+
+    private void completeAsyncWriters()
+    {
+        for (Writer writer = completedAsyncWriters.poll(); writer != null; writer = completedAsyncWriters.poll()) {
+            if (writer.error != null) {
+                writer.future.completeExceptionally(writer.error);
+            }
+            else {
+                writer.future.complete(writer.result);
+            }
+        }
+    }
+
+    private void failAsyncWriters(Throwable error)
+    {
+        for (Writer writer = asyncWriters.poll(); writer != null; writer = asyncWriters.poll()) {
+            writer.future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * 对应于源码中的DBImpl::Write()，writer先进入写入队列，队首的writer作为leader，
+     * 把队列中其他writer的batch合并成一条log record，只写一次log（sync时只fsync一次）。
+     * 写入按流水线执行：只在分配sequence时持有mutex，之后这一组离开写入队列，下一组可以立即开始；
+     * 各组按sequence的顺序写log，一组fsync时下一组可以继续写log；写入memtable后按顺序发布last sequence。
+     * batch为null时只强制切换memtable。调用和返回时都持有mutex。
+     * @return writer的batch中最后一个操作的sequence
+     */
+    private long writeGroup(Writer writer)
+    {
+        checkState(mutex.isHeldByCurrentThread());
+
+        writers.addLast(writer);
+        return writeQueued(writer);
+    }
+
+    /**
+     * writer已经在写入队列中，等待被其他leader写入，或者成为leader写入这一组
+     */
+    private long writeQueued(Writer writer)
+    {
+        checkState(mutex.isHeldByCurrentThread());
+
+        while (!writer.done && writers.peekFirst() != writer) {
+            if (writer.memTable != null) {
+                // leader已经写完log，由当前线程写入自己的batch
+                insertIntoMemTable(writer);
+                continue;
+            }
+            writer.condition.awaitUninterruptibly();
+        }
+        if (writer.done) {
+            // 已经被leader写入
+            if (writer.error != null) {
+                throw Throwables.propagate(writer.error);
+            }
+            return writer.sequenceEnd;
+        }
+
+        // 当前writer是leader
+        WriteGroup group = null;
+        try {
+            // 之前的写入失败后log和memtable的状态不确定，拒绝之后的写入
+            checkBackgroundException();
+            makeRoomForWrite(writer.batch == null, writer.batch == null ? 0 : writer.batch.getApproximateSize());
+            if (writer.batch != null) {
+                group = newWriteGroup(writer);
+            }
+        }
+        finally {
+            // 这一组离开写入队列，唤醒下一组的leader，下一组在这一组写log时就可以分配sequence
+            Writer lastWriter = group == null ? writer : group.writers.get(group.writers.size() - 1);
+            while (writers.removeFirst() != lastWriter) {
+                // 移出这一组的writer
+            }
+            if (!writers.isEmpty()) {
+                writers.peekFirst().condition.signal();
+            }
+        }
+
+        if (group != null) {
+            pipelineWrite(group);
+            if (group.error != null) {
+                throw Throwables.propagate(group.error);
+            }
+        }
+        return writer.sequenceEnd;
+    }
+
+    /**
+     * 选出这一组的writer，分配sequence并编码log record，加入pendingWriteGroups
+     */
+    private WriteGroup newWriteGroup(Writer leader)
+    {
+        checkState(mutex.isHeldByCurrentThread());
+
+        List<Writer> group = buildBatchGroup(leader);
+        // 调用者的batch可能同时在其他线程中写入，头部不能写在调用者的缓冲区中。
+        // 只有一个writer时也复制到这一组自己的batch中，只复制编码后的字节，不重新编码
+        int estimatedSize = 0;
+        for (Writer member : group) {
+            estimatedSize += member.batch.getApproximateSize();
+        }
+        WriteBatchImpl updates = new WriteBatchImpl(estimatedSize);
+        for (Writer member : group) {
+            updates.append(member.batch);
+        }
+        if (group.size() > 1) {
+            // makeRoomForWrite只计量了leader的batch，其余的字节由之后的写入等待偿还
+            writeController.delayNanos(updates.getApproximateSize() - leader.batch.getApproximateSize());
+        }
+
+        // last sequence之后的sequence可能已经分配给了还没有发布的组
+        WriteGroup previous = pendingWriteGroups.peekLast();
+        long sequenceBegin = (previous == null ? versions.getLastSequence() : previous.sequenceEnd) + 1;
+        long sequenceEnd = sequenceBegin - 1;
+        for (Writer member : group) {
+            sequenceEnd += member.batch.size();
+            member.sequenceEnd = sequenceEnd;
+        }
+
+        // batch中已经是log record的格式，只需要写入头部
+        Slice record = updates.encode(sequenceBegin);
+
+        // 切换log和memtable时会等待pendingWriteGroups为空，这一组一直使用当前的log和memtable
+        WriteGroup writeGroup = new WriteGroup(group, updates, record, sequenceBegin, sequenceEnd, log, memTable, previous);
+        pendingWriteGroups.addLast(writeGroup);
+        return writeGroup;
+    }
+
+    /**
+     * 分配sequence之后的阶段：等前一组写完log后写log，fsync和写入memtable时不持有mutex，
+     * 最后按sequence的顺序发布。调用和返回时都持有mutex
+     */
+    private void pipelineWrite(WriteGroup group)
+    {
+        checkState(mutex.isHeldByCurrentThread());
+        Writer leader = group.writers.get(0);
+
+        // log中record的顺序与sequence的顺序一致
+        while (group.previous != null && !group.previous.logged) {
+            pipelineCondition.awaitUninterruptibly();
+        }
+        group.previous = null;
+
+        Throwable error = null;
+        long appendNanos = 0;
+        if (backgroundException != null) {
+            // 前面的组已经失败，这一组不再写log
+            error = new BackgroundProcessingException(backgroundException);
+        }
+        else {
+            mutex.unlock();
+            try {
+                long appendStart = System.nanoTime();
+                group.log.addRecord(group.record, false);
+                appendNanos = System.nanoTime() - appendStart;
+            }
+            catch (Throwable e) {
+                error = e;
+            }
+            finally {
+                mutex.lock();
+            }
+            recordWriteError(error);
+        }
+        // 下一组可以写log了
+        group.logged = true;
+        pipelineCondition.signalAll();
+
+        if (error == null) {
+            mutex.unlock();
+            try {
+                long syncStart = System.nanoTime();
+                if (leader.sync) {
+                    group.log.sync();
+                }
+                long insertStart = System.nanoTime();
+                walBytesWritten.addAndGet(group.record.length());
+                // 不计入log record的头部
+                userBytesWritten.addAndGet(group.updates.getApproximateSize() - WriteBatchImpl.HEADER_SIZE);
+
+                // 更新 memtable
+                if (options.concurrentMemTableWrites() && group.writers.size() > 1) {
+                    insertInParallel(leader, group.writers, group.memTable);
+                }
+                else {
+                    group.updates.forEach(new InsertIntoHandler(group.memTable, group.sequenceBegin));
+                }
+                if (metrics != null) {
+                    metrics.recordWalAppend(appendNanos);
+                    if (leader.sync) {
+                        metrics.recordWalSync(insertStart - syncStart);
                     }
-                    return value.getBytes();
+                    metrics.recordMemTableInsert(System.nanoTime() - insertStart);
+                }
+            }
+            catch (Throwable e) {
+                error = e;
+            }
+            finally {
+                mutex.lock();
+            }
+            recordWriteError(error);
+        }
+        group.error = error;
+        group.inserted = true;
+
+        // 写入memtable后再按顺序修改last sequence，不持有mutex的读操作不会看到写了一半的batch，
+        // 前面的组还没有写完时，由前面的组发布这一组
+        while (!pendingWriteGroups.isEmpty() && pendingWriteGroups.peekFirst().inserted) {
+            WriteGroup ready = pendingWriteGroups.removeFirst();
+            if (ready.error == null && failedWriteGroup) {
+                // 前面的组失败后没有发布，之后的sequence也不能发布，否则会看到失败的组写了一半的记录
+                ready.error = new BackgroundProcessingException(backgroundException);
+            }
+            if (ready.error == null) {
+                versions.setLastSequence(ready.sequenceEnd);
+            }
+            else {
+                failedWriteGroup = true;
+            }
+            for (Writer member : ready.writers) {
+                member.error = ready.error;
+                if (member.future != null) {
+                    publishAsyncWriter(member);
+                }
+                else {
+                    member.done = true;
+                }
+                member.condition.signal();
+            }
+        }
+        pipelineCondition.signalAll();
+
+        while (!leader.done) {
+            leader.condition.awaitUninterruptibly();
+        }
+    }
+
+    /**
+     * 写log、fsync或者写入memtable失败后，log中可能有没有持久化的record，memtable中可能有写了一半的batch，
+     * 与源码中的RecordBackgroundError相同，作为后台错误拒绝之后所有的写入
+     */
+    private void recordWriteError(Throwable error)
+    {
+        checkState(mutex.isHeldByCurrentThread());
+        if (error != null && backgroundException == null) {
+            backgroundException = error;
+            backgroundCondition.signalAll();
+        }
+    }
+
+    /**
+     * 组中的每个writer在自己的线程中把batch写入memtable，leader写完自己的batch后等待其他writer写完。
+     * 调用时不持有mutex，这一组发布之前其他写入不会切换memtable
+     */
+    private void insertInParallel(Writer leader, List<Writer> group, MemTable memTable)
+    {
+        List<Writer> leaderInserts = new ArrayList<>();
+        mutex.lock();
+        try {
+            leader.pendingInserts = 0;
+            for (Writer member : group) {
+                if (member == leader || member.future != null) {
+                    // 异步写入没有等待的线程，由leader写入
+                    leaderInserts.add(member);
+                }
+                else {
+                    member.leader = leader;
+                    member.memTable = memTable;
+                    leader.pendingInserts++;
+                    member.condition.signal();
                 }
             }
         }
@@ -572,113 +1512,99 @@ public class DbImpl
             mutex.unlock();
         }
 
-        LookupResult lookupResult = versions.get(lookupKey);
+        Throwable error = null;
+        try {
+            for (Writer member : leaderInserts) {
+                member.batch.forEach(new InsertIntoHandler(memTable, member.sequenceEnd - member.batch.size() + 1));
+            }
+        }
+        catch (Throwable e) {
+            error = e;
+        }
 
+        // 出错时也要等其他writer写完，之后的写入才能切换memtable
         mutex.lock();
         try {
-            if (versions.needsCompaction()) {
-                maybeScheduleCompaction();
+            while (leader.pendingInserts > 0) {
+                leader.condition.awaitUninterruptibly();
+            }
+            if (error == null) {
+                error = leader.insertError;
             }
         }
         finally {
             mutex.unlock();
         }
-
-        if (lookupResult != null) {
-            Slice value = lookupResult.getValue();
-            if (value != null) {
-                return value.getBytes();
-            }
+        if (error != null) {
+            throw Throwables.propagate(error);
         }
-        return null;
-    }
-
-    @Override
-    public void put(byte[] key, byte[] value)
-            throws DBException
-    {
-        put(key, value, new WriteOptions());
-    }
-
-    @Override
-    public Snapshot put(byte[] key, byte[] value, WriteOptions options)
-            throws DBException
-    {
-        return writeInternal(new WriteBatchImpl().put(key, value), options);
-    }
-
-    @Override
-    public void delete(byte[] key)
-            throws DBException
-    {
-        writeInternal(new WriteBatchImpl().delete(key), new WriteOptions());
-    }
-
-    @Override
-    public Snapshot delete(byte[] key, WriteOptions options)
-            throws DBException
-    {
-        return writeInternal(new WriteBatchImpl().delete(key), options);
     }
 
-    @Override
-    public void write(WriteBatch updates)
-            throws DBException
+    /**
+     * 在writer自己的线程中把batch写入leader指定的memtable，写完后通知leader。调用和返回时都持有mutex
+     */
+    private void insertIntoMemTable(Writer writer)
     {
-        writeInternal((WriteBatchImpl) updates, new WriteOptions());
-    }
+        MemTable memTable = writer.memTable;
+        writer.memTable = null;
+        Throwable error = null;
+        mutex.unlock();
+        try {
+            writer.batch.forEach(new InsertIntoHandler(memTable, writer.sequenceEnd - writer.batch.size() + 1));
+        }
+        catch (Throwable e) {
+            error = e;
+        }
+        finally {
+            mutex.lock();
+        }
 
-    @Override
-    public Snapshot write(WriteBatch updates, WriteOptions options)
-            throws DBException
-    {
-        return writeInternal((WriteBatchImpl) updates, options);
+        Writer leader = writer.leader;
+        if (error != null && leader.insertError == null) {
+            leader.insertError = error;
+        }
+        leader.pendingInserts--;
+        if (leader.pendingInserts == 0) {
+            leader.condition.signal();
+        }
     }
 
-    public Snapshot writeInternal(WriteBatchImpl updates, WriteOptions options)
-            throws DBException
+    /**
+     * 从队首开始选出可以合并的writer，对应于源码中的DBImpl::BuildBatchGroup()
+     */
+    private List<Writer> buildBatchGroup(Writer first)
     {
-        checkBackgroundException();
-        mutex.lock();
-        try {
-            long sequenceEnd;
-            if (updates.size() != 0) {
-                makeRoomForWrite(false);
-
-                // 获取last sequence
-                long sequenceBegin = versions.getLastSequence() + 1;
-                // updates.size指的是key-value对
-                sequenceEnd = sequenceBegin + updates.size() - 1;
-
-                // 修改version的last sequence
-                versions.setLastSequence(sequenceEnd);
-
-                // Log write
-                Slice record = writeWriteBatch(updates, sequenceBegin);
-                try {
-                    log.addRecord(record, options.sync());
-                }
-                catch (IOException e) {
-                    throw Throwables.propagate(e);
-                }
+        checkState(mutex.isHeldByCurrentThread());
 
-                // 更新 memtable
-                updates.forEach(new InsertIntoHandler(memTable, sequenceBegin));
-            }
-            else {
-                sequenceEnd = versions.getLastSequence();
+        // 限制合并后的大小，如果第一个batch很小，也不要合并太多，以免拖慢小的写入
+        int size = first.batch.getApproximateSize();
+        int maxSize = 1 << 20;
+        if (size <= (128 << 10)) {
+            maxSize = size + (128 << 10);
+        }
+
+        List<Writer> group = new ArrayList<>();
+        group.add(first);
+        Iterator<Writer> iterator = writers.iterator();
+        // 跳过first
+        iterator.next();
+        while (iterator.hasNext()) {
+            Writer writer = iterator.next();
+            if (writer.sync && !first.sync) {
+                // 不要把sync的写入合并到非sync的组中
+                break;
             }
-
-            if (options.snapshot()) {
-                return new SnapshotImpl(versions.getCurrent(), sequenceEnd);
+            if (writer.batch == null) {
+                // 强制切换memtable的writer需要单独处理
+                break;
             }
-            else {
-                return null;
+            size += writer.batch.getApproximateSize();
+            if (size > maxSize) {
+                break;
             }
+            group.add(writer);
         }
-        finally {
-            mutex.unlock();
-        }
+        return group;
     }
 
     @Override
@@ -689,23 +1615,27 @@ public class DbImpl
     }
 
     @Override
-    public SeekingIteratorAdapter iterator()
+    public DBIterator iterator()
     {
-        return iterator(new ReadOptions());
+        return iterator(defaultReadOptions());
     }
 
     @Override
-    public SeekingIteratorAdapter iterator(ReadOptions options)
+    public DBIterator iterator(ReadOptions options)
     {
         checkBackgroundException();
         mutex.lock();
         try {
-            DbIterator rawIterator = internalIterator();
+            DbIterator rawIterator = internalIterator(options);
 
             // filter any entries not visible in our snapshot
             SnapshotImpl snapshot = getSnapshot(options);
             SnapshotSeekingIterator snapshotIterator = new SnapshotSeekingIterator(rawIterator, snapshot, internalKeyComparator.getUserComparator());
-            return new SeekingIteratorAdapter(snapshotIterator);
+            DBIterator iterator = new SeekingIteratorAdapter(snapshotIterator);
+            if (metrics != null) {
+                iterator = new MetricsDBIterator(iterator, metrics);
+            }
+            return iterator;
         }
         finally {
             mutex.unlock();
@@ -719,22 +1649,24 @@ public class DbImpl
             @Override
             public DbIterator iterator()
             {
-                return internalIterator();
+                return internalIterator(defaultReadOptions());
             }
         };
     }
 
-    DbIterator internalIterator()
+    DbIterator internalIterator(ReadOptions options)
     {
         mutex.lock();
         try {
-            // merge together the memTable, immutableMemTable, and tables in version set
-            MemTableIterator iterator = null;
-            if (immutableMemTable != null) {
-                iterator = immutableMemTable.iterator();
+            // merge together the memTable, immutableMemTables, and tables in version set
+            // SkipListMemTable和ArenaMemTable的iterator都是InternalIterator
+            InternalIterator memTableIterator = memTable.iterator();
+            List<InternalIterator> immutableIterators = new ArrayList<>();
+            for (Iterator<ImmutableMemTable> iterator = immutableMemTables.descendingIterator(); iterator.hasNext(); ) {
+                immutableIterators.add(iterator.next().memTable.iterator());
             }
             Version current = versions.getCurrent();
-            return new DbIterator(memTable.iterator(), iterator, current.getLevel0Files(), current.getLevelIterators(), internalKeyComparator);
+            return new DbIterator(memTableIterator, immutableIterators, current.getLevel0Files(options), current.getLevelIterators(options), internalKeyComparator);
         }
         finally {
             mutex.unlock();
@@ -754,6 +1686,142 @@ public class DbImpl
         }
     }
 
+    /**
+     * 获取当前的SuperVersion并增加引用计数，使用完后必须调用release
+     */
+    private SuperVersion acquireSuperVersion()
+    {
+        while (true) {
+            SuperVersion current = superVersion;
+            if (current.tryRetain()) {
+                return current;
+            }
+            // close释放了最后的SuperVersion之后不会再替换，不能继续重试
+            if (shuttingDown.get()) {
+                throw new DatabaseShutdownException("Database has been closed");
+            }
+            // 获取的同时被替换并释放了，重新读取
+        }
+    }
+
+    // 没有传入ReadOptions的读取按Options.verifyChecksums()决定是否校验data block
+    private ReadOptions defaultReadOptions()
+    {
+        return new ReadOptions().verifyChecksums(options.verifyChecksums());
+    }
+
+    /**
+     * 读操作使用的sequence，必须在获取SuperVersion之后调用
+     */
+    private long readSequence(ReadOptions options)
+    {
+        if (options.snapshot() != null) {
+            return ((SnapshotImpl) options.snapshot()).getLastSequence();
+        }
+        return versions.getLastSequence();
+    }
+
+    /**
+     * memTable、immutableMemTables或current version变化后调用，替换读操作使用的SuperVersion
+     */
+    private void installSuperVersion()
+    {
+        checkState(mutex.isHeldByCurrentThread());
+        // 查找时从新到旧
+        List<MemTable> newestFirst = new ArrayList<>(immutableMemTables.size());
+        for (Iterator<ImmutableMemTable> iterator = immutableMemTables.descendingIterator(); iterator.hasNext(); ) {
+            newestFirst.add(iterator.next().memTable);
+        }
+        SuperVersion previous = superVersion;
+        superVersion = new SuperVersion(memTable, newestFirst, versions.getCurrent());
+        if (previous != null) {
+            previous.release();
+        }
+
+        // current version变化后重新计算写入限速
+        writeController.update(versions.numberOfFilesInLevel(0), versions.estimatePendingCompactionBytes());
+    }
+
+    /**
+     * 返回level的compaction统计的副本，memtable flush也计入flush到的level
+     */
+    public CompactionStats getCompactionStats(int level)
+    {
+        checkArgument(level >= 0 && level < NUM_LEVELS, "Invalid level %s", level);
+        mutex.lock();
+        try {
+            return new CompactionStats(stats[level]);
+        }
+        finally {
+            mutex.unlock();
+        }
+    }
+
+    // 用户写入的batch的字节数
+    public long getUserBytesWritten()
+    {
+        return userBytesWritten.get();
+    }
+
+    // 写入log文件的字节数
+    public long getWalBytesWritten()
+    {
+        return walBytesWritten.get();
+    }
+
+    // memtable flush写出的sstable字节数
+    public long getBytesFlushed()
+    {
+        return bytesFlushed.get();
+    }
+
+    /**
+     * 累计的写放大：写入log、flush和compaction写出的字节数之和除以用户写入的字节数，还没有写入时返回0
+     */
+    public double getWriteAmplification()
+    {
+        long userBytes = userBytesWritten.get();
+        if (userBytes == 0) {
+            return 0;
+        }
+        long bytesWritten = walBytesWritten.get();
+        mutex.lock();
+        try {
+            // stats中已经包含了flush写出的字节
+            for (CompactionStats levelStats : stats) {
+                bytesWritten += levelStats.getBytesWritten();
+            }
+        }
+        finally {
+            mutex.unlock();
+        }
+        return 1.0 * bytesWritten / userBytes;
+    }
+
+    /**
+     * 未打开Options.metrics()时返回null
+     */
+    public DbMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * 当前限速的写入速率（字节/秒），不限速时返回0
+     */
+    public long getDelayedWriteRate()
+    {
+        return writeController.getDelayedWriteRate();
+    }
+
+    /**
+     * 写入因为限速或阻塞累计等待的时间
+     */
+    public long getWriteStallNanos()
+    {
+        return writeController.getTotalDelayNanos() + writeController.getTotalStopNanos();
+    }
+
     private SnapshotImpl getSnapshot(ReadOptions options)
     {
         SnapshotImpl snapshot;
@@ -767,31 +1835,35 @@ public class DbImpl
         return snapshot;
     }
 
-    private void makeRoomForWrite(boolean force)
+    /**
+     * @param writeBytes 本次写入的字节数，用于写入限速
+     */
+    private void makeRoomForWrite(boolean force, long writeBytes)
     {
         checkState(mutex.isHeldByCurrentThread());
 
         boolean allowDelay = !force;
 
         while (true) {
+            // 等待期间后台出错或者写入失败时不再继续等待
+            checkBackgroundException();
 
-            if (allowDelay && versions.numberOfFilesInLevel(0) > L0_SLOWDOWN_WRITES_TRIGGER) {
+            if (allowDelay && writeController.isDelayed()) {
                 /**
-                 * 当L0的文件数量要达到阈值的时候，我们每次写入都延迟1ms，
-                 * 这样可以为后台的compaction腾出一定的cpu（当后台compaction
-                 * 和当前线程是使用的一个内核的时候）这样可以降低写入延迟的方差
-                 * 因为延迟被分摊到多个写上面，而不是在几个甚至一个写的时候
+                 * compaction跟不上写入时，按照writeController给出的速率延迟写入，
+                 * 这样可以为后台的compaction腾出一定的cpu，也可以降低写入延迟的方差，
+                 * 因为延迟被分摊到多个写上面，而不是等到level 0文件达到上限时阻塞所有的写
                  */
-                try {
+                long delayNanos = writeController.delayNanos(writeBytes);
+                if (delayNanos > 0) {
                     mutex.unlock();
-                    Thread.sleep(1);
-                }
-                catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new RuntimeException(e);
-                }
-                finally {
-                    mutex.lock();
+                    try {
+                        LockSupport.parkNanos(delayNanos);
+                    }
+                    finally {
+                        mutex.lock();
+                    }
+                    writeController.recordDelay(delayNanos);
                 }
 
                 // 每次写只允许延迟一次
@@ -801,25 +1873,35 @@ public class DbImpl
                 // 当前memtable的占用量未达到阈值
                 break;
             }
-            else if (immutableMemTable != null) {
+            else if (immutableMemTables.size() >= options.maxWriteBufferNumber() - 1) {
                 /**
-                 * 上一次memtable的compaction尚未结束，等待后台compaction完成
-                 * 因为compaction的过程为 mem ->immutableMemTable 完成后删除immutableMemTable
+                 * 等待flush的memtable已经达到上限，等待后台flush完成
+                 * 因为flush的过程为 mem ->immutableMemTables 完成后删除最旧的immutable memtable
                  *
                  * 线程在调用condition.await()后处于await状态，此时调用thread.interrupt()会报错
                  * 但是使用condition.awaitUninterruptibly()后，调用thread.interrupt(0则不会报错
                  */
+                long start = System.nanoTime();
                 backgroundCondition.awaitUninterruptibly();
+                writeController.recordStop(System.nanoTime() - start);
             }
             else if (versions.numberOfFilesInLevel(0) >= L0_STOP_WRITES_TRIGGER) {
-                // level 0的文件数量超过阈值，等待后台compaction完成
+                // level 0的文件数量超过阈值，等待后台compaction完成。
+                // writeController在此之前已经把写入降到最低速率，只有compaction完全跟不上时才会走到这里
+                long start = System.nanoTime();
                 backgroundCondition.awaitUninterruptibly();
+                writeController.recordStop(System.nanoTime() - start);
+            }
+            else if (!pendingWriteGroups.isEmpty()) {
+                // 流水线中的组还在写当前的log和memtable，等它们完成后再切换
+                pipelineCondition.awaitUninterruptibly();
             }
             else {
                 // memtable达到阈值，新生成日志和memtable，并将原先的mem转化为imm给后台compact
                 checkState(versions.getPrevLogNumber() == 0);
 
-                // 关闭现在的log文件
+                // 关闭现在的log文件，flush这个memtable之前需要保留
+                long memTableLogNumber = log.getFileNumber();
                 try {
                     log.close();
                 }
@@ -837,9 +1919,10 @@ public class DbImpl
                             new File(databaseDir, Filename.logFileName(logNumber)).getAbsoluteFile(), e);
                 }
 
-                // 将当前的memtable赋值给immutableMemTable，新建memTable
-                immutableMemTable = memTable;
-                memTable = new MemTable(internalKeyComparator);
+                // 将当前的memtable加入immutableMemTables，新建memTable
+                immutableMemTables.addLast(new ImmutableMemTable(memTable, memTableLogNumber));
+                memTable = newMemTable();
+                installSuperVersion();
 
                 // Do not force another compaction there is space available
                 force = false;
@@ -862,42 +1945,64 @@ public class DbImpl
     }
 
     /**
-     * immutableMemTable转换为sstable
+     * 把最旧的immutable memtable转换为sstable
+     * @return 是否执行了memtable compaction
      * @throws IOException
      */
-    private void compactMemTableInternal()
+    private boolean compactMemTableInternal()
             throws IOException
     {
         checkState(mutex.isHeldByCurrentThread());
-        // 如果immutableMemTable不存在，则直接返回
-        if (immutableMemTable == null) {
-            return;
+        // 如果immutableMemTables为空，或者其他线程正在处理，则直接返回
+        if (immutableMemTables.isEmpty() || memTableCompacting) {
+            return false;
         }
 
+        memTableCompacting = true;
         try {
-            // 将immutableMemTable转换为sstable
+            // 将最旧的immutable memtable转换为sstable，较新的memtable之后再flush，保证level 0文件的新旧顺序
             VersionEdit edit = new VersionEdit();
             Version base = versions.getCurrent();
-            writeLevel0Table(immutableMemTable, edit, base);
+            writeLevel0Table(immutableMemTables.peekFirst().memTable, edit, base);
 
             if (shuttingDown.get()) {
                 throw new DatabaseShutdownException("Database shutdown during memtable compaction");
             }
 
-            // 替换immutableMemTable
+            // 下一个memtable的log之前的log都不再需要
+            long logNumber = log.getFileNumber();
+            Iterator<ImmutableMemTable> iterator = immutableMemTables.iterator();
+            iterator.next();
+            if (iterator.hasNext()) {
+                logNumber = iterator.next().logNumber;
+            }
             edit.setPreviousLogNumber(0);
-            edit.setLogNumber(log.getFileNumber());  // Earlier logs no longer needed
+            edit.setLogNumber(logNumber);  // Earlier logs no longer needed
             versions.logAndApply(edit);
 
-            immutableMemTable = null;
+            immutableMemTables.removeFirst();
+            installSuperVersion();
 
             deleteObsoleteFiles();
         }
         finally {
+            memTableCompacting = false;
             // 唤醒所有的等待线程
             backgroundCondition.signalAll();
         }
+        return true;
+    }
+
+    private MemTable newMemTable()
+    {
+        if (options.offHeapMemTable()) {
+            // chunk取write buffer的八分之一，在4KB和1MB之间，memtable切换时多占用的内存不超过一个chunk
+            int chunkSize = Math.max(4096, Math.min(1 << 20, options.writeBufferSize() / 8));
+            return new ArenaMemTable(internalKeyComparator, chunkSize);
+        }
+        return new SkipListMemTable(internalKeyComparator);
     }
+
     // Minor Compaction将memtable生成一个level 0文件
     private void writeLevel0Table(MemTable mem, VersionEdit edit, Version base)
             throws IOException
@@ -909,6 +2014,8 @@ public class DbImpl
             return;
         }
 
+        long start = System.nanoTime();
+        long cpuStart = currentThreadCpuTime();
         // 产生一个新的file number，用于产生新的sstable
         long fileNumber = versions.getNextFileNumber();
         pendingOutputs.add(fileNumber);
@@ -930,32 +2037,57 @@ public class DbImpl
             Slice minUserKey = meta.getSmallest().getUserKey();
             Slice maxUserKey = meta.getLargest().getUserKey();
             if (base != null) {
-                level = base.pickLevelForMemTableOutput(minUserKey, maxUserKey);
+                // 写文件时释放了mutex，其他compaction可能已经安装了新的version，使用最新的version选择level
+                level = versions.getCurrent().pickLevelForMemTableOutput(minUserKey, maxUserKey);
             }
             edit.addFile(level, meta);
         }
+
+        CompactionStats flushStats = new CompactionStats();
+        flushStats.addTime(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start),
+                TimeUnit.NANOSECONDS.toMicros(currentThreadCpuTime() - cpuStart));
+        if (meta != null) {
+            flushStats.addOutput(meta.getFileSize());
+            bytesFlushed.addAndGet(meta.getFileSize());
+        }
+        stats[level].add(flushStats);
+        if (metrics != null) {
+            metrics.recordFlush(System.nanoTime() - start);
+        }
+    }
+
+    // 当前线程使用的cpu时间，JVM不支持时返回0
+    private static long currentThreadCpuTime()
+    {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!threadMXBean.isCurrentThreadCpuTimeSupported()) {
+            return 0;
+        }
+        return threadMXBean.getCurrentThreadCpuTime();
     }
 
-    private FileMetaData buildTable(SeekingIterable<InternalKey, Slice> data, long fileNumber)
+    private FileMetaData buildTable(MemTable data, long fileNumber)
             throws IOException
     {
         File file = new File(databaseDir, Filename.tableFileName(fileNumber));
         try {
-            InternalKey smallest = null;
-            InternalKey largest = null;
+            Slice smallest = null;
+            Slice largest = null;
             FileChannel channel = new FileOutputStream(file).getChannel();
             try {
-                TableBuilder tableBuilder = new TableBuilder(options, channel, new InternalUserComparator(internalKeyComparator));
+                TableBuilder tableBuilder = new TableBuilder(options, channel, new InternalUserComparator(internalKeyComparator), internalFilterPolicy);
 
-                for (Map.Entry<InternalKey, Slice> entry : data) {
+                // memtable中的key已经按顺序排列，直接写入编码后的internal key
+                for (Iterator<Map.Entry<Slice, Slice>> iterator = data.encodedIterator(); iterator.hasNext(); ) {
+                    Map.Entry<Slice, Slice> entry = iterator.next();
                     // update keys
-                    InternalKey key = entry.getKey();
+                    Slice key = entry.getKey();
                     if (smallest == null) {
                         smallest = key;
                     }
                     largest = key;
 
-                    tableBuilder.add(key.encode(), entry.getValue());
+                    tableBuilder.add(key, entry.getValue());
                 }
 
                 tableBuilder.finish();
@@ -972,12 +2104,10 @@ public class DbImpl
             if (smallest == null) {
                 return null;
             }
-            FileMetaData fileMetaData = new FileMetaData(fileNumber, file.length(), smallest, largest);
+            FileMetaData fileMetaData = new FileMetaData(fileNumber, file.length(), new InternalKey(smallest), new InternalKey(largest));
 
             // verify table can be opened
-            tableCache.newIterator(fileMetaData);
-
-            pendingOutputs.remove(fileNumber);
+            tableCache.newIterator(fileMetaData).close();
 
             return fileMetaData;
 
@@ -996,34 +2126,37 @@ public class DbImpl
         checkArgument(compactionState.builder == null);
         checkArgument(compactionState.outfile == null);
 
+        long start = System.nanoTime();
+        long cpuStart = currentThreadCpuTime();
+        long recordsIn = 0;
+        long recordsDropped = 0;
+        long deletionsDropped = 0;
         // 将snapshot相关的内容记录到compact信息中
         compactionState.smallestSnapshot = versions.getLastSequence();
 
         // 加锁
         mutex.unlock();
+        MergingIterator iterator = null;
         try {
-            MergingIterator iterator = versions.makeInputIterator(compactionState.compaction);
+            // 与源码一致，compaction的输入不放入block cache，只在paranoidChecks时校验
+            ReadOptions inputOptions = new ReadOptions()
+                    .fillCache(false)
+                    .verifyChecksums(options.paranoidChecks());
+            iterator = versions.makeInputIterator(compactionState.compaction, inputOptions);
 
             Slice currentUserKey = null;
             boolean hasCurrentUserKey = false;
 
             long lastSequenceForKey = MAX_SEQUENCE_NUMBER;
+            // immutableMemTables由flush线程处理，这里不需要再检查
             while (iterator.hasNext() && !shuttingDown.get()) {
-                // always give priority to compacting the current mem table
-                mutex.lock();
-                try {
-                    compactMemTableInternal();
-                }
-                finally {
-                    mutex.unlock();
-                }
-
                 InternalKey key = iterator.peek().getKey();
                 if (compactionState.compaction.shouldStopBefore(key) && compactionState.builder != null) {
                     finishCompactionOutputFile(compactionState);
                 }
 
                 // Handle key/value, add to state, etc.
+                recordsIn++;
                 boolean drop = false;
                 // todo if key doesn't parse (it is corrupted),
                 if (false /*!ParseInternalKey(key, &ikey)*/) {
@@ -1043,6 +2176,7 @@ public class DbImpl
                     if (lastSequenceForKey <= compactionState.smallestSnapshot) {
                         // Hidden by an newer entry for same user key
                         drop = true; // (A)
+                        recordsDropped++;
                     }
                     else if (key.getValueType() == DELETION &&
                             key.getSequenceNumber() <= compactionState.smallestSnapshot &&
@@ -1055,6 +2189,7 @@ public class DbImpl
                         //     few iterations of this loop (by rule (A) above).
                         // Therefore this deletion marker is obsolete and can be dropped.
                         drop = true;
+                        deletionsDropped++;
                     }
 
                     lastSequenceForKey = key.getSequenceNumber();
@@ -1088,10 +2223,26 @@ public class DbImpl
             }
         }
         finally {
+            // 释放输入文件的pin，这些文件在安装结果之后就会被删除，不能等到GC时才关闭
+            if (iterator != null) {
+                iterator.close();
+            }
             mutex.lock();
         }
 
-        // todo port CompactionStats code
+        Compaction compaction = compactionState.compaction;
+        CompactionStats compactionStats = new CompactionStats();
+        compactionStats.addTime(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start),
+                TimeUnit.NANOSECONDS.toMicros(currentThreadCpuTime() - cpuStart));
+        compactionStats.addInputs(compaction.getLevelInputs(), compaction.getLevelUpInputs());
+        for (FileMetaData output : compactionState.outputs) {
+            compactionStats.addOutput(output.getFileSize());
+        }
+        compactionStats.addRecords(recordsIn, recordsDropped, deletionsDropped);
+        stats[compaction.getLevel() + 1].add(compactionStats);
+        if (metrics != null) {
+            metrics.recordCompaction(System.nanoTime() - start);
+        }
 
         installCompactionResults(compactionState);
     }
@@ -1113,7 +2264,7 @@ public class DbImpl
 
             File file = new File(databaseDir, Filename.tableFileName(fileNumber));
             compactionState.outfile = new FileOutputStream(file).getChannel();
-            compactionState.builder = new TableBuilder(options, compactionState.outfile, new InternalUserComparator(internalKeyComparator));
+            compactionState.builder = new TableBuilder(options, compactionState.outfile, new InternalUserComparator(internalKeyComparator), internalFilterPolicy);
         }
         finally {
             mutex.unlock();
@@ -1151,7 +2302,7 @@ public class DbImpl
 
         if (currentEntries > 0) {
             // Verify that the table is usable
-            tableCache.newIterator(outputNumber);
+            tableCache.newIterator(outputNumber).close();
         }
     }
 
@@ -1170,6 +2321,7 @@ public class DbImpl
 
         try {
             versions.logAndApply(compact.compaction.getEdit());
+            installSuperVersion();
             deleteObsoleteFiles();
         }
         catch (IOException e) {
@@ -1263,59 +2415,90 @@ public class DbImpl
         }
     }
 
-    private WriteBatchImpl readWriteBatch(SliceInput record, int updateSize)
-            throws IOException
+    /**
+     * 等待flush的memtable和保存它的数据的log文件编号
+     */
+    private static final class ImmutableMemTable
     {
-        WriteBatchImpl writeBatch = new WriteBatchImpl();
-        int entries = 0;
-        while (record.isReadable()) {
-            entries++;
-            ValueType valueType = ValueType.getValueTypeByPersistentId(record.readByte());
-            if (valueType == VALUE) {
-                Slice key = readLengthPrefixedBytes(record);
-                Slice value = readLengthPrefixedBytes(record);
-                writeBatch.put(key, value);
-            }
-            else if (valueType == DELETION) {
-                Slice key = readLengthPrefixedBytes(record);
-                writeBatch.delete(key);
-            }
-            else {
-                throw new IllegalStateException("Unexpected value type " + valueType);
-            }
-        }
+        private final MemTable memTable;
+        private final long logNumber;
 
-        if (entries != updateSize) {
-            throw new IOException(String.format("Expected %d entries in log record but found %s entries", updateSize, entries));
+        private ImmutableMemTable(MemTable memTable, long logNumber)
+        {
+            this.memTable = memTable;
+            this.logNumber = logNumber;
         }
+    }
 
-        return writeBatch;
+    /**
+     * 合并写入的一组writer，第一个是leader。分配sequence后离开写入队列，在流水线中依次写log、写memtable和发布
+     */
+    private static final class WriteGroup
+    {
+        private final List<Writer> writers;
+        private final WriteBatchImpl updates;
+        private final Slice record;
+        private final long sequenceBegin;
+        private final long sequenceEnd;
+        private final LogWriter log;
+        private final MemTable memTable;
+        // 以下字段由mutex保护
+        // 前一组写完log之后这一组才能写log
+        private WriteGroup previous;
+        private boolean logged;
+        private boolean inserted;
+        private Throwable error;
+
+        private WriteGroup(List<Writer> writers, WriteBatchImpl updates, Slice record, long sequenceBegin, long sequenceEnd, LogWriter log, MemTable memTable, WriteGroup previous)
+        {
+            this.writers = writers;
+            this.updates = updates;
+            this.record = record;
+            this.sequenceBegin = sequenceBegin;
+            this.sequenceEnd = sequenceEnd;
+            this.log = log;
+            this.memTable = memTable;
+            this.previous = previous;
+        }
     }
 
-    private Slice writeWriteBatch(WriteBatchImpl updates, long sequenceBegin)
+    /**
+     * 写入队列中的一个写请求，对应于源码中的DBImpl::Writer
+     */
+    private static final class Writer
     {
-        Slice record = Slices.allocate(LONG_UNIT + INT_UNIT + updates.getApproximateSize());
-        final SliceOutput sliceOutput = record.output();
-        sliceOutput.writeLong(sequenceBegin);
-        sliceOutput.writeInt(updates.size());
-        updates.forEach(new Handler()
+        // 为null表示只切换memtable
+        private final WriteBatchImpl batch;
+        private final boolean sync;
+        private final Condition condition;
+        // 异步写入时不为null，没有线程等待这个writer
+        private final CompletableFuture<Snapshot> future;
+        private final boolean snapshot;
+        // 以下字段由mutex保护
+        private boolean done;
+        private Throwable error;
+        private long sequenceEnd;
+        private Snapshot result;
+        // 并行写入memtable时由leader设置，writer写入后清空
+        private MemTable memTable;
+        private Writer leader;
+        // leader等待其他writer写完memtable
+        private int pendingInserts;
+        private Throwable insertError;
+
+        private Writer(WriteBatchImpl batch, boolean sync, Condition condition)
         {
-            @Override
-            public void put(Slice key, Slice value)
-            {
-                sliceOutput.writeByte(VALUE.getPersistentId());
-                writeLengthPrefixedBytes(sliceOutput, key);
-                writeLengthPrefixedBytes(sliceOutput, value);
-            }
+            this(batch, sync, false, null, condition);
+        }
 
-            @Override
-            public void delete(Slice key)
-            {
-                sliceOutput.writeByte(DELETION.getPersistentId());
-                writeLengthPrefixedBytes(sliceOutput, key);
-            }
-        });
-        return record.slice(0, sliceOutput.size());
+        private Writer(WriteBatchImpl batch, boolean sync, boolean snapshot, CompletableFuture<Snapshot> future, Condition condition)
+        {
+            this.batch = batch;
+            this.sync = sync;
+            this.snapshot = snapshot;
+            this.future = future;
+            this.condition = condition;
+        }
     }
 
     private static class InsertIntoHandler
@@ -1367,34 +2550,65 @@ public class DbImpl
 
     private final Object suspensionMutex = new Object();
     private int suspensionCounter;
+    // 被暂停任务占用的后台线程数
+    private int suspendedThreads;
 
+    /**
+     * 每个compaction线程和flush线程都提交一个阻塞任务，所有线程都被占用后，不会再有compaction执行
+     */
     @Override
     public void suspendCompactions()
             throws InterruptedException
     {
-        compactionExecutor.execute(new Runnable()
+        int threads = options.maxBackgroundCompactions() + 1;
+        synchronized (suspensionMutex) {
+            suspensionCounter++;
+            if (suspensionCounter > 1) {
+                // 已经暂停
+                while (suspendedThreads < threads) {
+                    suspensionMutex.wait();
+                }
+                return;
+            }
+        }
+
+        flushExecutor.execute(newSuspensionTask(flushExecutor));
+        for (int i = 0; i < options.maxBackgroundCompactions(); i++) {
+            compactionExecutor.execute(newSuspensionTask(compactionExecutor));
+        }
+        synchronized (suspensionMutex) {
+            while (suspendedThreads < threads) {
+                suspensionMutex.wait();
+            }
+        }
+    }
+
+    // 占用executor的一个线程，直到resumeCompactions()或executor关闭
+    private Runnable newSuspensionTask(final ExecutorService executor)
+    {
+        return new Runnable()
         {
             @Override
             public void run()
             {
                 try {
                     synchronized (suspensionMutex) {
-                        suspensionCounter++;
+                        suspendedThreads++;
                         suspensionMutex.notifyAll();
-                        while (suspensionCounter > 0 && !compactionExecutor.isShutdown()) {
-                            suspensionMutex.wait(500);
+                        try {
+                            while (suspensionCounter > 0 && !executor.isShutdown()) {
+                                suspensionMutex.wait(500);
+                            }
+                        }
+                        finally {
+                            suspendedThreads--;
                         }
                     }
                 }
                 catch (InterruptedException e) {
                 }
             }
-        });
-        synchronized (suspensionMutex) {
-            while (suspensionCounter < 1) {
-                suspensionMutex.wait();
-            }
-        }
+        };
     }
 
     @Override
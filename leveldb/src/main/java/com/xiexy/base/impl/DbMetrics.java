@@ -0,0 +1,262 @@
+package com.xiexy.base.impl;
+
+import com.xiexy.base.table.BlockCache;
+import com.xiexy.base.utils.LatencyHistogram;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Options.metrics()打开时，DbImpl在各个阶段记录延迟和计数。
+ * 写入分为log append、log sync和memtable insert三个阶段分别记录，
+ * 记录只做原子加，不分配内存
+ */
+public class DbMetrics
+        implements DbMetricsMXBean
+{
+    private final LatencyHistogram get = new LatencyHistogram();
+    private final LatencyHistogram write = new LatencyHistogram();
+    private final LatencyHistogram walAppend = new LatencyHistogram();
+    private final LatencyHistogram walSync = new LatencyHistogram();
+    private final LatencyHistogram memTableInsert = new LatencyHistogram();
+    private final LatencyHistogram iteratorSeek = new LatencyHistogram();
+    private final LatencyHistogram iteratorNext = new LatencyHistogram();
+    private final LatencyHistogram flush = new LatencyHistogram();
+    private final LatencyHistogram compaction = new LatencyHistogram();
+
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    private final WriteController writeController;
+    private final TableCache tableCache;
+    // 可以为null
+    private final BlockCache blockCache;
+
+    private ObjectName objectName;
+
+    public DbMetrics(WriteController writeController, TableCache tableCache)
+    {
+        this.writeController = requireNonNull(writeController, "writeController is null");
+        this.tableCache = requireNonNull(tableCache, "tableCache is null");
+        this.blockCache = tableCache.getBlockCache();
+    }
+
+    /**
+     * 注册到platform MBean server
+     */
+    public synchronized void register(File databaseDir)
+    {
+        try {
+            ObjectName name = new ObjectName("com.xiexy.base:type=DB,name=" + ObjectName.quote(databaseDir.getAbsolutePath()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        }
+        catch (JMException e) {
+            throw new RuntimeException("Unable to register metrics for " + databaseDir, e);
+        }
+    }
+
+    public synchronized void unregister()
+    {
+        if (objectName == null) {
+            return;
+        }
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            mBeanServer.unregisterMBean(objectName);
+        }
+        catch (JMException ignored) {
+        }
+        objectName = null;
+    }
+
+    public void recordGet(long nanos, long valueBytes)
+    {
+        get.record(nanos);
+        bytesRead.addAndGet(valueBytes);
+    }
+
+    // 从进入写入队列到写入完成的时间，包括等待leader和限速的时间
+    public void recordWrite(long nanos, long batchBytes)
+    {
+        write.record(nanos);
+        bytesWritten.addAndGet(batchBytes);
+    }
+
+    public void recordWalAppend(long nanos)
+    {
+        walAppend.record(nanos);
+    }
+
+    public void recordWalSync(long nanos)
+    {
+        walSync.record(nanos);
+    }
+
+    public void recordMemTableInsert(long nanos)
+    {
+        memTableInsert.record(nanos);
+    }
+
+    public void recordIteratorSeek(long nanos)
+    {
+        iteratorSeek.record(nanos);
+    }
+
+    public void recordIteratorNext(long nanos, long valueBytes)
+    {
+        iteratorNext.record(nanos);
+        bytesRead.addAndGet(valueBytes);
+    }
+
+    public void recordFlush(long nanos)
+    {
+        flush.record(nanos);
+    }
+
+    public void recordCompaction(long nanos)
+    {
+        compaction.record(nanos);
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getGetLatency()
+    {
+        return get.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getWriteLatency()
+    {
+        return write.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getWalAppendLatency()
+    {
+        return walAppend.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getWalSyncLatency()
+    {
+        return walSync.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getMemTableInsertLatency()
+    {
+        return memTableInsert.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getIteratorSeekLatency()
+    {
+        return iteratorSeek.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getIteratorNextLatency()
+    {
+        return iteratorNext.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getFlushLatency()
+    {
+        return flush.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getCompactionLatency()
+    {
+        return compaction.snapshot();
+    }
+
+    @Override
+    public long getBytesRead()
+    {
+        return bytesRead.get();
+    }
+
+    @Override
+    public long getBytesWritten()
+    {
+        return bytesWritten.get();
+    }
+
+    @Override
+    public long getBlockCacheHits()
+    {
+        return blockCache == null ? 0 : blockCache.getHitCount();
+    }
+
+    @Override
+    public long getBlockCacheMisses()
+    {
+        return blockCache == null ? 0 : blockCache.getMissCount();
+    }
+
+    @Override
+    public long getOpenTables()
+    {
+        return tableCache.getOpenTableCount();
+    }
+
+    @Override
+    public long getPinnedTableHandles()
+    {
+        return tableCache.getPinnedHandleCount();
+    }
+
+    @Override
+    public long getWriteDelayCount()
+    {
+        return writeController.getDelayCount();
+    }
+
+    @Override
+    public long getWriteStopCount()
+    {
+        return writeController.getStopCount();
+    }
+
+    @Override
+    public long getWriteStallMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(writeController.getTotalDelayNanos() + writeController.getTotalStopNanos());
+    }
+
+    @Override
+    public long getDelayedWriteRate()
+    {
+        return writeController.getDelayedWriteRate();
+    }
+
+    /**
+     * 清空延迟直方图和字节计数，block cache和写入限速的统计不受影响
+     */
+    @Override
+    public void reset()
+    {
+        get.reset();
+        write.reset();
+        walAppend.reset();
+        walSync.reset();
+        memTableInsert.reset();
+        iteratorSeek.reset();
+        iteratorNext.reset();
+        flush.reset();
+        compaction.reset();
+        bytesRead.set(0);
+        bytesWritten.set(0);
+    }
+}
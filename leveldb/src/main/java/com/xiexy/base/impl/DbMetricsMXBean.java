@@ -0,0 +1,50 @@
+package com.xiexy.base.impl;
+
+import com.xiexy.base.utils.LatencyHistogram;
+
+/**
+ * 通过JMX暴露的DB统计，每个打开的DB注册一个，ObjectName为com.xiexy.base:type=DB,name=数据库目录。
+ * 延迟的单位为微秒
+ */
+public interface DbMetricsMXBean
+{
+    LatencyHistogram.Snapshot getGetLatency();
+
+    LatencyHistogram.Snapshot getWriteLatency();
+
+    LatencyHistogram.Snapshot getWalAppendLatency();
+
+    LatencyHistogram.Snapshot getWalSyncLatency();
+
+    LatencyHistogram.Snapshot getMemTableInsertLatency();
+
+    LatencyHistogram.Snapshot getIteratorSeekLatency();
+
+    LatencyHistogram.Snapshot getIteratorNextLatency();
+
+    LatencyHistogram.Snapshot getFlushLatency();
+
+    LatencyHistogram.Snapshot getCompactionLatency();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getBlockCacheHits();
+
+    long getBlockCacheMisses();
+
+    long getOpenTables();
+
+    long getPinnedTableHandles();
+
+    long getWriteDelayCount();
+
+    long getWriteStopCount();
+
+    long getWriteStallMicros();
+
+    long getDelayedWriteRate();
+
+    void reset();
+}
@@ -155,6 +155,17 @@ public class FileChannelLogWriter
         }
     }
 
+    /**
+     * 不持有锁，fsync时其他线程可以继续addRecord，force会包含调用之前写入的所有record
+     */
+    @Override
+    public void sync()
+            throws IOException
+    {
+        checkState(!closed.get(), "Log has been closed");
+        fileChannel.force(false);
+    }
+
     private void writeChunk(LogType type, Slice slice)
             throws IOException
     {
@@ -0,0 +1,51 @@
+package com.xiexy.base.impl;
+
+import com.xiexy.base.include.Slice;
+import com.xiexy.base.table.FilterPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.xiexy.base.utils.DataUnit.LONG_UNIT;
+
+/**
+ * sstable中存储的是internal key，而filter只针对user key，
+ * 这里去掉末尾8字节的sequence number和value type后再交给用户的filter policy
+ */
+public class InternalFilterPolicy
+        implements FilterPolicy
+{
+    private final FilterPolicy userPolicy;
+
+    public InternalFilterPolicy(FilterPolicy userPolicy)
+    {
+        this.userPolicy = userPolicy;
+    }
+
+    @Override
+    public String name()
+    {
+        return userPolicy.name();
+    }
+
+    @Override
+    public Slice createFilter(List<Slice> keys)
+    {
+        List<Slice> userKeys = new ArrayList<>(keys.size());
+        for (Slice key : keys) {
+            userKeys.add(extractUserKey(key));
+        }
+        return userPolicy.createFilter(userKeys);
+    }
+
+    @Override
+    public boolean keyMayMatch(Slice key, Slice filter)
+    {
+        return userPolicy.keyMayMatch(extractUserKey(key), filter);
+    }
+
+    private static Slice extractUserKey(Slice internalKey)
+    {
+        return internalKey.slice(0, internalKey.length() - LONG_UNIT);
+    }
+}
@@ -5,6 +5,7 @@ import com.xiexy.base.table.UserComparator;
 
 import static com.google.common.base.Preconditions.checkState;
 import static com.xiexy.base.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
+import static com.xiexy.base.utils.DataUnit.LONG_UNIT;
 
 public class InternalUserComparator
         implements UserComparator
@@ -19,7 +20,17 @@ public class InternalUserComparator
     @Override
     public int compare(Slice left, Slice right)
     {
-        return internalKeyComparator.compare(new InternalKey(left), new InternalKey(right));
+        // 直接比较编码后的key，与InternalKeyComparator的顺序一致，不需要创建InternalKey
+        int leftUserKeyLength = left.length() - LONG_UNIT;
+        int rightUserKeyLength = right.length() - LONG_UNIT;
+        int result = internalKeyComparator.getUserComparator().compare(left.slice(0, leftUserKeyLength), right.slice(0, rightUserKeyLength));
+        if (result != 0) {
+            return result;
+        }
+        // SequenceNumber越大越靠前
+        long leftSequence = SequenceNumber.unpackSequenceNumber(left.getLong(leftUserKeyLength));
+        long rightSequence = SequenceNumber.unpackSequenceNumber(right.getLong(rightUserKeyLength));
+        return Long.compare(rightSequence, leftSequence);
     }
 
     @Override
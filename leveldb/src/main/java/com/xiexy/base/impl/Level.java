@@ -1,9 +1,10 @@
 package com.xiexy.base.impl;
 
 import com.google.common.collect.Lists;
+import com.xiexy.base.ReadOptions;
 import com.xiexy.base.include.Slice;
+import com.xiexy.base.table.BlockEntry;
 import com.xiexy.base.table.UserComparator;
-import com.xiexy.base.utils.InternalTableIterator;
 import com.xiexy.base.utils.LevelIterator;
 
 import java.util.*;
@@ -12,7 +13,6 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static com.xiexy.base.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
 import static com.xiexy.base.impl.ValueType.VALUE;
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 
 public class Level
@@ -50,15 +50,20 @@ public class Level
     @Override
     public LevelIterator iterator()
     {
-        return createLevelConcatIterator(tableCache, files, internalKeyComparator);
+        return iterator(new ReadOptions());
     }
 
-    public static LevelIterator createLevelConcatIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator internalKeyComparator)
+    public LevelIterator iterator(ReadOptions options)
     {
-        return new LevelIterator(tableCache, files, internalKeyComparator);
+        return createLevelConcatIterator(tableCache, files, internalKeyComparator, options);
     }
 
-    public LookupResult get(LookupKey key, ReadStats readStats)
+    public static LevelIterator createLevelConcatIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator internalKeyComparator, ReadOptions options)
+    {
+        return new LevelIterator(tableCache, files, internalKeyComparator, options);
+    }
+
+    public LookupResult get(LookupKey key, ReadOptions options, ReadStats readStats)
     {
         if (files.isEmpty()) {
             return null;
@@ -97,6 +102,8 @@ public class Level
         FileMetaData lastFileRead = null;
         int lastFileReadLevel = -1;
         readStats.clear();
+        // table中存储的是编码后的internal key，只需编码一次
+        Slice encodedKey = key.getInternalKey().encode();
         for (FileMetaData fileMetaData : fileMetaDataList) {
             if (lastFileRead != null && readStats.getSeekFile() == null) {
                 // 记录第一个文件的信息
@@ -107,33 +114,73 @@ public class Level
             lastFileRead = fileMetaData;
             lastFileReadLevel = levelNumber;
 
-            // 根据fileMetaData中的file number，从tableCache中获得对应的table的iterator
-            InternalTableIterator iterator = tableCache.newIterator(fileMetaData);
+            // 在table中查找 >= lookup key的第一个key，只读取一个data block，不创建iterator
+            BlockEntry entry = tableCache.get(fileMetaData, encodedKey, options);
+            if (entry != null) {
+                // 如果找到了key，valuetype是value或delete都返回LookupResult
+                LookupResult lookupResult = LookupResult.fromTableEntry(key, entry.getKey(), entry.getValue());
+                if (lookupResult != null) {
+                    return lookupResult;
+                }
+            }
+        }
 
-            // 在table中指向 >= lookup key的第一个key
-            iterator.seek(key.getInternalKey());
+        return null;
+    }
 
-            if (iterator.hasNext()) {
-                // 解析出block中的key
-                Map.Entry<InternalKey, Slice> entry = iterator.next();
-                InternalKey internalKey = entry.getKey();
-                checkState(internalKey != null, "Corrupt key for %s", key.getUserKey().toString(UTF_8));
+    /**
+     * 批量查找，keys按user key排序，只查找results中还为null的key，找到的结果写入results。
+     * keys有序，所以落在同一个文件中的key是相邻的，每个文件只查找一次
+     */
+    public void multiGet(List<LookupKey> keys, LookupResult[] results, ReadOptions options)
+    {
+        if (files.isEmpty()) {
+            return;
+        }
+        checkState(levelNumber != 0, "level0 files overlap, use Level0.multiGet");
 
-                // 如果找到了key
-                //  1. valuetype是value，那么返回LookupResult
-                //  1. valuetype是delete，那么返回LookupResult
-                if (key.getUserKey().equals(internalKey.getUserKey())) {
-                    if (internalKey.getValueType() == ValueType.DELETION) {
-                        return LookupResult.deleted(key);
-                    }
-                    else if (internalKey.getValueType() == VALUE) {
-                        return LookupResult.ok(key, entry.getValue());
+        List<InternalKey> largestKeys = Lists.transform(files, FileMetaData::getLargest);
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        int i = 0;
+        while (i < keys.size()) {
+            if (results[i] != null) {
+                i++;
+                continue;
+            }
+
+            // 二分查找最小的 key >= ikey的文件
+            int index = ceilingEntryIndex(largestKeys, keys.get(i).getInternalKey(), internalKeyComparator);
+            if (index >= files.size()) {
+                // 后面的key都比这一层所有的key大
+                return;
+            }
+            FileMetaData fileMetaData = files.get(index);
+
+            // 收集所有落在这个文件中的key
+            List<Integer> positions = new ArrayList<>();
+            List<Slice> encodedKeys = new ArrayList<>();
+            for (; i < keys.size(); i++) {
+                LookupKey key = keys.get(i);
+                if (internalKeyComparator.compare(key.getInternalKey(), fileMetaData.getLargest()) > 0) {
+                    break;
+                }
+                // 比文件最小key还小的key不在这一层
+                if (results[i] == null && userComparator.compare(key.getUserKey(), fileMetaData.getSmallest().getUserKey()) >= 0) {
+                    positions.add(i);
+                    encodedKeys.add(key.getInternalKey().encode());
+                }
+            }
+
+            if (!encodedKeys.isEmpty()) {
+                BlockEntry[] entries = tableCache.multiGet(fileMetaData, encodedKeys, options);
+                for (int j = 0; j < entries.length; j++) {
+                    if (entries[j] != null) {
+                        int position = positions.get(j);
+                        results[position] = LookupResult.fromTableEntry(keys.get(position), entries[j].getKey(), entries[j].getValue());
                     }
                 }
             }
         }
-
-        return null;
     }
 
     private static <T> int ceilingEntryIndex(List<T> list, T key, Comparator<T> comparator)
@@ -153,8 +200,9 @@ public class Level
         int index = findFile(smallestInternalKey);
 
         UserComparator userComparator = internalKeyComparator.getUserComparator();
+        // files[index]是第一个largest >= smallestUserKey的文件，只要它的smallest <= largestUserKey就重叠
         return ((index < files.size()) &&
-                userComparator.compare(largestUserKey, files.get(index).getLargest().getUserKey()) >= 0);
+                userComparator.compare(largestUserKey, files.get(index).getSmallest().getUserKey()) >= 0);
     }
 
     private int findFile(InternalKey targetKey)
@@ -182,6 +230,10 @@ public class Level
                 right = mid;
             }
         }
+        // 所有文件都小于targetKey
+        if (internalKeyComparator.compare(files.get(right).getLargest(), targetKey) < 0) {
+            return files.size();
+        }
         return right;
     }
 
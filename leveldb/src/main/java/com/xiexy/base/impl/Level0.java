@@ -1,16 +1,13 @@
 package com.xiexy.base.impl;
 
+import com.xiexy.base.ReadOptions;
 import com.xiexy.base.include.Slice;
+import com.xiexy.base.table.BlockEntry;
 import com.xiexy.base.table.UserComparator;
-import com.xiexy.base.utils.InternalTableIterator;
 import com.xiexy.base.utils.Level0Iterator;
 
 import java.util.*;
 
-import static com.google.common.base.Preconditions.checkState;
-import static com.xiexy.base.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
-import static com.xiexy.base.impl.ValueType.VALUE;
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 
 public class Level0
@@ -54,10 +51,15 @@ public class Level0
     @Override
     public Level0Iterator iterator()
     {
-        return new Level0Iterator(tableCache, files, internalKeyComparator);
+        return iterator(new ReadOptions());
     }
 
-    public LookupResult get(LookupKey key, ReadStats readStats)
+    public Level0Iterator iterator(ReadOptions options)
+    {
+        return new Level0Iterator(tableCache, files, internalKeyComparator, options);
+    }
+
+    public LookupResult get(LookupKey key, ReadOptions options, ReadStats readStats)
     {
         if (files.isEmpty()) {
             return null;
@@ -77,29 +79,16 @@ public class Level0
         Collections.sort(fileMetaDataList, NEWEST_FIRST);
 
         readStats.clear();
+        // table中存储的是编码后的internal key，只需编码一次
+        Slice encodedKey = key.getInternalKey().encode();
         for (FileMetaData fileMetaData : fileMetaDataList) {
-            // 根据fileMetaData中的file number，从tableCache中获得对应的table的iterator
-            InternalTableIterator iterator = tableCache.newIterator(fileMetaData);
-
-            // 在table中指向 >= lookup key的第一个key
-            iterator.seek(key.getInternalKey());
-
-            if (iterator.hasNext()) {
-                // 解析出block中的key
-                Map.Entry<InternalKey, Slice> entry = iterator.next();
-                InternalKey internalKey = entry.getKey();
-                checkState(internalKey != null, "Corrupt key for %s", key.getUserKey().toString(UTF_8));
-
-                // 如果找到了key
-                //  1. valuetype是value，那么返回LookupResult
-                //  1. valuetype是delete，那么返回LookupResult
-                if (key.getUserKey().equals(internalKey.getUserKey())) {
-                    if (internalKey.getValueType() == ValueType.DELETION) {
-                        return LookupResult.deleted(key);
-                    }
-                    else if (internalKey.getValueType() == VALUE) {
-                        return LookupResult.ok(key, entry.getValue());
-                    }
+            // 在table中查找 >= lookup key的第一个key，filter判断key不存在时不会读取data block
+            BlockEntry entry = tableCache.get(fileMetaData, encodedKey, options);
+            if (entry != null) {
+                // 如果找到了key，valuetype是value或delete都返回LookupResult
+                LookupResult lookupResult = LookupResult.fromTableEntry(key, entry.getKey(), entry.getValue());
+                if (lookupResult != null) {
+                    return lookupResult;
                 }
             }
             // 如果readStats中没有File信息，设置当前最新的sst文件为level0
@@ -113,37 +102,59 @@ public class Level0
         return null;
     }
 
-    public boolean someFileOverlapsRange(Slice smallestUserKey, Slice largestUserKey)
-    {
-        InternalKey smallestInternalKey = new InternalKey(smallestUserKey, MAX_SEQUENCE_NUMBER, VALUE);
-        int index = findFile(smallestInternalKey);
-
-        UserComparator userComparator = internalKeyComparator.getUserComparator();
-        return ((index < files.size()) &&
-                userComparator.compare(largestUserKey, files.get(index).getLargest().getUserKey()) >= 0);
-    }
-
-    // 二分查找targetkey所在的文件
-    private int findFile(InternalKey targetKey)
+    /**
+     * 批量查找，keys按user key排序，只查找results中还为null的key，找到的结果写入results。
+     * 从新到旧遍历文件，每个文件只查找一次，新文件中找到的key不会再查找旧文件
+     */
+    public void multiGet(List<LookupKey> keys, LookupResult[] results, ReadOptions options)
     {
         if (files.isEmpty()) {
-            return files.size();
+            return;
         }
 
-        int left = 0;
-        int right = files.size() - 1;
+        List<FileMetaData> newestFirst = new ArrayList<>(files);
+        Collections.sort(newestFirst, NEWEST_FIRST);
 
-        while (left < right) {
-            int mid = (left + right) / 2;
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        for (FileMetaData fileMetaData : newestFirst) {
+            List<Integer> positions = new ArrayList<>();
+            List<Slice> encodedKeys = new ArrayList<>();
+            for (int i = 0; i < keys.size(); i++) {
+                LookupKey key = keys.get(i);
+                if (userComparator.compare(key.getUserKey(), fileMetaData.getLargest().getUserKey()) > 0) {
+                    break;
+                }
+                if (results[i] == null && userComparator.compare(key.getUserKey(), fileMetaData.getSmallest().getUserKey()) >= 0) {
+                    positions.add(i);
+                    encodedKeys.add(key.getInternalKey().encode());
+                }
+            }
 
-            if (internalKeyComparator.compare(files.get(mid).getLargest(), targetKey) < 0) {
-                left = mid + 1;
+            if (!encodedKeys.isEmpty()) {
+                BlockEntry[] entries = tableCache.multiGet(fileMetaData, encodedKeys, options);
+                for (int j = 0; j < entries.length; j++) {
+                    if (entries[j] != null) {
+                        int position = positions.get(j);
+                        results[position] = LookupResult.fromTableEntry(keys.get(position), entries[j].getKey(), entries[j].getValue());
+                    }
+                }
             }
-            else {
-                right = mid;
+        }
+    }
+
+    /**
+     * level 0的文件之间可能重叠，不能二分查找，需要检查每个文件
+     */
+    public boolean someFileOverlapsRange(Slice smallestUserKey, Slice largestUserKey)
+    {
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        for (FileMetaData file : files) {
+            if (userComparator.compare(largestUserKey, file.getSmallest().getUserKey()) >= 0 &&
+                    userComparator.compare(smallestUserKey, file.getLargest().getUserKey()) <= 0) {
+                return true;
             }
         }
-        return right;
+        return false;
     }
 
     public void addFile(FileMetaData fileMetaData)
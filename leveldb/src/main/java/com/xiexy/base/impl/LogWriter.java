@@ -24,4 +24,10 @@ public interface LogWriter
 
     void addRecord(Slice record, boolean force)
             throws IOException;
+
+    /**
+     * 把已经写入的record刷到磁盘，写入流水线中一组fsync时下一组可能同时在addRecord
+     */
+    void sync()
+            throws IOException;
 }
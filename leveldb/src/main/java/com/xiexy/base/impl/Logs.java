@@ -1,10 +1,11 @@
 package com.xiexy.base.impl;
 
 import com.xiexy.base.include.Slice;
-import com.xiexy.base.utils.Crc32;
+import com.xiexy.base.utils.Checksums;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.zip.Checksum;
 
 public final class Logs
 {
@@ -32,9 +33,9 @@ public final class Logs
     public static int getCrc32C(int chunkTypeId, byte[] buffer, int offset, int length)
     {
         // Compute the crc of the record type and the payload.
-        Crc32 crc32C = new Crc32();
+        Checksum crc32C = Checksums.newCrc32C();
         crc32C.update(chunkTypeId);
         crc32C.update(buffer, offset, length);
-        return crc32C.getMaskedValue();
+        return Checksums.getMaskedValue(crc32C);
     }
 }
\ No newline at end of file
@@ -2,6 +2,9 @@ package com.xiexy.base.impl;
 
 import com.xiexy.base.include.Slice;
 
+import static com.google.common.base.Preconditions.checkState;
+import static com.xiexy.base.utils.DataUnit.LONG_UNIT;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 
 /**
@@ -19,6 +22,25 @@ public class LookupResult
         return new LookupResult(key, null, true);
     }
 
+    /**
+     * 根据sstable中第一个 >= lookup key的entry生成查找结果，user key不同时返回null。
+     * 直接比较编码后的internal key，不需要解析成InternalKey
+     */
+    static LookupResult fromTableEntry(LookupKey key, Slice encodedKey, Slice value)
+    {
+        int userKeyLength = encodedKey.length() - LONG_UNIT;
+        checkState(userKeyLength >= 0, "Corrupt key for %s", key.getUserKey().toString(UTF_8));
+        if (userKeyLength != key.getUserKey().length() || !encodedKey.slice(0, userKeyLength).equals(key.getUserKey())) {
+            return null;
+        }
+
+        ValueType valueType = SequenceNumber.unpackValueType(encodedKey.getLong(userKeyLength));
+        if (valueType == ValueType.DELETION) {
+            return deleted(key);
+        }
+        return ok(key, value);
+    }
+
     private final LookupKey key;
     private final Slice value;
     private final boolean deleted;
@@ -13,6 +13,7 @@ import java.io.RandomAccessFile;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
@@ -30,7 +31,11 @@ public class MMapLogWriter
     private final long fileNumber;
     private final FileChannel fileChannel;
     private final AtomicBoolean closed = new AtomicBoolean();
+    // sync持有读锁，不阻塞addRecord；重新映射和关闭时持有写锁，force期间不会unmap正在force的buffer
+    private final ReentrantReadWriteLock mappingLock = new ReentrantReadWriteLock();
     private MappedByteBuffer mappedByteBuffer;
+    // 上次sync之后重新映射过，之前映射的区域可能还有没有持久化的数据
+    private volatile boolean remapped;
     private long fileOffset;
     /**
      * 在block中的偏移量
@@ -62,7 +67,13 @@ public class MMapLogWriter
     {
         closed.set(true);
 
-        destroyMappedByteBuffer();
+        mappingLock.writeLock().lock();
+        try {
+            destroyMappedByteBuffer();
+        }
+        finally {
+            mappingLock.writeLock().unlock();
+        }
         // truncate()方法截取一个文件。截取文件时，文件将中指定长度后面的部分将被删除。
         if (fileChannel.isOpen()) {
             fileChannel.truncate(fileOffset);
@@ -180,6 +191,28 @@ public class MMapLogWriter
         }
     }
 
+    /**
+     * 不持有对象锁，fsync时其他线程可以继续addRecord，force会包含调用之前写入的所有record
+     */
+    @Override
+    public void sync()
+            throws IOException
+    {
+        mappingLock.readLock().lock();
+        try {
+            checkState(!closed.get(), "Log has been closed");
+            if (remapped) {
+                // 之前映射的区域已经unmap，通过文件持久化
+                remapped = false;
+                fileChannel.force(false);
+            }
+            mappedByteBuffer.force();
+        }
+        finally {
+            mappingLock.readLock().unlock();
+        }
+    }
+
     private void writeChunk(LogType type, Slice slice)
             throws IOException
     {
@@ -205,10 +238,17 @@ public class MMapLogWriter
     {
         if (mappedByteBuffer.remaining() < bytes) {
             // remap
-            fileOffset += mappedByteBuffer.position();
-            unmap();
+            mappingLock.writeLock().lock();
+            try {
+                fileOffset += mappedByteBuffer.position();
+                unmap();
 
-            mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, fileOffset, PAGE_SIZE);
+                mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, fileOffset, PAGE_SIZE);
+                remapped = true;
+            }
+            finally {
+                mappingLock.writeLock().unlock();
+            }
         }
     }
 
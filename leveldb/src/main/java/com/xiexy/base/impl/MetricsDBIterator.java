@@ -0,0 +1,103 @@
+package com.xiexy.base.impl;
+
+import com.xiexy.base.DBIterator;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * 记录seek和next（prev）延迟的DBIterator，只在打开metrics时使用
+ */
+class MetricsDBIterator
+        implements DBIterator
+{
+    private final DBIterator delegate;
+    private final DbMetrics metrics;
+
+    MetricsDBIterator(DBIterator delegate, DbMetrics metrics)
+    {
+        this.delegate = requireNonNull(delegate, "delegate is null");
+        this.metrics = requireNonNull(metrics, "metrics is null");
+    }
+
+    @Override
+    public void seek(byte[] key)
+    {
+        long start = System.nanoTime();
+        delegate.seek(key);
+        metrics.recordIteratorSeek(System.nanoTime() - start);
+    }
+
+    @Override
+    public void seekToFirst()
+    {
+        long start = System.nanoTime();
+        delegate.seekToFirst();
+        metrics.recordIteratorSeek(System.nanoTime() - start);
+    }
+
+    @Override
+    public void seekToLast()
+    {
+        long start = System.nanoTime();
+        delegate.seekToLast();
+        metrics.recordIteratorSeek(System.nanoTime() - start);
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        return delegate.hasNext();
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> next()
+    {
+        long start = System.nanoTime();
+        Map.Entry<byte[], byte[]> entry = delegate.next();
+        metrics.recordIteratorNext(System.nanoTime() - start, entry.getValue().length);
+        return entry;
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> peekNext()
+    {
+        return delegate.peekNext();
+    }
+
+    @Override
+    public boolean hasPrev()
+    {
+        return delegate.hasPrev();
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> prev()
+    {
+        long start = System.nanoTime();
+        Map.Entry<byte[], byte[]> entry = delegate.prev();
+        metrics.recordIteratorNext(System.nanoTime() - start, entry.getValue().length);
+        return entry;
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> peekPrev()
+    {
+        return delegate.peekPrev();
+    }
+
+    @Override
+    public void remove()
+    {
+        delegate.remove();
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        delegate.close();
+    }
+}
@@ -0,0 +1,74 @@
+package com.xiexy.base.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.xiexy.base.db.MemTable;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 读操作需要的(memtable, immutable memtables, current version)三元组，创建后不再修改。
+ * 每次memtable切换、flush或compaction安装新version时，DbImpl在mutex中创建新的SuperVersion并替换旧的，
+ * 读操作不需要获取mutex，只需要增加引用计数。
+ * 引用计数降为0时释放对version的引用，之后不能再被retain。
+ */
+final class SuperVersion
+{
+    // DbImpl持有一个引用
+    private final AtomicInteger refs = new AtomicInteger(1);
+    private final MemTable memTable;
+    // 从新到旧排列
+    private final List<MemTable> immutableMemTables;
+    private final Version version;
+
+    SuperVersion(MemTable memTable, List<MemTable> immutableMemTables, Version version)
+    {
+        this.memTable = memTable;
+        this.immutableMemTables = ImmutableList.copyOf(immutableMemTables);
+        this.version = version;
+        version.retain();
+    }
+
+    public MemTable getMemTable()
+    {
+        return memTable;
+    }
+
+    /**
+     * 等待flush的memtable，从新到旧排列，查找时需要按这个顺序
+     */
+    public List<MemTable> getImmutableMemTables()
+    {
+        return immutableMemTables;
+    }
+
+    public Version getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * 已经被释放时返回false，调用者需要重新读取最新的SuperVersion
+     */
+    public boolean tryRetain()
+    {
+        while (true) {
+            int current = refs.get();
+            if (current <= 0) {
+                return false;
+            }
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release()
+    {
+        int now = refs.decrementAndGet();
+        assert now >= 0 : "SuperVersion was released after it was disposed.";
+        if (now == 0) {
+            version.release();
+        }
+    }
+}
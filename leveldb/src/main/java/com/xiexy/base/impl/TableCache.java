@@ -1,8 +1,12 @@
 package com.xiexy.base.impl;
 
 import com.google.common.cache.*;
+import com.xiexy.base.ReadOptions;
 import com.xiexy.base.include.Slice;
+import com.xiexy.base.table.BlockCache;
+import com.xiexy.base.table.BlockEntry;
 import com.xiexy.base.table.FileChannelTable;
+import com.xiexy.base.table.FilterPolicy;
 import com.xiexy.base.table.MMapTable;
 import com.xiexy.base.table.Table;
 import com.xiexy.base.table.UserComparator;
@@ -10,27 +14,58 @@ import com.xiexy.base.utils.Closeables;
 import com.xiexy.base.utils.Finalizer;
 import com.xiexy.base.utils.InternalTableIterator;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.requireNonNull;
 
 /**
  * TableCache缓存的是Table对象，每个DB一个
  * 它内部使用一个LRUCache缓存所有的table对象，实际上其内容是文件编号{file number, TableAndFile}。
- *
+ * TableAndFile带有引用计数，缓存本身持有一个引用，点查询和iterator使用期间各持有一个（pin），
+ * 被淘汰时释放缓存的引用，最后一个引用释放时立即关闭文件（mmap时同时unmap），不需要等待GC。
+ * 没有close的iterator不可达之后由Finalizer释放它的pin，close过的iterator不会留在Finalizer中
  */
 public class TableCache
 {
     private final LoadingCache<Long, TableAndFile> cache;
-    private final Finalizer<Table> finalizer = new Finalizer<>(1);
+    private final Finalizer<InternalTableIterator> finalizer = new Finalizer<>(1);
+    // 已经打开还没有关闭的table，包括已经被淘汰但仍被pin住的
+    private final AtomicLong openTables = new AtomicLong();
+    // 点查询和iterator持有的pin
+    private final AtomicLong pinnedHandles = new AtomicLong();
+    // 所有table共享的block cache，可以为null
+    private final BlockCache blockCache;
 
     public TableCache(final File databaseDir, int tableCacheSize, final UserComparator userComparator, final boolean verifyChecksums)
+    {
+        this(databaseDir, tableCacheSize, userComparator, verifyChecksums, null);
+    }
+
+    public TableCache(final File databaseDir, int tableCacheSize, final UserComparator userComparator, final boolean verifyChecksums, final FilterPolicy filterPolicy)
+    {
+        this(databaseDir, tableCacheSize, userComparator, verifyChecksums, filterPolicy, null);
+    }
+
+    public TableCache(final File databaseDir,
+            int tableCacheSize,
+            final UserComparator userComparator,
+            final boolean verifyChecksums,
+            final FilterPolicy filterPolicy,
+            final BlockCache blockCache)
     {
         requireNonNull(databaseDir, "databaseName is null");
+        this.blockCache = blockCache;
         // 初始化本地缓存，为缓存设置最大存储数量，设置监听器
         cache = CacheBuilder.newBuilder()
                 .maximumSize(tableCacheSize)
@@ -39,11 +74,8 @@ public class TableCache
                     @Override
                     public void onRemoval(RemovalNotification<Long, TableAndFile> notification)
                     {
-                        // 缓存项被移除时,将文件关闭
-                        Table table = notification.getValue().getTable();
-                        // table.closer()继承自Callable
-                        // 创建线程池、创建table的虚引用
-                        finalizer.addCleanup(table, table.closer());
+                        // 缓存项被移除时释放缓存持有的引用，没有被pin住时立即关闭文件
+                        notification.getValue().evict();
                     }
                 })
                 .build(new CacheLoader<Long, TableAndFile>()
@@ -57,7 +89,7 @@ public class TableCache
                         // 说明table不在cache中，则根据file number和db name打开一个RadomAccessFile。
                         // Table文件格式为：<db name>.<filenumber(%6u)>.sst。
                         // 如果文件打开成功，则调用Table::Open读取sstable文件。
-                        return new TableAndFile(databaseDir, fileNumber, userComparator, verifyChecksums);
+                        return new TableAndFile(databaseDir, fileNumber, userComparator, verifyChecksums, filterPolicy, blockCache);
                     }
                 });
     }
@@ -66,38 +98,149 @@ public class TableCache
     {
         return newIterator(file.getNumber());
     }
+
+    public InternalTableIterator newIterator(FileMetaData file, ReadOptions options)
+    {
+        return newIterator(file.getNumber(), options);
+    }
+
     // 函数NewIterator()，返回一个可以遍历Table对象的Iterator指针
     public InternalTableIterator newIterator(long number)
     {
-        return new InternalTableIterator(getTable(number).iterator());
+        return newIterator(number, new ReadOptions());
     }
+
+    /**
+     * iterator在close之前pin住table
+     */
+    private InternalTableIterator newIterator(long number, ReadOptions options)
+    {
+        TableAndFile tableAndFile = acquire(number);
+        Pin pin = new Pin(tableAndFile);
+        InternalTableIterator iterator;
+        try {
+            iterator = new InternalTableIterator(tableAndFile.getTable().iterator(options), pin);
+        }
+        catch (RuntimeException e) {
+            pin.close();
+            throw e;
+        }
+        pin.setRegistration(finalizer.addCleanup(iterator, pin));
+        return iterator;
+    }
+
     // 获得key在文件中的偏移
     public long getApproximateOffsetOf(FileMetaData file, Slice key)
     {
-        return getTable(file.getNumber()).getApproximateOffsetOf(key);
+        TableAndFile tableAndFile = acquire(file.getNumber());
+        try {
+            return tableAndFile.getTable().getApproximateOffsetOf(key);
+        }
+        finally {
+            tableAndFile.release();
+        }
     }
-    // 从缓存中获取table
-    private Table getTable(long number)
+
+    // 点查询，返回文件中第一个 >= internalKey的entry，不创建iterator
+    public BlockEntry get(FileMetaData file, Slice internalKey, ReadOptions options)
     {
-        Table table;
+        TableAndFile tableAndFile = acquire(file.getNumber());
         try {
-            table = cache.get(number).getTable();
+            return tableAndFile.getTable().get(internalKey, options);
         }
-        catch (ExecutionException e) {
-            Throwable cause = e;
-            if (e.getCause() != null) {
-                cause = e.getCause();
+        finally {
+            tableAndFile.release();
+        }
+    }
+
+    // 批量点查询，internalKeys需要按顺序排列，同一个data block只读取一次
+    public BlockEntry[] multiGet(FileMetaData file, List<Slice> internalKeys, ReadOptions options)
+    {
+        TableAndFile tableAndFile = acquire(file.getNumber());
+        try {
+            return tableAndFile.getTable().multiGet(internalKeys, options);
+        }
+        finally {
+            tableAndFile.release();
+        }
+    }
+
+    // 根据filter判断internal key是否可能在文件中，返回false时不需要读取data block
+    public boolean mayContain(FileMetaData file, Slice internalKey)
+    {
+        TableAndFile tableAndFile = acquire(file.getNumber());
+        try {
+            return tableAndFile.getTable().mayContain(internalKey);
+        }
+        finally {
+            tableAndFile.release();
+        }
+    }
+
+    /**
+     * 从缓存中获取table并pin住，使用完之后需要调用release()
+     */
+    private TableAndFile acquire(long number)
+    {
+        while (true) {
+            TableAndFile tableAndFile;
+            try {
+                tableAndFile = cache.get(number);
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e;
+                if (e.getCause() != null) {
+                    cause = e.getCause();
+                }
+                throw new RuntimeException("Could not open table " + number, cause);
+            }
+            // 在get和retain之间被淘汰并关闭时重新打开
+            if (tableAndFile.retain()) {
+                return tableAndFile;
             }
-            throw new RuntimeException("Could not open table " + number, cause);
         }
-        return table;
     }
 
+    public BlockCache getBlockCache()
+    {
+        return blockCache;
+    }
+
+    // 当前打开的table个数，包括已经被淘汰但仍被pin住的
+    public long getOpenTableCount()
+    {
+        return openTables.get();
+    }
+
+    // 点查询和iterator持有的pin的个数
+    public long getPinnedHandleCount()
+    {
+        return pinnedHandles.get();
+    }
+
+    /**
+     * 缓存中的table常驻内存的字节数，不包括block cache
+     */
+    public long getApproximateMemoryUsage()
+    {
+        long usage = 0;
+        for (TableAndFile tableAndFile : cache.asMap().values()) {
+            usage += tableAndFile.getTable().getApproximateMemoryUsage();
+        }
+        return usage;
+    }
+
+    /**
+     * 释放缓存持有的引用，并释放还没有close的iterator的pin，关闭DB之后不能再使用iterator
+     */
     public void close()
     {
         // 清除所有缓存项
         cache.invalidateAll();
         finalizer.destroy();
+        if (blockCache != null) {
+            blockCache.invalidateAll();
+        }
     }
 
     // 清楚文件缓存
@@ -106,11 +249,13 @@ public class TableCache
         cache.invalidate(number);
     }
 
-    private static final class TableAndFile
+    private final class TableAndFile
     {
         private final Table table;
+        // 缓存持有一个引用
+        private final AtomicInteger references = new AtomicInteger(1);
 
-        private TableAndFile(File databaseDir, long fileNumber, UserComparator userComparator, boolean verifyChecksums)
+        private TableAndFile(File databaseDir, long fileNumber, UserComparator userComparator, boolean verifyChecksums, FilterPolicy filterPolicy, BlockCache blockCache)
                 throws IOException
         {
             // sstable文件名
@@ -122,23 +267,105 @@ public class TableCache
                 fis = new FileInputStream(tableFile);
                 FileChannel fileChannel = fis.getChannel();
                 if (LevelDBFactory.USE_MMAP) {
-                    table = new MMapTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums);
+                    table = new MMapTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums, filterPolicy, blockCache, fileNumber);
                     // 能走到这里，说明不需要文件流
                     Closeables.closeQuietly(fis);
                 }
                 else {
-                    table = new FileChannelTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums);
+                    table = new FileChannelTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums, filterPolicy, blockCache, fileNumber);
                 }
             }
             catch (IOException ioe) {
                 Closeables.closeQuietly(fis);
                 throw ioe;
             }
+            openTables.incrementAndGet();
         }
 
         public Table getTable()
         {
             return table;
         }
+
+        // 引用计数已经降到0（已经关闭）时返回false
+        private boolean retain()
+        {
+            while (true) {
+                int count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    pinnedHandles.incrementAndGet();
+                    return true;
+                }
+            }
+        }
+
+        // 释放pin
+        private void release()
+        {
+            pinnedHandles.decrementAndGet();
+            unreference();
+        }
+
+        // 从缓存中淘汰
+        private void evict()
+        {
+            unreference();
+        }
+
+        private void unreference()
+        {
+            int count = references.decrementAndGet();
+            checkState(count >= 0, "table %s is released too many times", table);
+            if (count == 0) {
+                try {
+                    table.closer().call();
+                }
+                catch (Exception ignored) {
+                }
+                openTables.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * iterator持有的pin，由iterator的close()或者iterator不可达之后由Finalizer释放，只释放一次。
+     * 显式close时同时取消在Finalizer中的注册，不需要等GC清理虚引用
+     */
+    private static final class Pin
+            implements Closeable, Callable<Void>
+    {
+        private final TableAndFile tableAndFile;
+        private final AtomicBoolean released = new AtomicBoolean();
+        // 在Finalizer中的注册，iterator创建失败时为null
+        private volatile Closeable registration;
+
+        private Pin(TableAndFile tableAndFile)
+        {
+            this.tableAndFile = tableAndFile;
+        }
+
+        private void setRegistration(Closeable registration)
+        {
+            this.registration = registration;
+        }
+
+        @Override
+        public void close()
+        {
+            if (released.compareAndSet(false, true)) {
+                tableAndFile.release();
+                Closeables.closeQuietly(registration);
+            }
+        }
+
+        @Override
+        public Void call()
+        {
+            close();
+            return null;
+        }
     }
 }
@@ -3,6 +3,7 @@ package com.xiexy.base.impl;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Multimap;
+import com.xiexy.base.ReadOptions;
 import com.xiexy.base.include.Slice;
 import com.xiexy.base.utils.InternalIterator;
 import com.xiexy.base.utils.InternalTableIterator;
@@ -123,27 +124,28 @@ public class Version
     @Override
     public MergingIterator iterator()
     {
+        ReadOptions options = new ReadOptions();
         ImmutableList.Builder<InternalIterator> builder = ImmutableList.builder();
-        builder.add(level0.iterator());
-        builder.addAll(getLevelIterators());
+        builder.add(level0.iterator(options));
+        builder.addAll(getLevelIterators(options));
         return new MergingIterator(builder.build(), getInternalKeyComparator());
     }
 
-    List<InternalTableIterator> getLevel0Files()
+    List<InternalTableIterator> getLevel0Files(ReadOptions options)
     {
         ImmutableList.Builder<InternalTableIterator> builder = ImmutableList.builder();
         for (FileMetaData file : level0.getFiles()) {
-            builder.add(getTableCache().newIterator(file));
+            builder.add(getTableCache().newIterator(file, options));
         }
         return builder.build();
     }
 
-    List<LevelIterator> getLevelIterators()
+    List<LevelIterator> getLevelIterators(ReadOptions options)
     {
         ImmutableList.Builder<LevelIterator> builder = ImmutableList.builder();
         for (Level level : levels) {
             if (!level.getFiles().isEmpty()) {
-                builder.add(level.iterator());
+                builder.add(level.iterator(options));
             }
         }
         return builder.build();
@@ -151,21 +153,50 @@ public class Version
 
     public LookupResult get(LookupKey key)
     {
-        // 首先从level 0 找，找不到的话，一层一层往下找
+        return get(key, new ReadOptions());
+    }
+
+    public LookupResult get(LookupKey key, ReadOptions options)
+    {
         ReadStats readStats = new ReadStats();
-        LookupResult lookupResult = level0.get(key, readStats);
+        LookupResult lookupResult = get(key, options, readStats);
+        updateStats(readStats);
+        return lookupResult;
+    }
+
+    /**
+     * 查找key，并把需要记一次seek的文件记录到readStats中，由调用者决定何时调用updateStats
+     */
+    public LookupResult get(LookupKey key, ReadOptions options, ReadStats readStats)
+    {
+        // 首先从level 0 找，找不到的话，一层一层往下找
+        LookupResult lookupResult = level0.get(key, options, readStats);
         if (lookupResult == null) {
             for (Level level : levels) {
-                lookupResult = level.get(key, readStats);
+                lookupResult = level.get(key, options, readStats);
                 if (lookupResult != null) {
                     break;
                 }
             }
         }
-        updateStats(readStats.getSeekFileLevel(), readStats.getSeekFile());
         return lookupResult;
     }
 
+    /**
+     * 批量查找，keys需要按user key排序。
+     * 按level从上往下查找，每一层中落在同一个文件的key一起查找，结果与keys一一对应，没有找到的为null。
+     * 批量查找不统计seek次数
+     */
+    public LookupResult[] multiGet(List<LookupKey> keys, ReadOptions options)
+    {
+        LookupResult[] results = new LookupResult[keys.size()];
+        level0.multiGet(keys, results, options);
+        for (Level level : levels) {
+            level.multiGet(keys, results, options);
+        }
+        return results;
+    }
+
     int pickLevelForMemTableOutput(Slice smallestUserKey, Slice largestUserKey)
     {
         int level = 0;
@@ -175,7 +206,9 @@ public class Version
             InternalKey start = new InternalKey(smallestUserKey, MAX_SEQUENCE_NUMBER, ValueType.VALUE);
             InternalKey limit = new InternalKey(largestUserKey, 0, ValueType.VALUE);
             while (level < MAX_MEM_COMPACT_LEVEL) {
-                if (overlapInLevel(level + 1, smallestUserKey, largestUserKey)) {
+                // 正在执行的compaction输出到level + 1的文件还不在version中，也需要检查
+                if (overlapInLevel(level + 1, smallestUserKey, largestUserKey) ||
+                        versionSet.overlapsCompactionOutputs(level + 1, smallestUserKey, largestUserKey)) {
                     break;
                 }
                 long sum = Compaction.totalFileSize(versionSet.getOverlappingInputs(level + 2, start, limit));
@@ -248,7 +281,15 @@ public class Version
         }
     }
 
-    private boolean updateStats(int seekFileLevel, FileMetaData seekFile)
+    /**
+     * 减少文件的allowed seeks，返回true表示有文件需要因为seek过多而compact，调用者需要调度compaction
+     */
+    public boolean updateStats(ReadStats readStats)
+    {
+        return updateStats(readStats.getSeekFileLevel(), readStats.getSeekFile());
+    }
+
+    private synchronized boolean updateStats(int seekFileLevel, FileMetaData seekFile)
     {
         if (seekFile == null) {
             return false;
@@ -263,12 +304,12 @@ public class Version
         return false;
     }
 
-    public FileMetaData getFileToCompact()
+    public synchronized FileMetaData getFileToCompact()
     {
         return fileToCompact;
     }
 
-    public int getFileToCompactLevel()
+    public synchronized int getFileToCompactLevel()
     {
         return fileToCompactLevel;
     }
@@ -16,6 +16,7 @@ package com.xiexy.base.impl;
 import com.google.common.base.Joiner;
 import com.google.common.collect.*;
 import com.google.common.io.Files;
+import com.xiexy.base.ReadOptions;
 import com.xiexy.base.include.Slice;
 import com.xiexy.base.utils.InternalIterator;
 import com.xiexy.base.utils.Level0Iterator;
@@ -57,9 +58,9 @@ public class VersionSet
      */
     private long manifestFileNumber = 1;
     // 当前version
-    private Version current;
+    private volatile Version current;
     // 获取、设置last sequence，set时不能后退
-    private long lastSequence;
+    private volatile long lastSequence;
     // 返回当前log文件编号
     private long logNumber;
     private long prevLogNumber;
@@ -71,6 +72,9 @@ public class VersionSet
 
     private LogWriter descriptorLog;
     private final Map<Integer, InternalKey> compactPointers = new TreeMap<>();
+    // 正在执行的compaction的输入文件，以及每个compaction覆盖的key range，由DbImpl的mutex保护
+    private final Set<Long> compactingFiles = new HashSet<>();
+    private final Map<Compaction, Map.Entry<InternalKey, InternalKey>> compactionsInProgress = new HashMap<>();
 
     // VersionSet会使用到TableCache，这个是调用者传入的。TableCache用于Get k/v操作
     public VersionSet(File databaseDir, TableCache tableCache, InternalKeyComparator internalKeyComparator)
@@ -193,7 +197,10 @@ public class VersionSet
         return current.iterator();
     }
 
-    public MergingIterator makeInputIterator(Compaction c)
+    /**
+     * compaction的输入只读取一次，options.fillCache()应为false，避免把热点block挤出block cache
+     */
+    public MergingIterator makeInputIterator(Compaction c, ReadOptions options)
     {
         // Level-0 files have to be merged together.  For other levels,
         // we will make a concatenating iterator per level.
@@ -203,11 +210,11 @@ public class VersionSet
             if (!c.getInputs()[which].isEmpty()) {
                 if (c.getLevel() + which == 0) {
                     List<FileMetaData> files = c.getInputs()[which];
-                    list.add(new Level0Iterator(tableCache, files, internalKeyComparator));
+                    list.add(new Level0Iterator(tableCache, files, internalKeyComparator, options));
                 }
                 else {
                     // Create concatenating iterator for the files from this level
-                    list.add(Level.createLevelConcatIterator(tableCache, c.getInputs()[which], internalKeyComparator));
+                    list.add(Level.createLevelConcatIterator(tableCache, c.getInputs()[which], internalKeyComparator, options));
                 }
             }
         }
@@ -219,6 +226,11 @@ public class VersionSet
         return current.get(key);
     }
 
+    public LookupResult get(LookupKey key, ReadOptions options)
+    {
+        return current.get(key, options);
+    }
+
     public boolean overlapInLevel(int level, Slice smallestUserKey, Slice largestUserKey)
     {
         return current.overlapInLevel(level, smallestUserKey, largestUserKey);
@@ -231,7 +243,43 @@ public class VersionSet
     // 返回指定level中所有sstable文件大小的和
     public long numberOfBytesInLevel(int level)
     {
-        return current.numberOfFilesInLevel(level);
+        return Compaction.totalFileSize(current.getFiles(level));
+    }
+
+    /**
+     * 估算current version中还需要compaction写出的字节数。
+     * level 0达到L0_COMPACTION_TRIGGER时，level 0的文件和level 1都需要重写；
+     * 其它level超出maxBytesForLevel的部分会被合并到下一层，下一层重叠的数据大约是它的10倍，也需要重写
+     */
+    public long estimatePendingCompactionBytes()
+    {
+        Version version = current;
+        long pendingBytes = 0;
+        long bytesCompactToNextLevel = 0;
+        boolean level0CompactionTriggered = false;
+        if (version.numberOfFilesInLevel(0) >= L0_COMPACTION_TRIGGER) {
+            level0CompactionTriggered = true;
+            bytesCompactToNextLevel = Compaction.totalFileSize(version.getFiles(0));
+            pendingBytes += bytesCompactToNextLevel;
+        }
+
+        // 最后一层不会再向下compaction
+        for (int level = 1; level < version.numberOfLevels() - 1; level++) {
+            long levelBytes = Compaction.totalFileSize(version.getFiles(level));
+            if (level == 1 && level0CompactionTriggered) {
+                pendingBytes += levelBytes;
+            }
+            levelBytes += bytesCompactToNextLevel;
+            bytesCompactToNextLevel = 0;
+
+            double maxBytes = maxBytesForLevel(level);
+            if (levelBytes > maxBytes) {
+                bytesCompactToNextLevel = (long) (levelBytes - maxBytes);
+                double fanout = maxBytesForLevel(level + 1) / maxBytes;
+                pendingBytes += (long) (bytesCompactToNextLevel * (fanout + 1));
+            }
+        }
+        return pendingBytes;
     }
 
     public long getLastSequence()
@@ -437,24 +485,7 @@ public class VersionSet
         double bestScore = -1;
 
         for (int level = 0; level < version.numberOfLevels() - 1; level++) {
-            double score;
-            if (level == 0) {
-                // level0和其它level计算方法不同，原因如下，这也是leveldb为compaction所做的另一个优化。
-                // 1. 对于较大的写缓存（write-buffer），做太多的level 0 compaction并不好
-                // 2. 每次read操作都要merge level 0的所有文件，因此我们不希望level 0有太多的小文件存在
-                // （比如写缓存太小，或者压缩比较高，或者覆盖/删除较多导致小文件太多）。这里的写缓存应该就是配置的操作log大小。
-                // 对于level 0以文件个数计算，L0_COMPACTION_TRIGGER默认配置为4
-                score = 1.0 * version.numberOfFilesInLevel(level) / L0_COMPACTION_TRIGGER;
-            }
-            else {
-                // 对于level>0，根据level内的文件总大小计算
-                long levelBytes = 0;
-                for (FileMetaData fileMetaData : version.getFiles(level)) {
-                    levelBytes += fileMetaData.getFileSize();
-                }
-                // maxBytesForLevel：根据level返回其本层文件总大小的预定最大值。
-                score = 1.0 * levelBytes / maxBytesForLevel(level);
-            }
+            double score = compactionScore(version, level);
             // 找到文件最大的level和score
             if (score > bestScore) {
                 bestLevel = level;
@@ -466,6 +497,25 @@ public class VersionSet
         version.setCompactionScore(bestScore);
     }
 
+    private static double compactionScore(Version version, int level)
+    {
+        if (level == 0) {
+            // level0和其它level计算方法不同，原因如下，这也是leveldb为compaction所做的另一个优化。
+            // 1. 对于较大的写缓存（write-buffer），做太多的level 0 compaction并不好
+            // 2. 每次read操作都要merge level 0的所有文件，因此我们不希望level 0有太多的小文件存在
+            // （比如写缓存太小，或者压缩比较高，或者覆盖/删除较多导致小文件太多）。这里的写缓存应该就是配置的操作log大小。
+            // 对于level 0以文件个数计算，L0_COMPACTION_TRIGGER默认配置为4
+            return 1.0 * version.numberOfFilesInLevel(level) / L0_COMPACTION_TRIGGER;
+        }
+        // 对于level>0，根据level内的文件总大小计算
+        long levelBytes = 0;
+        for (FileMetaData fileMetaData : version.getFiles(level)) {
+            levelBytes += fileMetaData.getFileSize();
+        }
+        // maxBytesForLevel：根据level返回其本层文件总大小的预定最大值。
+        return 1.0 * levelBytes / maxBytesForLevel(level);
+    }
+
     // 返回各参数表达式中第一个非空值
     private static <V> V coalesce(V... values)
     {
@@ -516,45 +566,89 @@ public class VersionSet
             return null;
         }
 
-        return setupOtherInputs(level, levelInputs);
+        Compaction compaction = setupOtherInputs(level, levelInputs);
+        checkState(!conflictsWithCompactionsInProgress(compaction), "manual compaction overlaps a running compaction");
+        registerCompaction(compaction);
+        return compaction;
     }
 
+    /**
+     * 选择一个可以与正在执行的compaction并行执行的compaction，没有时返回null。
+     * 返回的compaction已经登记为正在执行，完成后需要调用releaseCompaction()
+     */
     public Compaction pickCompaction()
     {
         // We prefer compactions triggered by too much data in a level over
         // the compactions triggered by seeks.
-        boolean sizeCompaction = (current.getCompactionScore() >= 1);
-        boolean seekCompaction = (current.getFileToCompact() != null);
-
-        int level;
-        List<FileMetaData> levelInputs;
-        if (sizeCompaction) {
-            level = current.getCompactionLevel();
-            checkState(level >= 0);
-            checkState(level + 1 < NUM_LEVELS);
-
-            // Pick the first file that comes after compact_pointer_[level]
-            levelInputs = new ArrayList<>();
-            for (FileMetaData fileMetaData : current.getFiles(level)) {
-                if (!compactPointers.containsKey(level) ||
-                        internalKeyComparator.compare(fileMetaData.getLargest(), compactPointers.get(level)) > 0) {
-                    levelInputs.add(fileMetaData);
-                    break;
-                }
+        // 按score从高到低尝试每个需要compaction的level
+        final double[] scores = new double[current.numberOfLevels() - 1];
+        List<Integer> levels = new ArrayList<>();
+        for (int level = 0; level < scores.length; level++) {
+            scores[level] = compactionScore(current, level);
+            if (scores[level] >= 1) {
+                levels.add(level);
+            }
+        }
+        Collections.sort(levels, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer left, Integer right)
+            {
+                return Double.compare(scores[right], scores[left]);
             }
-            if (levelInputs.isEmpty()) {
-                // Wrap-around to the beginning of the key space
-                levelInputs.add(current.getFiles(level).get(0));
+        });
+        for (int level : levels) {
+            Compaction compaction = pickSizeCompaction(level);
+            if (compaction != null) {
+                return compaction;
             }
         }
-        else if (seekCompaction) {
-            level = current.getFileToCompactLevel();
-            levelInputs = ImmutableList.of(current.getFileToCompact());
+
+        FileMetaData fileToCompact = current.getFileToCompact();
+        if (fileToCompact != null && !compactingFiles.contains(fileToCompact.getNumber())) {
+            return setupCompaction(current.getFileToCompactLevel(), ImmutableList.of(fileToCompact));
         }
-        else {
-            return null;
+        return null;
+    }
+
+    private Compaction pickSizeCompaction(int level)
+    {
+        List<FileMetaData> files = current.getFiles(level);
+        if (level == 0) {
+            // level 0的文件互相重叠，同时只执行一个level 0的compaction
+            for (FileMetaData fileMetaData : files) {
+                if (compactingFiles.contains(fileMetaData.getNumber())) {
+                    return null;
+                }
+            }
+        }
+
+        // Pick the first file that comes after compact_pointer_[level]
+        int start = 0;
+        InternalKey compactPointer = compactPointers.get(level);
+        if (compactPointer != null) {
+            while (start < files.size() && internalKeyComparator.compare(files.get(start).getLargest(), compactPointer) <= 0) {
+                start++;
+            }
         }
 
+        // 跳过正在compaction的文件，到结尾后从头开始
+        for (int i = 0; i < files.size(); i++) {
+            FileMetaData fileMetaData = files.get((start + i) % files.size());
+            if (compactingFiles.contains(fileMetaData.getNumber())) {
+                continue;
+            }
+            Compaction compaction = setupCompaction(level, ImmutableList.of(fileMetaData));
+            if (compaction != null) {
+                return compaction;
+            }
+        }
+        return null;
+    }
+
+    // 根据选出的文件生成compaction，与正在执行的compaction冲突时返回null
+    private Compaction setupCompaction(int level, List<FileMetaData> levelInputs)
+    {
         // Files in level 0 may overlap each other, so pick up all overlapping ones
         if (level == 0) {
             Map.Entry<InternalKey, InternalKey> range = getRange(levelInputs);
@@ -567,9 +661,105 @@ public class VersionSet
         }
 
         Compaction compaction = setupOtherInputs(level, levelInputs);
+        if (conflictsWithCompactionsInProgress(compaction)) {
+            return null;
+        }
+        registerCompaction(compaction);
         return compaction;
     }
 
+    /**
+     * 两个compaction可以并行执行的条件：
+     * 1. 输入文件不重叠；
+     * 2. 输出到同一层时，key range不重叠；
+     * 3. 同时只有一个level 0的compaction。
+     */
+    private boolean conflictsWithCompactionsInProgress(Compaction compaction)
+    {
+        for (List<FileMetaData> inputs : compaction.getInputs()) {
+            for (FileMetaData fileMetaData : inputs) {
+                if (compactingFiles.contains(fileMetaData.getNumber())) {
+                    return true;
+                }
+            }
+        }
+
+        Map.Entry<InternalKey, InternalKey> range = getRange(compaction.getLevelInputs(), compaction.getLevelUpInputs());
+        for (Map.Entry<Compaction, Map.Entry<InternalKey, InternalKey>> entry : compactionsInProgress.entrySet()) {
+            int level = entry.getKey().getLevel();
+            if (level == 0 && compaction.getLevel() == 0) {
+                return true;
+            }
+            Map.Entry<InternalKey, InternalKey> otherRange = entry.getValue();
+            if (level == compaction.getLevel() &&
+                    rangesOverlap(range.getKey().getUserKey(), range.getValue().getUserKey(), otherRange.getKey().getUserKey(), otherRange.getValue().getUserKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean rangesOverlap(Slice smallest, Slice largest, Slice otherSmallest, Slice otherLargest)
+    {
+        return internalKeyComparator.getUserComparator().compare(smallest, otherLargest) <= 0 &&
+                internalKeyComparator.getUserComparator().compare(otherSmallest, largest) <= 0;
+    }
+
+    private void registerCompaction(Compaction compaction)
+    {
+        for (List<FileMetaData> inputs : compaction.getInputs()) {
+            for (FileMetaData fileMetaData : inputs) {
+                compactingFiles.add(fileMetaData.getNumber());
+            }
+        }
+        compactionsInProgress.put(compaction, getRange(compaction.getLevelInputs(), compaction.getLevelUpInputs()));
+
+        // Update the place where we will do the next compaction for this level.
+        // We update this immediately instead of waiting for the VersionEdit
+        // to be applied so that if the compaction fails, we will try a different
+        // key range next time.
+        int level = compaction.getLevel();
+        InternalKey largest = getRange(compaction.getLevelInputs()).getValue();
+        compactPointers.put(level, largest);
+        compaction.getEdit().setCompactPointer(level, largest);
+    }
+
+    /**
+     * compaction完成或失败后调用，之后它的输入文件可以被其他compaction选中
+     */
+    public void releaseCompaction(Compaction compaction)
+    {
+        if (compactionsInProgress.remove(compaction) == null) {
+            return;
+        }
+        for (List<FileMetaData> inputs : compaction.getInputs()) {
+            for (FileMetaData fileMetaData : inputs) {
+                compactingFiles.remove(fileMetaData.getNumber());
+            }
+        }
+    }
+
+    public boolean hasCompactionsInProgress()
+    {
+        return !compactionsInProgress.isEmpty();
+    }
+
+    /**
+     * 判断user key range是否与正在执行的、输出到level的compaction重叠，
+     * 这些compaction的输出还不在current version中
+     */
+    boolean overlapsCompactionOutputs(int level, Slice smallestUserKey, Slice largestUserKey)
+    {
+        for (Map.Entry<Compaction, Map.Entry<InternalKey, InternalKey>> entry : compactionsInProgress.entrySet()) {
+            Map.Entry<InternalKey, InternalKey> range = entry.getValue();
+            if (entry.getKey().getLevel() + 1 == level &&
+                    rangesOverlap(smallestUserKey, largestUserKey, range.getKey().getUserKey(), range.getValue().getUserKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private Compaction setupOtherInputs(int level, List<FileMetaData> levelInputs)
     {
         Map.Entry<InternalKey, InternalKey> range = getRange(levelInputs);
@@ -628,16 +818,7 @@ public class VersionSet
 //                    EscapeString(largest.Encode()).c_str());
 //        }
 
-        Compaction compaction = new Compaction(current, level, levelInputs, levelUpInputs, grandparents);
-
-        // Update the place where we will do the next compaction for this level.
-        // We update this immediately instead of waiting for the VersionEdit
-        // to be applied so that if the compaction fails, we will try a different
-        // key range next time.
-        compactPointers.put(level, largest);
-        compaction.getEdit().setCompactPointer(level, largest);
-
-        return compaction;
+        return new Compaction(current, level, levelInputs, levelUpInputs, grandparents);
     }
 
     List<FileMetaData> getOverlappingInputs(int level, InternalKey begin, InternalKey end)
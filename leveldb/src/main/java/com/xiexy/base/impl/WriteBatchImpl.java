@@ -1,30 +1,54 @@
 package com.xiexy.base.impl;
 
-import com.google.common.collect.Maps;
 import com.xiexy.base.WriteBatch;
 import com.xiexy.base.db.Slices;
+import com.xiexy.base.include.DynamicSliceOutput;
 import com.xiexy.base.include.Slice;
+import com.xiexy.base.include.SliceInput;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.xiexy.base.db.Slices.readLengthPrefixedBytes;
+import static com.xiexy.base.db.Slices.writeLengthPrefixedBytes;
+import static com.xiexy.base.impl.ValueType.DELETION;
+import static com.xiexy.base.impl.ValueType.VALUE;
 import static java.util.Objects.requireNonNull;
 
+/**
+ * 对应于源码中WriteBatch的rep_，操作直接按log record的格式追加到缓冲区中：
+ * 8字节的sequence，4字节的记录个数，之后是每条记录（类型，长度前缀的key，put时还有长度前缀的value）。
+ * 写log时直接使用缓冲区的内容，不需要再编码一次
+ */
 public class WriteBatchImpl
         implements WriteBatch
 {
-    private final List<Map.Entry<Slice, Slice>> batch = new ArrayList<>();
-    private int approximateSize;
+    public static final int HEADER_SIZE = 12;
+
+    private final DynamicSliceOutput rep;
+    private int size;
+
+    public WriteBatchImpl()
+    {
+        this(64);
+    }
 
+    WriteBatchImpl(int estimatedSize)
+    {
+        rep = new DynamicSliceOutput(Math.max(estimatedSize, HEADER_SIZE));
+        // sequence和记录个数在encode时写入
+        rep.writeZero(HEADER_SIZE);
+    }
+
+    /**
+     * 编码后的大小，包括头部
+     */
     public int getApproximateSize()
     {
-        return approximateSize;
+        return rep.size();
     }
 
     public int size()
     {
-        return batch.size();
+        return size;
     }
 
     @Override
@@ -32,17 +56,17 @@ public class WriteBatchImpl
     {
         requireNonNull(key, "key is null");
         requireNonNull(value, "value is null");
-        batch.add(Maps.immutableEntry(Slices.wrappedBuffer(key), Slices.wrappedBuffer(value)));
-        approximateSize += 12 + key.length + value.length;
-        return this;
+        return put(Slices.wrappedBuffer(key), Slices.wrappedBuffer(value));
     }
 
     public WriteBatchImpl put(Slice key, Slice value)
     {
         requireNonNull(key, "key is null");
         requireNonNull(value, "value is null");
-        batch.add(Maps.immutableEntry(key, value));
-        approximateSize += 12 + key.length() + value.length();
+        rep.writeByte(VALUE.getPersistentId());
+        writeLengthPrefixedBytes(rep, key);
+        writeLengthPrefixedBytes(rep, value);
+        size++;
         return this;
     }
 
@@ -50,19 +74,41 @@ public class WriteBatchImpl
     public WriteBatchImpl delete(byte[] key)
     {
         requireNonNull(key, "key is null");
-        batch.add(Maps.immutableEntry(Slices.wrappedBuffer(key), (Slice) null));
-        approximateSize += 6 + key.length;
-        return this;
+        return delete(Slices.wrappedBuffer(key));
     }
 
     public WriteBatchImpl delete(Slice key)
     {
         requireNonNull(key, "key is null");
-        batch.add(Maps.immutableEntry(key, (Slice) null));
-        approximateSize += 6 + key.length();
+        rep.writeByte(DELETION.getPersistentId());
+        writeLengthPrefixedBytes(rep, key);
+        size++;
         return this;
     }
 
+    /**
+     * 把另一个batch中的记录追加到当前batch的末尾，用于合并多个writer的batch，只复制编码后的字节
+     */
+    public WriteBatchImpl append(WriteBatchImpl other)
+    {
+        requireNonNull(other, "other is null");
+        rep.writeBytes(other.rep.slice(), HEADER_SIZE, other.rep.size() - HEADER_SIZE);
+        size += other.size;
+        return this;
+    }
+
+    /**
+     * 在头部写入起始sequence和记录个数，返回可以直接写入log的record，与batch共享缓冲区。
+     * 会修改batch自己的缓冲区，只能在不会被其他线程同时写入的batch上调用，DbImpl只对每一组合并后的batch调用
+     */
+    public Slice encode(long sequenceBegin)
+    {
+        Slice record = rep.slice();
+        record.setLong(0, sequenceBegin);
+        record.setInt(8, size);
+        return record;
+    }
+
     @Override
     public void close()
     {
@@ -70,16 +116,34 @@ public class WriteBatchImpl
 
     public void forEach(Handler handler)
     {
-        for (Map.Entry<Slice, Slice> entry : batch) {
-            Slice key = entry.getKey();
-            Slice value = entry.getValue();
-            if (value != null) {
+        forEach(rep.slice(), handler);
+    }
+
+    /**
+     * 按顺序遍历record中的记录，key和value都是record的视图，不复制数据
+     *
+     * @return 遍历的记录个数，由调用者与头部中的个数比较
+     */
+    public static int forEach(Slice record, Handler handler)
+    {
+        checkArgument(record.length() >= HEADER_SIZE, "record is smaller than the header");
+        SliceInput input = record.input();
+        input.setPosition(HEADER_SIZE);
+        int entries = 0;
+        while (input.isReadable()) {
+            entries++;
+            ValueType valueType = ValueType.getValueTypeByPersistentId(input.readByte());
+            if (valueType == VALUE) {
+                Slice key = readLengthPrefixedBytes(input);
+                Slice value = readLengthPrefixedBytes(input);
                 handler.put(key, value);
             }
             else {
+                Slice key = readLengthPrefixedBytes(input);
                 handler.delete(key);
             }
         }
+        return entries;
     }
 
     public interface Handler
@@ -88,4 +152,4 @@ public class WriteBatchImpl
 
         void delete(Slice key);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,164 @@
+package com.xiexy.base.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.xiexy.base.impl.DbConstants.HARD_PENDING_COMPACTION_BYTES_LIMIT;
+import static com.xiexy.base.impl.DbConstants.L0_SLOWDOWN_WRITES_TRIGGER;
+import static com.xiexy.base.impl.DbConstants.L0_STOP_WRITES_TRIGGER;
+import static com.xiexy.base.impl.DbConstants.SOFT_PENDING_COMPACTION_BYTES_LIMIT;
+
+/**
+ * compaction跟不上写入时对写入限速。
+ * 根据level 0的文件数和待compaction的字节数计算压力，压力越大允许的写入速率越低，
+ * 写入的字节通过令牌桶计量，令牌不足时计算需要等待的时间，而不是每次写入固定sleep 1ms。
+ * update和delayNanos需要在DbImpl的mutex中调用，统计值可以在任意线程读取
+ */
+public final class WriteController
+{
+    // 最低写入速率，避免压力很大时单次写入等待过久
+    static final long MIN_DELAYED_WRITE_RATE = 16 << 10;
+    // 令牌桶最多积累1ms的令牌，限速开始后不会有大的突发
+    private static final long MAX_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final long maxDelayedWriteRate;
+
+    // 0表示不限速
+    private volatile long delayedWriteRate;
+    private long availableBytes;
+    private long lastRefillNanos;
+
+    private final AtomicLong totalDelayNanos = new AtomicLong();
+    private final AtomicLong totalStopNanos = new AtomicLong();
+    private final AtomicLong delayCount = new AtomicLong();
+    private final AtomicLong stopCount = new AtomicLong();
+
+    public WriteController(long maxDelayedWriteRate)
+    {
+        checkArgument(maxDelayedWriteRate > 0, "maxDelayedWriteRate must be positive");
+        this.maxDelayedWriteRate = maxDelayedWriteRate;
+    }
+
+    /**
+     * version或memtable变化后，根据新的level 0文件数和待compaction字节数调整写入速率
+     */
+    public void update(int level0Files, long pendingCompactionBytes)
+    {
+        double pressure = 0;
+        boolean delayed = false;
+        if (level0Files > L0_SLOWDOWN_WRITES_TRIGGER) {
+            // 在到达L0_STOP_WRITES_TRIGGER之前降到最低速率
+            delayed = true;
+            pressure = Math.max(pressure, 1.0 * (level0Files - L0_SLOWDOWN_WRITES_TRIGGER) /
+                    (L0_STOP_WRITES_TRIGGER - 1 - L0_SLOWDOWN_WRITES_TRIGGER));
+        }
+        if (pendingCompactionBytes > SOFT_PENDING_COMPACTION_BYTES_LIMIT) {
+            delayed = true;
+            pressure = Math.max(pressure, 1.0 * (pendingCompactionBytes - SOFT_PENDING_COMPACTION_BYTES_LIMIT) /
+                    (HARD_PENDING_COMPACTION_BYTES_LIMIT - SOFT_PENDING_COMPACTION_BYTES_LIMIT));
+        }
+
+        if (!delayed) {
+            delayedWriteRate = 0;
+            return;
+        }
+        pressure = Math.min(pressure, 1.0);
+        long rate = Math.max(MIN_DELAYED_WRITE_RATE, (long) (maxDelayedWriteRate * (1 - pressure)));
+        if (delayedWriteRate == 0) {
+            // 刚开始限速，令牌桶从空开始计量
+            availableBytes = 0;
+            lastRefillNanos = System.nanoTime();
+        }
+        delayedWriteRate = rate;
+    }
+
+    /**
+     * 写入bytes字节需要等待的纳秒数，不限速时返回0。
+     * 令牌不足时预支，欠下的令牌由之后的写入等待偿还
+     */
+    public long delayNanos(long bytes)
+    {
+        long rate = delayedWriteRate;
+        if (rate == 0) {
+            return 0;
+        }
+
+        long now = System.nanoTime();
+        long refill = (long) ((now - lastRefillNanos) * (rate / 1e9));
+        long maxBurst = (long) (MAX_BURST_NANOS * (rate / 1e9));
+        availableBytes = Math.min(availableBytes + refill, maxBurst);
+        lastRefillNanos = now;
+
+        availableBytes -= bytes;
+        if (availableBytes >= 0) {
+            return 0;
+        }
+        return (long) (-availableBytes * (1e9 / rate));
+    }
+
+    public boolean isDelayed()
+    {
+        return delayedWriteRate != 0;
+    }
+
+    /**
+     * 当前限速的写入速率（字节/秒），不限速时返回0
+     */
+    public long getDelayedWriteRate()
+    {
+        return delayedWriteRate;
+    }
+
+    public void recordDelay(long nanos)
+    {
+        totalDelayNanos.addAndGet(nanos);
+        delayCount.incrementAndGet();
+    }
+
+    public void recordStop(long nanos)
+    {
+        totalStopNanos.addAndGet(nanos);
+        stopCount.incrementAndGet();
+    }
+
+    /**
+     * 限速累计等待的时间
+     */
+    public long getTotalDelayNanos()
+    {
+        return totalDelayNanos.get();
+    }
+
+    /**
+     * 写入被完全阻塞（immutable memtable已满或level 0文件达到L0_STOP_WRITES_TRIGGER）累计等待的时间
+     */
+    public long getTotalStopNanos()
+    {
+        return totalStopNanos.get();
+    }
+
+    // 因为限速等待的写入次数
+    public long getDelayCount()
+    {
+        return delayCount.get();
+    }
+
+    // 因为阻塞等待的次数
+    public long getStopCount()
+    {
+        return stopCount.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("WriteController");
+        sb.append("{delayedWriteRate=").append(delayedWriteRate);
+        sb.append(", totalDelayNanos=").append(totalDelayNanos);
+        sb.append(", totalStopNanos=").append(totalStopNanos);
+        sb.append('}');
+        return sb.toString();
+    }
+}
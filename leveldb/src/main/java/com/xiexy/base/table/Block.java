@@ -13,13 +13,16 @@
  */
 package com.xiexy.base.table;
 
-import com.xiexy.base.db.Slices;
 import com.xiexy.base.impl.SeekingIterable;
 import com.xiexy.base.include.Slice;
+import com.xiexy.base.utils.Coding;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Comparator;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static com.xiexy.base.utils.DataUnit.INT_UNIT;
 import static java.util.Objects.requireNonNull;
 
@@ -55,25 +58,36 @@ import static java.util.Objects.requireNonNull;
  * 值                   value:           char[value_length]
  * 如下所示存储：
  * shared_bytes | unshared_bytes | value_length | key_delta | value
+ *
+ * block的内容保存在ByteBuffer中，可以是堆上的数组，也可以是mmap的直接内存。
+ * 在直接内存上读取时不复制整个block，只把读到的key和value复制到堆上。
+ * 直接内存上的block只能在table被pin住时使用，table关闭后映射的内存会被unmap
  */
 public class Block
         implements SeekingIterable<Slice, Slice>
 {
-    private final Slice block;
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+
+    private final ByteBuffer block;
     private final Comparator<Slice> comparator;
     // k/v存储区
-    private final Slice data;
+    private final ByteBuffer data;
     //重启点存储区
-    private final Slice restartPositions;
+    private final ByteBuffer restartPositions;
+    private final int restartCount;
 
     public Block(Slice block, Comparator<Slice> comparator)
     {
+        this(ByteBuffer.wrap(requireNonNull(block, "block is null").getData(), block.getOffset(), block.length()), comparator);
+    }
 
+    public Block(ByteBuffer block, Comparator<Slice> comparator)
+    {
         requireNonNull(block, "block is null");
-        checkArgument(block.length() >= INT_UNIT, "Block is corrupt: size must be at least %s block", INT_UNIT);
+        checkArgument(block.remaining() >= INT_UNIT, "Block is corrupt: size must be at least %s block", INT_UNIT);
         requireNonNull(comparator, "comparator is null");
 
-        block = block.slice();
+        block = block.slice().order(ByteOrder.LITTLE_ENDIAN);
         this.block = block;
         this.comparator = comparator;
 
@@ -82,26 +96,34 @@ public class Block
          * 时候可以避免读整个文件。
          * 最后的四个字节是重启点个数，获取重启点个数
          */
-        int restartCount = block.getInt(block.length() - INT_UNIT);
+        int restartCount = block.getInt(block.limit() - INT_UNIT);
 
         if (restartCount > 0) {
             // 根据重启点的个数，计算第一个重启点的位置
-            int restartOffset = block.length() - (1 + restartCount) * INT_UNIT;
-            checkArgument(restartOffset < block.length() - INT_UNIT, "Block is corrupt: restart offset count is greater than block size");
-            // 从传入的Slice中解析重启点存储区
-            restartPositions = block.slice(restartOffset, restartCount * INT_UNIT);
-            // 从传入的Slice中解析出k/v存储区
-            data = block.slice(0, restartOffset);
+            int restartOffset = block.limit() - (1 + restartCount) * INT_UNIT;
+            checkArgument(restartOffset >= 0 && restartOffset < block.limit() - INT_UNIT, "Block is corrupt: restart offset count is greater than block size");
+            // 从传入的block中解析重启点存储区
+            restartPositions = slice(block, restartOffset, restartCount * INT_UNIT);
+            // 从传入的block中解析出k/v存储区
+            data = slice(block, 0, restartOffset);
+            this.restartCount = restartCount;
         }
         else {
-            data = Slices.EMPTY_SLICE;
-            restartPositions = Slices.EMPTY_SLICE;
+            data = EMPTY_BUFFER;
+            restartPositions = EMPTY_BUFFER;
+            this.restartCount = 0;
         }
     }
 
     public long size()
     {
-        return block.length();
+        return block.limit();
+    }
+
+    // block是否直接读取mmap的内存
+    public boolean isDirect()
+    {
+        return block.isDirect();
     }
 
     @Override
@@ -109,4 +131,95 @@ public class Block
     {
         return new BlockIterator(data, restartPositions, comparator);
     }
-}
\ No newline at end of file
+
+    /**
+     * 返回第一个 >= targetKey的Entry，没有时返回null，结果与BlockIterator的seek()之后next()相同。
+     * 点查询只需要一个Entry，不创建BlockIterator，线性查找时在同一个数组中拼接共享前缀的key
+     */
+    public BlockEntry get(Slice targetKey)
+    {
+        if (restartCount == 0) {
+            return null;
+        }
+
+        ByteBuffer input = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        // 二分查找重启点，找到最后一个key < targetKey的重启点，重启点的key没有共享前缀，可以直接比较
+        int left = 0;
+        int right = restartCount - 1;
+        while (left < right) {
+            int mid = (left + right + 1) / 2;
+            if (comparator.compare(restartKey(input, mid), targetKey) < 0) {
+                left = mid;
+            }
+            else {
+                right = mid - 1;
+            }
+        }
+
+        // 在当前重启点及后面的区域里，线性查找Entry
+        input.position(restartPositions.getInt(left * INT_UNIT));
+        byte[] key = new byte[0];
+        while (input.hasRemaining()) {
+            int sharedKeyLength = Coding.decodeInt(input);
+            int nonSharedKeyLength = Coding.decodeInt(input);
+            int valueLength = Coding.decodeInt(input);
+
+            int keyLength = sharedKeyLength + nonSharedKeyLength;
+            if (key.length < keyLength) {
+                // 保留前一个key的共享前缀
+                byte[] newKey = new byte[Math.max(keyLength, key.length * 2)];
+                System.arraycopy(key, 0, newKey, 0, sharedKeyLength);
+                key = newKey;
+            }
+            input.get(key, sharedKeyLength, nonSharedKeyLength);
+
+            Slice entryKey = new Slice(key, 0, keyLength);
+            if (comparator.compare(entryKey, targetKey) >= 0) {
+                // 找到后不再修改key数组，可以直接返回
+                return new BlockEntry(entryKey, readSlice(input, valueLength));
+            }
+            input.position(input.position() + valueLength);
+        }
+        return null;
+    }
+
+    // 读取重启点的key，堆上的block不复制数据
+    private Slice restartKey(ByteBuffer input, int restartPosition)
+    {
+        input.position(restartPositions.getInt(restartPosition * INT_UNIT));
+        int sharedKeyLength = Coding.decodeInt(input);
+        checkState(sharedKeyLength == 0, "Block is corrupt: restart entry has a shared key");
+        int nonSharedKeyLength = Coding.decodeInt(input);
+        // value的长度
+        Coding.decodeInt(input);
+        return readSlice(input, nonSharedKeyLength);
+    }
+
+    /**
+     * 从input的当前位置读取length字节。堆上的数据直接返回共享数组的Slice，
+     * 直接内存中的数据复制到新的数组，返回的Slice不引用mmap的内存，block被unmap后仍然可以使用
+     */
+    static Slice readSlice(ByteBuffer input, int length)
+    {
+        Slice slice;
+        if (input.hasArray()) {
+            slice = new Slice(input.array(), input.arrayOffset() + input.position(), length);
+            input.position(input.position() + length);
+        }
+        else {
+            byte[] bytes = new byte[length];
+            input.get(bytes);
+            slice = new Slice(bytes);
+        }
+        return slice;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length)
+    {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
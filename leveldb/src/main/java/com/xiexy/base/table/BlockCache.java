@@ -0,0 +1,172 @@
+package com.xiexy.base.table;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * 缓存解压后的data block，对应于源码中的Options::block_cache。
+ * key为(file number, block offset)，按block的字节数计算容量。
+ * guava的Cache内部分为多个segment，每个segment有独立的锁和LRU队列，
+ * 相当于源码中的ShardedLRUCache，多个线程读取时不会竞争同一把锁。
+ */
+public class BlockCache
+{
+    // 与源码一致，分为16个shard
+    public static final int NUM_SHARDS = 16;
+
+    private final long capacity;
+    private final Cache<CacheKey, Block> cache;
+    // 缓存中所有block的字节数
+    private final AtomicLong usage = new AtomicLong();
+
+    public BlockCache(long capacity)
+    {
+        checkArgument(capacity > 0, "capacity must be positive");
+        this.capacity = capacity;
+        cache = CacheBuilder.newBuilder()
+                .concurrencyLevel(NUM_SHARDS)
+                .maximumWeight(capacity)
+                .weigher(new Weigher<CacheKey, Block>()
+                {
+                    @Override
+                    public int weigh(CacheKey key, Block block)
+                    {
+                        return (int) block.size();
+                    }
+                })
+                .removalListener(new RemovalListener<CacheKey, Block>()
+                {
+                    @Override
+                    public void onRemoval(RemovalNotification<CacheKey, Block> notification)
+                    {
+                        usage.addAndGet(-notification.getValue().size());
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 缓存中没有时返回null，不会加载
+     */
+    public Block getIfPresent(long fileNumber, long blockOffset)
+    {
+        return cache.getIfPresent(new CacheKey(fileNumber, blockOffset));
+    }
+
+    /**
+     * 缓存中没有时通过loader读取block并放入缓存，同一个block同时只会被加载一次
+     */
+    public Block get(long fileNumber, long blockOffset, final Callable<Block> loader)
+            throws IOException
+    {
+        try {
+            return cache.get(new CacheKey(fileNumber, blockOffset), new Callable<Block>()
+            {
+                @Override
+                public Block call()
+                        throws Exception
+                {
+                    Block block = loader.call();
+                    usage.addAndGet(block.size());
+                    return block;
+                }
+            });
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException("Could not read block " + blockOffset + " of table " + fileNumber, e.getCause());
+        }
+    }
+
+    public long getCapacity()
+    {
+        return capacity;
+    }
+
+    // 缓存中block占用的字节数
+    public long getUsage()
+    {
+        return usage.get();
+    }
+
+    public long getHitCount()
+    {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount()
+    {
+        return cache.stats().missCount();
+    }
+
+    public CacheStats stats()
+    {
+        return cache.stats();
+    }
+
+    public void invalidateAll()
+    {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public String toString()
+    {
+        CacheStats stats = cache.stats();
+        StringBuilder sb = new StringBuilder();
+        sb.append("BlockCache");
+        sb.append("{capacity=").append(capacity);
+        sb.append(", usage=").append(usage.get());
+        sb.append(", hitCount=").append(stats.hitCount());
+        sb.append(", missCount=").append(stats.missCount());
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static final class CacheKey
+    {
+        private final long fileNumber;
+        private final long blockOffset;
+
+        private CacheKey(long fileNumber, long blockOffset)
+        {
+            this.fileNumber = fileNumber;
+            this.blockOffset = blockOffset;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CacheKey cacheKey = (CacheKey) o;
+            return fileNumber == cacheKey.fileNumber && blockOffset == cacheKey.blockOffset;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = (int) (fileNumber ^ (fileNumber >>> 32));
+            result = 31 * result + (int) (blockOffset ^ (blockOffset >>> 32));
+            return result;
+        }
+    }
+}
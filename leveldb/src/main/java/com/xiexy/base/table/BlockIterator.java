@@ -13,13 +13,12 @@
  */
 package com.xiexy.base.table;
 
-import com.xiexy.base.db.Slices;
 import com.xiexy.base.impl.SeekingIterator;
 import com.xiexy.base.include.Slice;
-import com.xiexy.base.include.SliceInput;
-import com.xiexy.base.include.SliceOutput;
 import com.xiexy.base.utils.Coding;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Comparator;
 import java.util.NoSuchElementException;
 
@@ -30,25 +29,33 @@ import static java.util.Objects.requireNonNull;
 public class BlockIterator
         implements SeekingIterator<Slice, Slice>
 {
-    private final SliceInput data;
-    private final Slice restartPositions;
+    private final ByteBuffer data;
+    private final ByteBuffer restartPositions;
     private final int restartCount;
     private final Comparator<Slice> comparator;
 
     private BlockEntry nextEntry;
 
     public BlockIterator(Slice data, Slice restartPositions, Comparator<Slice> comparator)
+    {
+        this(ByteBuffer.wrap(requireNonNull(data, "data is null").getData(), data.getOffset(), data.length()).slice(),
+                ByteBuffer.wrap(requireNonNull(restartPositions, "restartPositions is null").getData(), restartPositions.getOffset(), restartPositions.length()).slice(),
+                comparator);
+    }
+
+    BlockIterator(ByteBuffer data, ByteBuffer restartPositions, Comparator<Slice> comparator)
     {
         requireNonNull(data, "data is null");
         requireNonNull(restartPositions, "restartPositions is null");
-        checkArgument(restartPositions.length() % INT_UNIT == 0, "restartPositions.readableBytes() must be a multiple of %s", INT_UNIT);
+        checkArgument(restartPositions.remaining() % INT_UNIT == 0, "restartPositions.readableBytes() must be a multiple of %s", INT_UNIT);
         requireNonNull(comparator, "comparator is null");
 
-        this.data = data.input();
+        // 每个iterator有自己的position
+        this.data = data.duplicate();
 
-        this.restartPositions = restartPositions.slice();
+        this.restartPositions = restartPositions.slice().order(ByteOrder.LITTLE_ENDIAN);
         // 重启点的长度 / int的长度，得到重启点的个数
-        restartCount = this.restartPositions.length() / INT_UNIT;
+        restartCount = this.restartPositions.remaining() / INT_UNIT;
 
         this.comparator = comparator;
         // 将迭代器至于起始位置
@@ -79,7 +86,7 @@ public class BlockIterator
 
         BlockEntry entry = nextEntry;
 
-        if (!data.isReadable()) {
+        if (!data.hasRemaining()) {
             nextEntry = null;
         }
         else {
@@ -152,7 +159,7 @@ public class BlockIterator
 
         // 根据重启点的偏移获得k-v存储区的偏移量
         int offset = restartPositions.getInt(restartPosition * INT_UNIT);
-        data.setPosition(offset);
+        data.position(offset);
 
         // clear the entries to assure key is not prefixed
         nextEntry = null;
@@ -165,7 +172,7 @@ public class BlockIterator
      * 将缓存数据转为BlockEntry
      * 读取完这个BlockEntry之后，index会指向后面一个data的index
      */
-    private static BlockEntry readEntry(SliceInput data, BlockEntry previousEntry)
+    private static BlockEntry readEntry(ByteBuffer data, BlockEntry previousEntry)
     {
         requireNonNull(data, "data is null");
 
@@ -178,21 +185,20 @@ public class BlockIterator
         final Slice key;
         if (sharedKeyLength > 0) {
             // 根据贡献key的长度和非共享key的长度创建新的key
-            key = Slices.allocate(sharedKeyLength + nonSharedKeyLength);
-            // 创建key的SliceOutput
-            SliceOutput sliceOutput = key.output();
+            byte[] keyBytes = new byte[sharedKeyLength + nonSharedKeyLength];
             checkState(previousEntry != null, "Entry has a shared key but no previous entry was provided");
-            // 将前缀key写入到sliceOutput
-            sliceOutput.writeBytes(previousEntry.getKey(), 0, sharedKeyLength);
-            // 将key的后半部分写入到sliceOutput
-            sliceOutput.writeBytes(data, nonSharedKeyLength);
+            // 复制前缀key
+            previousEntry.getKey().getBytes(0, keyBytes, 0, sharedKeyLength);
+            // 读取key的后半部分
+            data.get(keyBytes, sharedKeyLength, nonSharedKeyLength);
+            key = new Slice(keyBytes);
         }
         else {
             // 没有前缀的情况下，将nonSharedKeyLength长度的数据读到key
-            key = data.readSlice(nonSharedKeyLength);
+            key = Block.readSlice(data, nonSharedKeyLength);
         }
         // 读取value
-        Slice value = data.readSlice(valueLength);
+        Slice value = Block.readSlice(data, valueLength);
 
         return new BlockEntry(key, value);
     }
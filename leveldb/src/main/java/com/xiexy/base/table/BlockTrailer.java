@@ -19,6 +19,9 @@ import com.xiexy.base.include.Slice;
 import com.xiexy.base.include.SliceInput;
 import com.xiexy.base.include.SliceOutput;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import static java.util.Objects.requireNonNull;
 
 /**
@@ -100,6 +103,16 @@ public class BlockTrailer
         return new BlockTrailer(compressionType, crc32c);
     }
 
+    /**
+     * 从offset位置读取BlockTrailer，不改变buffer的position，用于mmap的table
+     */
+    public static BlockTrailer readBlockTrailer(ByteBuffer buffer, int offset)
+    {
+        CompressionType compressionType = CompressionType.getCompressionTypeByPersistentId(buffer.get(offset) & 0xFF);
+        int crc32c = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(offset + 1);
+        return new BlockTrailer(compressionType, crc32c);
+    }
+
     public static Slice writeBlockTrailer(BlockTrailer blockTrailer)
     {
         Slice slice = Slices.allocate(ENCODED_LENGTH);
@@ -0,0 +1,120 @@
+package com.xiexy.base.table;
+
+import com.xiexy.base.DBFilterPolicy;
+import com.xiexy.base.include.Slice;
+import com.xiexy.base.utils.Hash;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * 布隆过滤器，编码方式与leveldb的bloom.cc一致：
+ * filter = 位数组 + 1字节的哈希函数个数k。
+ * 使用double hashing，由一个32位哈希值模拟k个哈希函数。
+ * bitsPerKey取10时误判率约为1%。
+ */
+public class BloomFilterPolicy
+        implements FilterPolicy, DBFilterPolicy
+{
+    private static final int HASH_SEED = 0xbc9f1d34;
+
+    private final int bitsPerKey;
+    private final int k;
+
+    public BloomFilterPolicy(int bitsPerKey)
+    {
+        checkArgument(bitsPerKey > 0, "bitsPerKey must be positive");
+        this.bitsPerKey = bitsPerKey;
+        // k = bitsPerKey * ln(2)，取整时故意向下取，以减少探测的开销
+        int k = (int) (bitsPerKey * 0.69);
+        this.k = Math.max(1, Math.min(30, k));
+    }
+
+    public int getBitsPerKey()
+    {
+        return bitsPerKey;
+    }
+
+    @Override
+    public String name()
+    {
+        return "leveldb.BuiltinBloomFilter2";
+    }
+
+    @Override
+    public Slice createFilter(List<Slice> keys)
+    {
+        // key很少时误判率会很高，因此位数组至少64位
+        int bits = Math.max(64, keys.size() * bitsPerKey);
+        int bytes = (bits + 7) / 8;
+        bits = bytes * 8;
+
+        byte[] filter = new byte[bytes + 1];
+        // 最后一个字节记录k，读取时据此探测
+        filter[bytes] = (byte) k;
+        for (Slice key : keys) {
+            int h = bloomHash(key);
+            // 右移17位作为增量
+            int delta = (h >>> 17) | (h << 15);
+            for (int j = 0; j < k; j++) {
+                int bitPosition = (int) ((h & 0xffffffffL) % bits);
+                filter[bitPosition / 8] |= (1 << (bitPosition % 8));
+                h += delta;
+            }
+        }
+        return new Slice(filter);
+    }
+
+    @Override
+    public boolean keyMayMatch(Slice key, Slice filter)
+    {
+        int length = filter.length();
+        if (length < 2) {
+            return false;
+        }
+
+        int bits = (length - 1) * 8;
+
+        int k = filter.getUnsignedByte(length - 1);
+        if (k > 30) {
+            // 保留给新的编码方式，一律认为可能存在
+            return true;
+        }
+
+        byte[] data = filter.getData();
+        int offset = filter.getOffset();
+        int h = bloomHash(key);
+        int delta = (h >>> 17) | (h << 15);
+        for (int j = 0; j < k; j++) {
+            int bitPosition = (int) ((h & 0xffffffffL) % bits);
+            if ((data[offset + bitPosition / 8] & (1 << (bitPosition % 8))) == 0) {
+                return false;
+            }
+            h += delta;
+        }
+        return true;
+    }
+
+    @Override
+    public byte[] createFilter(byte[][] keys)
+    {
+        List<Slice> slices = new ArrayList<>(keys.length);
+        for (byte[] key : keys) {
+            slices.add(new Slice(key));
+        }
+        return createFilter(slices).getBytes();
+    }
+
+    @Override
+    public boolean keyMayMatch(byte[] key, byte[] filter)
+    {
+        return keyMayMatch(new Slice(key), new Slice(filter));
+    }
+
+    private static int bloomHash(Slice key)
+    {
+        return Hash.hash(key.getData(), key.getOffset(), key.length(), HASH_SEED);
+    }
+}
@@ -0,0 +1,39 @@
+package com.xiexy.base.table;
+
+import com.xiexy.base.DBFilterPolicy;
+import com.xiexy.base.include.Slice;
+
+import java.util.List;
+
+public class CustomFilterPolicy
+        implements FilterPolicy
+{
+    private final DBFilterPolicy filterPolicy;
+
+    public CustomFilterPolicy(DBFilterPolicy filterPolicy)
+    {
+        this.filterPolicy = filterPolicy;
+    }
+
+    @Override
+    public String name()
+    {
+        return filterPolicy.name();
+    }
+
+    @Override
+    public Slice createFilter(List<Slice> keys)
+    {
+        byte[][] keyBytes = new byte[keys.size()][];
+        for (int i = 0; i < keyBytes.length; i++) {
+            keyBytes[i] = keys.get(i).getBytes();
+        }
+        return new Slice(filterPolicy.createFilter(keyBytes));
+    }
+
+    @Override
+    public boolean keyMayMatch(Slice key, Slice filter)
+    {
+        return filterPolicy.keyMayMatch(key.getBytes(), filter.getBytes());
+    }
+}
@@ -2,7 +2,6 @@ package com.xiexy.base.table;
 
 import com.xiexy.base.db.Slices;
 import com.xiexy.base.include.Slice;
-import com.xiexy.base.utils.Snappy;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -20,7 +19,20 @@ public class FileChannelTable
     public FileChannelTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
             throws IOException
     {
-        super(name, fileChannel, comparator, verifyChecksums);
+        this(name, fileChannel, comparator, verifyChecksums, null);
+    }
+
+    public FileChannelTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, FilterPolicy filterPolicy)
+            throws IOException
+    {
+        this(name, fileChannel, comparator, verifyChecksums, filterPolicy, null, 0);
+    }
+
+    public FileChannelTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, FilterPolicy filterPolicy,
+            BlockCache blockCache, long fileNumber)
+            throws IOException
+    {
+        super(name, fileChannel, comparator, verifyChecksums, filterPolicy, blockCache, fileNumber);
     }
 
     @Override
@@ -33,9 +45,9 @@ public class FileChannelTable
         return Footer.readFooter(Slices.copiedBuffer(footerData));
     }
 
-    // 压缩block的data，返回压缩后的block
+    // 解压block的data，返回解压后的内容
     @Override
-    protected Block readBlock(BlockHandle blockHandle)
+    protected Slice readRawBlock(BlockHandle blockHandle, boolean verifyChecksums)
             throws IOException
     {
         // 读 block trailer，获得压缩类型 和 crc32
@@ -44,24 +56,18 @@ public class FileChannelTable
 
         // 读取未压缩的data
         ByteBuffer uncompressedBuffer = read(blockHandle.getOffset(), blockHandle.getDataSize());
+        if (verifyChecksums) {
+            verifyChecksum(blockHandle, blockTrailer, uncompressedBuffer);
+        }
         Slice uncompressedData;
         if (blockTrailer.getCompressionType() == SNAPPY) {
-            synchronized (FileChannelTable.class) {
-                int uncompressedLength = uncompressedLength(uncompressedBuffer);
-                if (uncompressedScratch.capacity() < uncompressedLength) {
-                    uncompressedScratch = ByteBuffer.allocateDirect(uncompressedLength);
-                }
-                uncompressedScratch.clear();
-
-                Snappy.uncompress(uncompressedBuffer, uncompressedScratch);
-                uncompressedData = Slices.copiedBuffer(uncompressedScratch);
-            }
+            uncompressedData = uncompress(uncompressedBuffer);
         }
         else {
             uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
         }
 
-        return new Block(uncompressedData, comparator);
+        return uncompressedData;
     }
 
     private ByteBuffer read(long offset, int length)
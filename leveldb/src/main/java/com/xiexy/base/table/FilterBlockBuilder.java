@@ -0,0 +1,78 @@
+package com.xiexy.base.table;
+
+import com.xiexy.base.include.DynamicSliceOutput;
+import com.xiexy.base.include.Slice;
+import com.xiexy.base.utils.IntVector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * 构建sstable的filter block，格式见{@link Block}的说明。
+ * 每2KB（1 << FILTER_BASE_LG）的data block偏移量对应一个filter，
+ * 调用顺序必须满足：(startBlock addKey*)* finish
+ */
+public class FilterBlockBuilder
+{
+    public static final int FILTER_BASE_LG = 11;
+    public static final int FILTER_BASE = 1 << FILTER_BASE_LG;
+
+    private final FilterPolicy policy;
+    // 当前filter中的key
+    private final List<Slice> keys = new ArrayList<>();
+    // 已生成的filter
+    private final DynamicSliceOutput result = new DynamicSliceOutput(1024);
+    // 每个filter在result中的偏移量
+    private final IntVector filterOffsets = new IntVector(32);
+
+    public FilterBlockBuilder(FilterPolicy policy)
+    {
+        this.policy = requireNonNull(policy, "policy is null");
+    }
+
+    /**
+     * 开始一个新的data block，blockOffset为data block在文件中的偏移量
+     */
+    public void startBlock(long blockOffset)
+    {
+        long filterIndex = blockOffset / FILTER_BASE;
+        checkArgument(filterIndex >= filterOffsets.size(), "blockOffset must be increasing");
+        while (filterIndex > filterOffsets.size()) {
+            generateFilter();
+        }
+    }
+
+    public void addKey(Slice key)
+    {
+        keys.add(key);
+    }
+
+    public Slice finish()
+    {
+        if (!keys.isEmpty()) {
+            generateFilter();
+        }
+
+        // 写入偏移量数组，以及偏移量数组的起始位置
+        int arrayOffset = result.size();
+        filterOffsets.write(result);
+        result.writeInt(arrayOffset);
+        result.writeByte(FILTER_BASE_LG);
+        return result.slice();
+    }
+
+    private void generateFilter()
+    {
+        filterOffsets.add(result.size());
+        if (keys.isEmpty()) {
+            // 没有key时只记录偏移量，filter为空
+            return;
+        }
+
+        result.writeBytes(policy.createFilter(keys));
+        keys.clear();
+    }
+}
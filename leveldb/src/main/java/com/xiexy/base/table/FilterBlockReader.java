@@ -0,0 +1,67 @@
+package com.xiexy.base.table;
+
+import com.xiexy.base.include.Slice;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * 读取filter block，根据data block的偏移量找到对应的filter
+ */
+public class FilterBlockReader
+{
+    private final FilterPolicy policy;
+    private final Slice data;
+    // 偏移量数组的起始位置
+    private final int offsetArrayStart;
+    // filter的个数
+    private final int filterCount;
+    private final int baseLg;
+
+    public FilterBlockReader(FilterPolicy policy, Slice contents)
+    {
+        this.policy = requireNonNull(policy, "policy is null");
+        this.data = requireNonNull(contents, "contents is null");
+
+        int length = contents.length();
+        // 至少需要1字节的lg(base)和4字节的偏移量数组起始位置
+        if (length < 5) {
+            this.baseLg = 0;
+            this.offsetArrayStart = 0;
+            this.filterCount = 0;
+            return;
+        }
+        this.baseLg = contents.getUnsignedByte(length - 1);
+        int arrayStart = contents.getInt(length - 5);
+        if (arrayStart < 0 || arrayStart > length - 5) {
+            this.offsetArrayStart = 0;
+            this.filterCount = 0;
+            return;
+        }
+        this.offsetArrayStart = arrayStart;
+        this.filterCount = (length - 5 - arrayStart) / 4;
+    }
+
+    // filter block的字节数
+    public int size()
+    {
+        return data.length();
+    }
+
+    public boolean keyMayMatch(long blockOffset, Slice key)
+    {
+        long index = blockOffset >> baseLg;
+        if (index < filterCount) {
+            int start = data.getInt(offsetArrayStart + (int) index * 4);
+            int limit = data.getInt(offsetArrayStart + (int) index * 4 + 4);
+            if (start <= limit && limit <= offsetArrayStart) {
+                if (start == limit) {
+                    // 空filter说明没有任何key
+                    return false;
+                }
+                return policy.keyMayMatch(key, data.slice(start, limit - start));
+            }
+        }
+        // 出错时当作可能存在处理
+        return true;
+    }
+}
@@ -0,0 +1,23 @@
+package com.xiexy.base.table;
+
+import com.xiexy.base.include.Slice;
+
+import java.util.List;
+
+/**
+ * 内部使用的过滤策略，基于Slice，避免在构建和查询filter时复制字节数组
+ */
+public interface FilterPolicy
+{
+    String name();
+
+    /**
+     * 为一个data block范围内的所有key生成filter
+     */
+    Slice createFilter(List<Slice> keys);
+
+    /**
+     * 返回false表示key一定不存在
+     */
+    boolean keyMayMatch(Slice key, Slice filter);
+}
@@ -1,47 +1,57 @@
 package com.xiexy.base.table;
 
+import com.xiexy.base.ReadOptions;
 import com.xiexy.base.db.Slices;
 import com.xiexy.base.include.Slice;
-import com.xiexy.base.utils.ByteBufferSupport;
 import com.xiexy.base.utils.Closeables;
-import com.xiexy.base.utils.Snappy;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Comparator;
 import java.util.concurrent.Callable;
 
-import static com.google.common.base.Preconditions.checkArgument;
 import static com.xiexy.base.CompressionType.SNAPPY;
 
 /**
  * MMapTable继承自Table，实现了父类的抽象函数，通过内存映射文件读取文件内容
  * 实现时根据指定的偏移和大小，读取filter的功能，对应于源码中的Table::ReadFilter()
+ * 未压缩的block直接在映射的内存上读取，只能在table被pin住时使用（见TableCache），
+ * 也不放入block cache，table关闭时映射的内存会被立即unmap。
+ * 文件分段映射（见MappedSegments），大小不受2GB的限制
  */
 public class MMapTable
         extends Table
 {
-    private MappedByteBuffer data;
+    private MappedSegments data;
 
     public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
             throws IOException
     {
-        super(name, fileChannel, comparator, verifyChecksums);
-        checkArgument(fileChannel.size() <= Integer.MAX_VALUE, "File must be smaller than %s bytes", Integer.MAX_VALUE);
+        this(name, fileChannel, comparator, verifyChecksums, null);
+    }
+
+    public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, FilterPolicy filterPolicy)
+            throws IOException
+    {
+        this(name, fileChannel, comparator, verifyChecksums, filterPolicy, null, 0);
+    }
+
+    public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, FilterPolicy filterPolicy,
+            BlockCache blockCache, long fileNumber)
+            throws IOException
+    {
+        super(name, fileChannel, comparator, verifyChecksums, filterPolicy, blockCache, fileNumber);
     }
 
     @Override
     protected Footer init()
             throws IOException
     {
-        long size = fileChannel.size();
-        data = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        data = MappedSegments.map(fileChannel, MappedSegments.DEFAULT_SEGMENT_SHIFT);
         // 从文件的结尾读取Footer，并Decode到Footer对象中
-        Slice footerSlice = Slices.copiedBuffer(data, (int) size - Footer.ENCODED_LENGTH, Footer.ENCODED_LENGTH);
+        Slice footerSlice = Slices.copiedBuffer(data.read(data.size() - Footer.ENCODED_LENGTH, Footer.ENCODED_LENGTH));
         return Footer.readFooter(footerSlice);
     }
 
@@ -51,14 +61,17 @@ public class MMapTable
         return new Closer(name, fileChannel, data);
     }
 
+    /**
+     * table的引用计数降到0时调用，此时已经没有iterator或点查询在读取映射的内存
+     */
     private static class Closer
             implements Callable<Void>
     {
         private final String name;
         private final Closeable closeable;
-        private final MappedByteBuffer data;
+        private final MappedSegments data;
 
-        public Closer(String name, Closeable closeable, MappedByteBuffer data)
+        public Closer(String name, Closeable closeable, MappedSegments data)
         {
             this.name = name;
             this.closeable = closeable;
@@ -67,50 +80,76 @@ public class MMapTable
 
         public Void call()
         {
-            ByteBufferSupport.unmap(data);
+            data.unmap();
             Closeables.closeQuietly(closeable);
             return null;
         }
     }
 
-    // 压缩block的data，返回压缩后的block
+    /**
+     * 未压缩的block直接读取映射的内存，不经过block cache：重新创建Block的代价很小，
+     * 而且缓存中的block可能在table关闭之后仍然被访问
+     */
     @Override
-    protected Block readBlock(BlockHandle blockHandle)
+    protected Block readDataBlock(BlockHandle blockHandle, ReadOptions options)
             throws IOException
     {
-        // 读 block trailer，获得压缩类型 和 crc32
-        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(this.data,
-                (int) blockHandle.getOffset() + blockHandle.getDataSize(),
-                BlockTrailer.ENCODED_LENGTH));
+        BlockTrailer blockTrailer = readBlockTrailer(blockHandle);
+        if (blockTrailer.getCompressionType() != SNAPPY) {
+            return readBlock(blockHandle, blockTrailer, options.verifyChecksums());
+        }
+        return super.readDataBlock(blockHandle, options);
+    }
 
+    /**
+     * 未压缩的block不复制，直接在映射的内存上创建Block
+     */
+    @Override
+    protected Block readBlock(BlockHandle blockHandle, boolean verifyChecksums)
+            throws IOException
+    {
+        return readBlock(blockHandle, readBlockTrailer(blockHandle), verifyChecksums);
+    }
+
+    private Block readBlock(BlockHandle blockHandle, BlockTrailer blockTrailer, boolean verifyChecksums)
+            throws IOException
+    {
+        ByteBuffer blockData = data.read(blockHandle.getOffset(), blockHandle.getDataSize());
+        if (verifyChecksums) {
+            verifyChecksum(blockHandle, blockTrailer, blockData);
+        }
+        if (blockTrailer.getCompressionType() == SNAPPY) {
+            return new Block(uncompress(blockData), comparator);
+        }
+        return new Block(blockData, comparator);
+    }
+
+    // 解压block的data，返回解压后的内容
+    @Override
+    protected Slice readRawBlock(BlockHandle blockHandle, boolean verifyChecksums)
+            throws IOException
+    {
+        // 读 block trailer，获得压缩类型 和 crc32
+        BlockTrailer blockTrailer = readBlockTrailer(blockHandle);
 
         Slice uncompressedData;
         // 读取未压缩的data
-        ByteBuffer uncompressedBuffer = read(this.data, (int) blockHandle.getOffset(), blockHandle.getDataSize());
+        ByteBuffer uncompressedBuffer = data.read(blockHandle.getOffset(), blockHandle.getDataSize());
+        if (verifyChecksums) {
+            verifyChecksum(blockHandle, blockTrailer, uncompressedBuffer);
+        }
         if (blockTrailer.getCompressionType() == SNAPPY) {
-            synchronized (MMapTable.class) {
-                int uncompressedLength = uncompressedLength(uncompressedBuffer);
-                if (uncompressedScratch.capacity() < uncompressedLength) {
-                    uncompressedScratch = ByteBuffer.allocateDirect(uncompressedLength);
-                }
-                uncompressedScratch.clear();
-
-                Snappy.uncompress(uncompressedBuffer, uncompressedScratch);
-                uncompressedData = Slices.copiedBuffer(uncompressedScratch);
-            }
+            uncompressedData = uncompress(uncompressedBuffer);
         }
         else {
             uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
         }
 
-        return new Block(uncompressedData, comparator);
+        return uncompressedData;
     }
 
-    public static ByteBuffer read(MappedByteBuffer data, int offset, int length)
-            throws IOException
+    private BlockTrailer readBlockTrailer(BlockHandle blockHandle)
     {
-        int newPosition = data.position() + offset;
-        ByteBuffer block = (ByteBuffer) data.duplicate().order(ByteOrder.LITTLE_ENDIAN).clear().limit(newPosition + length).position(newPosition);
-        return block;
+        return BlockTrailer.readBlockTrailer(data.read(blockHandle.getOffset() + blockHandle.getDataSize(), BlockTrailer.ENCODED_LENGTH), 0);
     }
 }
@@ -0,0 +1,113 @@
+package com.xiexy.base.table;
+
+import com.xiexy.base.utils.ByteBufferSupport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * 把文件分成多个固定大小的段分别映射，单个MappedByteBuffer最大只能映射2GB，
+ * 分段之后可以映射任意大小的文件，偏移量都使用long。
+ * 落在一个段内的读取直接返回映射内存的视图，跨越两个段的读取复制到堆上
+ */
+final class MappedSegments
+{
+    // 默认每段1GB，跨段的block很少
+    static final int DEFAULT_SEGMENT_SHIFT = 30;
+
+    private final MappedByteBuffer[] segments;
+    private final int segmentShift;
+    private final long segmentMask;
+    private final long size;
+
+    private MappedSegments(MappedByteBuffer[] segments, int segmentShift, long size)
+    {
+        this.segments = segments;
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
+        this.size = size;
+    }
+
+    public static MappedSegments map(FileChannel fileChannel, int segmentShift)
+            throws IOException
+    {
+        requireNonNull(fileChannel, "fileChannel is null");
+        checkArgument(segmentShift > 0 && segmentShift <= 30, "segmentShift must be between 1 and 30");
+
+        long size = fileChannel.size();
+        long segmentSize = 1L << segmentShift;
+        int count = (int) ((size + segmentSize - 1) >>> segmentShift);
+        MappedByteBuffer[] segments = new MappedByteBuffer[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                long position = (long) i << segmentShift;
+                segments[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentSize, size - position));
+            }
+        }
+        catch (IOException e) {
+            unmap(segments);
+            throw e;
+        }
+        return new MappedSegments(segments, segmentShift, size);
+    }
+
+    public long size()
+    {
+        return size;
+    }
+
+    /**
+     * 返回[offset, offset + length)的内容，position为0，字节序为little endian，不影响其他读取
+     */
+    public ByteBuffer read(long offset, int length)
+    {
+        checkArgument(length >= 0, "length is negative");
+        checkArgument(offset >= 0 && offset + length <= size, "Read of %s bytes at %s is beyond the end of file (%s bytes)", length, offset, size);
+
+        if (length == 0) {
+            return ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        int index = (int) (offset >>> segmentShift);
+        int position = (int) (offset & segmentMask);
+        if ((long) position + length <= segments[index].capacity()) {
+            ByteBuffer buffer = segments[index].duplicate();
+            buffer.limit(position + length).position(position);
+            return buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        // 跨越段的边界，依次复制每个段中的部分
+        byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            ByteBuffer segment = segments[index].duplicate();
+            int chunk = Math.min(length - copied, segment.capacity() - position);
+            segment.position(position);
+            segment.get(bytes, copied, chunk);
+            copied += chunk;
+            index++;
+            position = 0;
+        }
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public void unmap()
+    {
+        unmap(segments);
+    }
+
+    private static void unmap(MappedByteBuffer[] segments)
+    {
+        for (MappedByteBuffer segment : segments) {
+            if (segment != null) {
+                ByteBufferSupport.unmap(segment);
+            }
+        }
+    }
+}
@@ -14,10 +14,13 @@
 package com.xiexy.base.table;
 
 import com.google.common.base.Throwables;
+import com.xiexy.base.ReadOptions;
 import com.xiexy.base.impl.SeekingIterable;
 import com.xiexy.base.include.Slice;
+import com.xiexy.base.utils.Checksums;
 import com.xiexy.base.utils.Closeables;
 import com.xiexy.base.utils.Coding;
+import com.xiexy.base.utils.Snappy;
 import com.xiexy.base.utils.TableIterator;
 
 import java.io.Closeable;
@@ -25,7 +28,9 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.zip.Checksum;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
@@ -36,12 +41,33 @@ public abstract class Table
     protected final String name;
     protected final FileChannel fileChannel;
     protected final Comparator<Slice> comparator;
+    // 打开table时读取的index、meta index和filter block是否校验，对应于源码中的paranoid_checks。
+    // data block是否校验由每次读取的ReadOptions决定
     protected final boolean verifyChecksums;
     protected final Block indexBlock;
     protected final BlockHandle metaindexBlockHandle;
+    // 未配置filter policy或文件中没有filter时为null
+    protected final FilterBlockReader filter;
+    // data block的缓存，可以为null
+    protected final BlockCache blockCache;
+    // 文件编号，作为block cache的key
+    protected final long fileNumber;
 
     public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
             throws IOException
+    {
+        this(name, fileChannel, comparator, verifyChecksums, null);
+    }
+
+    public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, FilterPolicy filterPolicy)
+            throws IOException
+    {
+        this(name, fileChannel, comparator, verifyChecksums, filterPolicy, null, 0);
+    }
+
+    public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, FilterPolicy filterPolicy,
+            BlockCache blockCache, long fileNumber)
+            throws IOException
     {
         requireNonNull(name, "name is null");
         requireNonNull(fileChannel, "fileChannel is null");
@@ -54,12 +80,39 @@ public abstract class Table
         this.fileChannel = fileChannel;
         this.verifyChecksums = verifyChecksums;
         this.comparator = comparator;
+        this.blockCache = blockCache;
+        this.fileNumber = fileNumber;
 
         // Footer的成员metaindexBlockHandle指出了meta index block的起始位置和大小；
         // Footer的成员indexBlockHandle指出了index block的起始地址和大小；
         Footer footer = init();
-        indexBlock = readBlock(footer.getIndexBlockHandle());
+        indexBlock = readBlock(footer.getIndexBlockHandle(), verifyChecksums);
         metaindexBlockHandle = footer.getMetaindexBlockHandle();
+        filter = readFilter(filterPolicy);
+    }
+
+    /**
+     * 通过meta index block找到filter block，对应于源码中的Table::ReadMeta()
+     */
+    private FilterBlockReader readFilter(FilterPolicy filterPolicy)
+            throws IOException
+    {
+        if (filterPolicy == null) {
+            return null;
+        }
+
+        Block metaindexBlock = new Block(readRawBlock(metaindexBlockHandle, verifyChecksums), new BytewiseComparator());
+        BlockIterator iterator = metaindexBlock.iterator();
+        Slice filterBlockKey = TableBuilder.filterBlockKey(filterPolicy);
+        iterator.seek(filterBlockKey);
+        if (iterator.hasNext()) {
+            BlockEntry entry = iterator.next();
+            if (entry.getKey().equals(filterBlockKey)) {
+                BlockHandle filterHandle = BlockHandle.readBlockHandle(entry.getValue().input());
+                return new FilterBlockReader(filterPolicy, readRawBlock(filterHandle, verifyChecksums));
+            }
+        }
+        return null;
     }
 
     protected abstract Footer init()
@@ -68,15 +121,29 @@ public abstract class Table
     @Override
     public TableIterator iterator()
     {
-        return new TableIterator(this, indexBlock.iterator());
+        return iterator(new ReadOptions());
     }
+
+    /**
+     * options.fillCache()为false时，读取的data block不放入block cache，适用于批量扫描
+     */
+    public TableIterator iterator(ReadOptions options)
+    {
+        return new TableIterator(this, indexBlock.iterator(), options);
+    }
+
     // 根据blockEntry的成员变量访问table中对应的Block对象
     public Block openBlock(Slice blockEntry)
+    {
+        return openBlock(blockEntry, new ReadOptions());
+    }
+
+    public Block openBlock(Slice blockEntry, ReadOptions options)
     {
         BlockHandle blockHandle = BlockHandle.readBlockHandle(blockEntry.input());
         Block dataBlock;
         try {
-            dataBlock = readBlock(blockHandle);
+            dataBlock = readDataBlock(blockHandle, options);
         }
         catch (IOException e) {
             throw Throwables.propagate(e);
@@ -84,11 +151,159 @@ public abstract class Table
         return dataBlock;
     }
 
-    protected static ByteBuffer uncompressedScratch = ByteBuffer.allocateDirect(4 * 1024 * 1024);
+    // 每个线程一个数组，用于把直接内存中的压缩数据复制到堆上再解压，不需要加锁
+    private static final ThreadLocal<byte[]> compressedScratch = new ThreadLocal<byte[]>()
+    {
+        @Override
+        protected byte[] initialValue()
+        {
+            return new byte[4 * 1024];
+        }
+    };
+
     // 根据BlockHandle读取Block
-    protected abstract Block readBlock(BlockHandle blockHandle)
+    protected Block readBlock(BlockHandle blockHandle, boolean verifyChecksums)
+            throws IOException
+    {
+        return new Block(readRawBlock(blockHandle, verifyChecksums), comparator);
+    }
+
+    /**
+     * 读取data block，先查block cache，对应于源码中的Table::BlockReader()。
+     * 只在从文件读取时按options.verifyChecksums()校验，缓存中的block不再重复校验
+     */
+    protected Block readDataBlock(final BlockHandle blockHandle, final ReadOptions options)
+            throws IOException
+    {
+        if (blockCache == null) {
+            return readBlock(blockHandle, options.verifyChecksums());
+        }
+
+        if (!options.fillCache()) {
+            Block block = blockCache.getIfPresent(fileNumber, blockHandle.getOffset());
+            if (block != null) {
+                return block;
+            }
+            return readBlock(blockHandle, options.verifyChecksums());
+        }
+
+        return blockCache.get(fileNumber, blockHandle.getOffset(), new Callable<Block>()
+        {
+            @Override
+            public Block call()
+                    throws IOException
+            {
+                return readBlock(blockHandle, options.verifyChecksums());
+            }
+        });
+    }
+
+    // 根据BlockHandle读取block解压后的内容
+    protected abstract Slice readRawBlock(BlockHandle blockHandle, boolean verifyChecksums)
             throws IOException;
 
+    /**
+     * 检查block的data和压缩类型的crc是否与BlockTrailer中的一致，
+     * 对应于源码中ReadBlock()的kBlockTrailerSize校验。data是解压前的内容
+     */
+    protected void verifyChecksum(BlockHandle blockHandle, BlockTrailer blockTrailer, ByteBuffer data)
+            throws IOException
+    {
+        Checksum crc32c = Checksums.newCrc32C();
+        Checksums.update(crc32c, data);
+        crc32c.update(blockTrailer.getCompressionType().persistentId() & 0xFF);
+        int actual = Checksums.getMaskedValue(crc32c);
+        if (actual != blockTrailer.getCrc32c()) {
+            throw new IOException(String.format("Block checksum mismatch in %s at offset %s: expected 0x%08x, actual 0x%08x",
+                    name, blockHandle.getOffset(), blockTrailer.getCrc32c(), actual));
+        }
+    }
+
+    /**
+     * 点查询，对应于源码中的Table::InternalGet()。
+     * 在index block中找到key所在的data block，只读取这一个block，返回其中第一个 >= key的Entry，
+     * 不创建TableIterator和BlockIterator。
+     * 返回null表示filter判断key不存在，或者该block中没有 >= key的Entry，
+     * 此时下一个block的第一个key的user key一定大于key的user key，对点查询没有影响
+     */
+    public BlockEntry get(Slice key, ReadOptions options)
+    {
+        BlockEntry indexEntry = indexBlock.get(key);
+        if (indexEntry == null) {
+            // key比table中所有的key都大
+            return null;
+        }
+
+        BlockHandle blockHandle = BlockHandle.readBlockHandle(indexEntry.getValue().input());
+        if (filter != null && !filter.keyMayMatch(blockHandle.getOffset(), key)) {
+            return null;
+        }
+
+        Block dataBlock;
+        try {
+            dataBlock = readDataBlock(blockHandle, options);
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return dataBlock.get(key);
+    }
+
+    /**
+     * 批量点查询，keys必须按comparator排序，返回与keys对应的Entry，含义与get()相同。
+     * 相邻的key落在同一个data block时，该block只读取一次
+     */
+    public BlockEntry[] multiGet(List<Slice> keys, ReadOptions options)
+    {
+        BlockEntry[] entries = new BlockEntry[keys.size()];
+        Block dataBlock = null;
+        long dataBlockOffset = -1;
+        for (int i = 0; i < keys.size(); i++) {
+            Slice key = keys.get(i);
+            BlockEntry indexEntry = indexBlock.get(key);
+            if (indexEntry == null) {
+                // 后面的key都比table中所有的key大
+                break;
+            }
+
+            BlockHandle blockHandle = BlockHandle.readBlockHandle(indexEntry.getValue().input());
+            if (filter != null && !filter.keyMayMatch(blockHandle.getOffset(), key)) {
+                continue;
+            }
+
+            if (dataBlock == null || blockHandle.getOffset() != dataBlockOffset) {
+                try {
+                    dataBlock = readDataBlock(blockHandle, options);
+                }
+                catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+                dataBlockOffset = blockHandle.getOffset();
+            }
+            entries[i] = dataBlock.get(key);
+        }
+        return entries;
+    }
+
+    /**
+     * 根据filter判断key是否可能在table中，返回false时可以跳过对data block的读取
+     */
+    public boolean mayContain(Slice key)
+    {
+        if (filter == null) {
+            return true;
+        }
+
+        // 找到key可能所在的data block，filter是按data block的偏移量组织的
+        BlockEntry indexEntry = indexBlock.get(key);
+        if (indexEntry == null) {
+            // key比table中所有的key都大
+            return false;
+        }
+        BlockHandle blockHandle = BlockHandle.readBlockHandle(indexEntry.getValue().input());
+        return filter.keyMayMatch(blockHandle.getOffset(), key);
+    }
+
     protected int uncompressedLength(ByteBuffer data)
             throws IOException
     {
@@ -96,6 +311,31 @@ public abstract class Table
         return length;
     }
 
+    /**
+     * 解压snappy压缩的block，直接解压到大小刚好的数组中，多个线程可以同时解压
+     */
+    protected Slice uncompress(ByteBuffer compressed)
+            throws IOException
+    {
+        int uncompressedLength = uncompressedLength(compressed);
+        byte[] uncompressed = new byte[uncompressedLength];
+        if (compressed.hasArray()) {
+            Snappy.uncompress(compressed.array(), compressed.arrayOffset() + compressed.position(), compressed.remaining(), uncompressed, 0);
+        }
+        else {
+            // mmap的数据在直接内存中，先复制到当前线程的数组中
+            int length = compressed.remaining();
+            byte[] input = compressedScratch.get();
+            if (input.length < length) {
+                input = new byte[Math.max(length, input.length * 2)];
+                compressedScratch.set(input);
+            }
+            compressed.duplicate().get(input, 0, length);
+            Snappy.uncompress(input, 0, length, uncompressed, 0);
+        }
+        return new Slice(uncompressed);
+    }
+
     /**
      * 给定一个key，返回一个data block在file中的偏移量
      */
@@ -113,6 +353,18 @@ public abstract class Table
         return metaindexBlockHandle.getOffset();
     }
 
+    /**
+     * 常驻内存的index block和filter block的字节数，直接读取mmap的index block不占用堆内存
+     */
+    public long getApproximateMemoryUsage()
+    {
+        long usage = indexBlock.isDirect() ? 0 : indexBlock.size();
+        if (filter != null) {
+            usage += filter.size();
+        }
+        return usage;
+    }
+
     @Override
     public String toString()
     {
@@ -19,12 +19,13 @@ import com.xiexy.base.CompressionType;
 import com.xiexy.base.Options;
 import com.xiexy.base.db.Slices;
 import com.xiexy.base.include.Slice;
-import com.xiexy.base.utils.Crc32;
+import com.xiexy.base.utils.Checksums;
 import com.xiexy.base.utils.Snappy;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.zip.Checksum;
 
 import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.requireNonNull;
@@ -32,6 +33,7 @@ import static com.xiexy.base.impl.VersionSet.TARGET_FILE_SIZE;
 public class TableBuilder
 {
     public static final long TABLE_MAGIC_NUMBER = 0xdb4775248b80fb57L;
+    public static final String FILTER_BLOCK_PREFIX = "filter.";
 
     private final int blockRestartInterval;
     private final int blockSize;
@@ -42,6 +44,9 @@ public class TableBuilder
     private final BlockBuilder dataBlockBuilder;
     // table的index block
     private final BlockBuilder indexBlockBuilder;
+    // filter block，未配置filter policy时为null
+    private final FilterBlockBuilder filterBlockBuilder;
+    private final FilterPolicy filterPolicy;
     // 当前data block最后的k/v对的key
     private Slice lastKey;
     private final UserComparator userComparator;
@@ -65,6 +70,11 @@ public class TableBuilder
     private long position;
     // data block的选项
     public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator)
+    {
+        this(options, fileChannel, userComparator, null);
+    }
+
+    public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, FilterPolicy filterPolicy)
     {
         requireNonNull(options, "options is null");
         requireNonNull(fileChannel, "fileChannel is null");
@@ -91,6 +101,15 @@ public class TableBuilder
         indexBlockBuilder = new BlockBuilder(BlockHandle.MAX_ENCODED_LENGTH * expectedNumberOfBlocks, 1, userComparator);
         // 初始化最后的key是空Slice
         lastKey = Slices.EMPTY_SLICE;
+
+        this.filterPolicy = filterPolicy;
+        if (filterPolicy != null) {
+            filterBlockBuilder = new FilterBlockBuilder(filterPolicy);
+            filterBlockBuilder.startBlock(0);
+        }
+        else {
+            filterBlockBuilder = null;
+        }
     }
 
     public long getEntryCount()
@@ -135,6 +154,10 @@ public class TableBuilder
             pendingIndexEntry = false;
         }
 
+        if (filterBlockBuilder != null) {
+            filterBlockBuilder.addKey(key);
+        }
+
         lastKey = key;
         entryCount++;
         dataBlockBuilder.add(key, value);
@@ -160,6 +183,11 @@ public class TableBuilder
 
         pendingHandle = writeBlock(dataBlockBuilder);
         pendingIndexEntry = true;
+
+        // 新的data block从position开始
+        if (filterBlockBuilder != null) {
+            filterBlockBuilder.startBlock(position);
+        }
     }
 
     /**
@@ -173,7 +201,20 @@ public class TableBuilder
     {
         // 关闭该block，获得block的序列化数据Slice
         Slice raw = blockBuilder.finish();
+        BlockHandle blockHandle = writeRawBlock(raw, compressionType);
+
+        // 清空data block
+        blockBuilder.reset();
+
+        return blockHandle;
+    }
 
+    /**
+     * 写入一个block的内容和trailer，type为SNAPPY时尝试压缩
+     */
+    private BlockHandle writeRawBlock(Slice raw, CompressionType compressionType)
+            throws IOException
+    {
         // 根据配置参数决定是否压缩，以及根据压缩格式压缩数据内容
         Slice blockContents = raw;
         CompressionType blockCompressionType = CompressionType.NONE;
@@ -205,9 +246,6 @@ public class TableBuilder
         // 将data block写入文件
         position += fileChannel.write(new ByteBuffer[] {blockContents.toByteBuffer(), trailer.toByteBuffer()});
 
-        // 清空data block
-        blockBuilder.reset();
-
         return blockHandle;
     }
 
@@ -227,8 +265,17 @@ public class TableBuilder
         // 把文件设为closed
         closed = true;
 
+        // filter block不压缩
+        BlockHandle filterBlockHandle = null;
+        if (filterBlockBuilder != null) {
+            filterBlockHandle = writeRawBlock(filterBlockBuilder.finish(), CompressionType.NONE);
+        }
+
         // 通过meta index block，可以根据filter名字快速定位到filter的数据区。
         BlockBuilder metaIndexBlockBuilder = new BlockBuilder(256, blockRestartInterval, new BytewiseComparator());
+        if (filterBlockHandle != null) {
+            metaIndexBlockBuilder.add(filterBlockKey(filterPolicy), BlockHandle.writeBlockHandle(filterBlockHandle));
+        }
 
         BlockHandle metaindexBlockHandle = writeBlock(metaIndexBlockBuilder);
 
@@ -250,6 +297,14 @@ public class TableBuilder
         position += fileChannel.write(footerEncoding.toByteBuffer());
     }
 
+    /**
+     * metaindex中filter block对应的key："filter." + policy名称
+     */
+    public static Slice filterBlockKey(FilterPolicy filterPolicy)
+    {
+        return new Slice(FILTER_BLOCK_PREFIX + filterPolicy.name());
+    }
+
     public void abandon()
     {
         checkState(!closed, "table is finished");
@@ -258,10 +313,10 @@ public class TableBuilder
 
     public static int crc32c(Slice data, CompressionType type)
     {
-        Crc32 crc32c = new Crc32();
+        Checksum crc32c = Checksums.newCrc32C();
         crc32c.update(data.getData(), data.getOffset(), data.length());
         crc32c.update(type.persistentId() & 0xFF);
-        return crc32c.getMaskedValue();
+        return Checksums.getMaskedValue(crc32c);
     }
 
     public void ensureCompressedOutputCapacity(int capacity)
@@ -0,0 +1,188 @@
+package com.xiexy.base.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * <p>
+ * 计算log record和block trailer中的crc32c。默认使用JDK 9引入的java.util.zip.CRC32C，
+ * JIT会把它编译为CPU的crc32c指令；运行在JDK 8上时退回纯Java实现的{@link Crc32}。
+ * 两种实现的结果相同，写入文件前都经过{@link Crc32#mask(int)}，文件格式不变。
+ * 可以通过'leveldb.checksum'系统属性修改加载顺序，例如：
+ * <p/>
+ * <code>
+ * -Dleveldb.checksum=java,jdk
+ * </code>
+ * <p/>
+ * 系统属性也可以配置为实现了Checksums.Provider接口的类名。
+ * </p>
+ */
+public final class Checksums
+{
+    // crc32c("123456789")，加载时用来检查实现是否正确
+    private static final int CHECK_VALUE = 0xe3069283;
+
+    private Checksums()
+    {
+    }
+
+    public interface Provider
+    {
+        Checksum newChecksum();
+
+        /**
+         * 用data中position到limit之间的内容更新checksum，不改变data的position
+         */
+        void update(Checksum checksum, ByteBuffer data);
+    }
+
+    public static class JdkCrc32C
+            implements Provider
+    {
+        private static final MethodHandle CONSTRUCTOR;
+        private static final MethodHandle UPDATE_BUFFER;
+
+        static {
+            try {
+                Class<?> crc32c = Class.forName("java.util.zip.CRC32C");
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                CONSTRUCTOR = lookup.findConstructor(crc32c, MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(Checksum.class));
+                // 直接内存（mmap）上的计算也走intrinsic，不需要先复制到堆上
+                UPDATE_BUFFER = lookup.findVirtual(crc32c, "update", MethodType.methodType(void.class, ByteBuffer.class))
+                        .asType(MethodType.methodType(void.class, Checksum.class, ByteBuffer.class));
+            }
+            catch (ReflectiveOperationException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Checksum newChecksum()
+        {
+            try {
+                return (Checksum) CONSTRUCTOR.invokeExact();
+            }
+            catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void update(Checksum checksum, ByteBuffer data)
+        {
+            try {
+                UPDATE_BUFFER.invokeExact(checksum, data.duplicate());
+            }
+            catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    public static class PureJavaCrc32C
+            implements Provider
+    {
+        private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>()
+        {
+            @Override
+            protected byte[] initialValue()
+            {
+                return new byte[4 * 1024];
+            }
+        };
+
+        @Override
+        public Checksum newChecksum()
+        {
+            return new Crc32();
+        }
+
+        @Override
+        public void update(Checksum checksum, ByteBuffer data)
+        {
+            if (data.hasArray()) {
+                checksum.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+                return;
+            }
+            // 直接内存分段复制到当前线程的数组中计算
+            byte[] buffer = scratch.get();
+            ByteBuffer source = data.duplicate();
+            while (source.hasRemaining()) {
+                int length = Math.min(buffer.length, source.remaining());
+                source.get(buffer, 0, length);
+                checksum.update(buffer, 0, length);
+            }
+        }
+    }
+
+    private static final Provider PROVIDER;
+
+    static {
+        Provider attempt = null;
+        String[] providers = System.getProperty("leveldb.checksum", "jdk,java").split(",");
+        for (int i = 0; i < providers.length && attempt == null; i++) {
+            String name = providers[i];
+            try {
+                name = name.trim();
+                if ("jdk".equals(name.toLowerCase())) {
+                    name = "com.xiexy.base.utils.Checksums$JdkCrc32C";
+                }
+                else if ("java".equals(name.toLowerCase())) {
+                    name = "com.xiexy.base.utils.Checksums$PureJavaCrc32C";
+                }
+                Provider provider = (Provider) Class.forName(name).newInstance();
+                if (selfCheck(provider)) {
+                    attempt = provider;
+                }
+            }
+            catch (Throwable e) {
+            }
+        }
+        if (attempt == null) {
+            attempt = new PureJavaCrc32C();
+        }
+        PROVIDER = attempt;
+    }
+
+    private static boolean selfCheck(Provider provider)
+    {
+        byte[] data = "123456789".getBytes(US_ASCII);
+        Checksum checksum = provider.newChecksum();
+        checksum.update(data, 0, data.length);
+        if ((int) checksum.getValue() != CHECK_VALUE) {
+            return false;
+        }
+        checksum = provider.newChecksum();
+        provider.update(checksum, (ByteBuffer) ByteBuffer.allocateDirect(data.length).put(data).flip());
+        return (int) checksum.getValue() == CHECK_VALUE;
+    }
+
+    public static Provider provider()
+    {
+        return PROVIDER;
+    }
+
+    public static Checksum newCrc32C()
+    {
+        return PROVIDER.newChecksum();
+    }
+
+    public static void update(Checksum checksum, ByteBuffer data)
+    {
+        PROVIDER.update(checksum, data);
+    }
+
+    /**
+     * 返回经过mask的crc，即写入文件中的值
+     */
+    public static int getMaskedValue(Checksum checksum)
+    {
+        return Crc32.mask((int) checksum.getValue());
+    }
+}
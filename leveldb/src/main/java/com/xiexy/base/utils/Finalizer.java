@@ -2,6 +2,7 @@ package com.xiexy.base.utils;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import java.io.Closeable;
 import java.lang.ref.PhantomReference;
 import java.lang.ref.ReferenceQueue;
 import java.util.concurrent.*;
@@ -27,7 +28,8 @@ public class Finalizer<T>
     private final ConcurrentHashMap<FinalizerPhantomReference<T>, Object> references = new ConcurrentHashMap<>();
     private final ReferenceQueue<T> referenceQueue = new ReferenceQueue<>();
     private final AtomicBoolean destroyed = new AtomicBoolean();
-    private ExecutorService executor;
+    // 第一次addCleanup时创建，之后addCleanup不需要加锁
+    private volatile ExecutorService executor;
 
     public Finalizer()
     {
@@ -46,32 +48,55 @@ public class Finalizer<T>
         this.threads = threads;
     }
 
-    public synchronized void addCleanup(T item, Callable<?> cleanup)
+    /**
+     * item不可达之后执行cleanup，返回的Closeable用于在item显式关闭时取消注册，
+     * 取消之后虚引用不会再进入引用队列，也不会再执行cleanup
+     */
+    public Closeable addCleanup(T item, Callable<?> cleanup)
     {
         requireNonNull(item, "item is null");
         requireNonNull(cleanup, "cleanup is null");
         checkState(!destroyed.get(), "%s is destroyed", getClass().getName());
 
         if (executor == null) {
-            // create executor
-            ThreadFactory threadFactory = new ThreadFactoryBuilder()
-                    .setNameFormat("FinalizerQueueProcessor-%d")
-                    .setDaemon(true)
-                    .build();
-            // 创建threads个线程，每个线程由线程工厂创建
-            executor = Executors.newFixedThreadPool(threads, threadFactory);
-
-            for (int i = 0; i < threads; i++) {
-                // 将任务交给线程池执行
-                executor.submit(new FinalizerQueueProcessor());
-            }
+            startExecutor();
         }
 
         // 创建item对象的虚引用，并配套引用队列，可以通过引用队列获得对象，并在垃圾回收之前对对象做处理
-        FinalizerPhantomReference<T> reference = new FinalizerPhantomReference<>(item, referenceQueue, cleanup);
+        final FinalizerPhantomReference<T> reference = new FinalizerPhantomReference<>(item, referenceQueue, cleanup);
 
         // 当item已经被回收之后，在references中获取这个对象的虚引用，将虚引用对象加入到ConcurrentHashMap中
         references.put(reference, Boolean.TRUE);
+        return new Closeable()
+        {
+            @Override
+            public void close()
+            {
+                reference.cancel();
+                references.remove(reference);
+            }
+        };
+    }
+
+    private synchronized void startExecutor()
+    {
+        if (executor != null) {
+            return;
+        }
+        checkState(!destroyed.get(), "%s is destroyed", getClass().getName());
+        // create executor
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("FinalizerQueueProcessor-%d")
+                .setDaemon(true)
+                .build();
+        // 创建threads个线程，每个线程由线程工厂创建
+        ExecutorService executor = Executors.newFixedThreadPool(threads, threadFactory);
+
+        for (int i = 0; i < threads; i++) {
+            // 将任务交给线程池执行
+            executor.submit(new FinalizerQueueProcessor());
+        }
+        this.executor = executor;
     }
 
     public synchronized void destroy()
@@ -116,6 +141,13 @@ public class Finalizer<T>
                 cleanup.call();
             }
         }
+
+        // 取消注册，不执行cleanup
+        private void cancel()
+        {
+            cleaned.set(true);
+            clear();
+        }
     }
 
     private class FinalizerQueueProcessor
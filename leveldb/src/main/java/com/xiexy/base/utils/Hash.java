@@ -0,0 +1,52 @@
+package com.xiexy.base.utils;
+
+/**
+ * 与leveldb util/hash.cc一致的哈希函数（类似murmur hash），
+ * 布隆过滤器依赖它，修改后已写入的filter将失效
+ */
+public final class Hash
+{
+    private Hash()
+    {
+    }
+
+    public static int hash(byte[] data, int offset, int length, int seed)
+    {
+        // Similar to murmur hash
+        final int m = 0xc6a4a793;
+        final int r = 24;
+        final int limit = offset + length;
+        int h = seed ^ (length * m);
+
+        // 每次处理4个字节，小端序
+        int position = offset;
+        while (position + 4 <= limit) {
+            int w = (data[position] & 0xff)
+                    | (data[position + 1] & 0xff) << 8
+                    | (data[position + 2] & 0xff) << 16
+                    | (data[position + 3] & 0xff) << 24;
+            position += 4;
+            h += w;
+            h *= m;
+            h ^= (h >>> 16);
+        }
+
+        // 处理剩余的字节
+        switch (limit - position) {
+            case 3:
+                h += (data[position + 2] & 0xff) << 16;
+                // fall through
+            case 2:
+                h += (data[position + 1] & 0xff) << 8;
+                // fall through
+            case 1:
+                h += data[position] & 0xff;
+                h *= m;
+                h ^= (h >>> r);
+                break;
+            default:
+                break;
+        }
+        return h;
+    }
+}
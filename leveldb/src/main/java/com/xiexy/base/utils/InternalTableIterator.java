@@ -4,17 +4,39 @@ import com.google.common.collect.Maps;
 import com.xiexy.base.impl.InternalKey;
 import com.xiexy.base.include.Slice;
 
+import java.io.Closeable;
 import java.util.Map;
 
+/**
+ * 由TableCache创建时pin住table，close()之后释放，table被淘汰后最后一个pin释放时关闭文件。
+ * close之后不能再使用
+ */
 public class InternalTableIterator
         extends AbstractSeekingIterator<InternalKey, Slice>
-        implements InternalIterator
+        implements InternalIterator, Closeable
 {
     private final TableIterator tableIterator;
+    // 可以为null
+    private final Closeable pin;
 
     public InternalTableIterator(TableIterator tableIterator)
+    {
+        this(tableIterator, null);
+    }
+
+    public InternalTableIterator(TableIterator tableIterator, Closeable pin)
     {
         this.tableIterator = tableIterator;
+        this.pin = pin;
+    }
+
+    /**
+     * 释放对table的pin，可以重复调用
+     */
+    @Override
+    public void close()
+    {
+        Closeables.closeQuietly(pin);
     }
 
     @Override
@@ -0,0 +1,217 @@
+package com.xiexy.base.utils;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * 记录延迟分布的直方图，与HdrHistogram一样按对数分段，每个2的幂区间再等分为16个bucket，
+ * 相对误差不超过1/16。bucket数固定，record()只做几次原子加，不分配内存，可以一直打开。
+ * 读取的统计值不是一个原子的快照，记录的同时读取可能有少量误差
+ */
+public final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // 小于SUB_BUCKET_COUNT的值各占一个bucket，之后每个2的幂区间占SUB_BUCKET_COUNT个bucket
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (64 - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一次耗时，单位为纳秒，负值按0记录
+     */
+    public void record(long nanos)
+    {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketIndex(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long currentMax = max.get();
+        while (nanos > currentMax && !max.compareAndSet(currentMax, nanos)) {
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    public double getMean()
+    {
+        long currentCount = count.get();
+        if (currentCount == 0) {
+            return 0;
+        }
+        return 1.0 * sum.get() / currentCount;
+    }
+
+    /**
+     * 返回percentile（0到100之间）对应的值，为所在bucket的上界
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        checkArgument(percentile >= 0 && percentile <= 100, "percentile must be between 0 and 100");
+        long total = 0;
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * 以微秒为单位的统计值
+     */
+    public Snapshot snapshot()
+    {
+        return new Snapshot(
+                getCount(),
+                getMean() / 1000,
+                getValueAtPercentile(50) / 1000.0,
+                getValueAtPercentile(99) / 1000.0,
+                getValueAtPercentile(99.9) / 1000.0,
+                getMax() / 1000.0);
+    }
+
+    static int bucketIndex(long value)
+    {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long bucketUpperBound(int index)
+    {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        long lowerBound = (long) (SUB_BUCKET_COUNT | subBucket) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("LatencyHistogram");
+        sb.append("{count=").append(getCount());
+        sb.append(", mean=").append(getMean());
+        sb.append(", p50=").append(getValueAtPercentile(50));
+        sb.append(", p99=").append(getValueAtPercentile(99));
+        sb.append(", max=").append(getMax());
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * 直方图在某一时刻的统计值，单位为微秒，通过JMX暴露
+     */
+    public static final class Snapshot
+    {
+        private final long count;
+        private final double meanMicros;
+        private final double p50Micros;
+        private final double p99Micros;
+        private final double p999Micros;
+        private final double maxMicros;
+
+        @ConstructorProperties({"count", "meanMicros", "p50Micros", "p99Micros", "p999Micros", "maxMicros"})
+        public Snapshot(long count, double meanMicros, double p50Micros, double p99Micros, double p999Micros, double maxMicros)
+        {
+            this.count = count;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.p999Micros = p999Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public double getMeanMicros()
+        {
+            return meanMicros;
+        }
+
+        public double getP50Micros()
+        {
+            return p50Micros;
+        }
+
+        public double getP99Micros()
+        {
+            return p99Micros;
+        }
+
+        public double getP999Micros()
+        {
+            return p999Micros;
+        }
+
+        public double getMaxMicros()
+        {
+            return maxMicros;
+        }
+
+        @Override
+        public String toString()
+        {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("Snapshot");
+            sb.append("{count=").append(count);
+            sb.append(", meanMicros=").append(meanMicros);
+            sb.append(", p50Micros=").append(p50Micros);
+            sb.append(", p99Micros=").append(p99Micros);
+            sb.append(", p999Micros=").append(p999Micros);
+            sb.append(", maxMicros=").append(maxMicros);
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+}
@@ -2,27 +2,46 @@ package com.xiexy.base.utils;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.xiexy.base.ReadOptions;
 import com.xiexy.base.impl.FileMetaData;
 import com.xiexy.base.impl.InternalKey;
 import com.xiexy.base.impl.SeekingIterator;
 import com.xiexy.base.impl.TableCache;
 import com.xiexy.base.include.Slice;
 
+import java.io.Closeable;
 import java.util.*;
 
+/**
+ * 合并level 0的所有文件，每个文件的iterator都pin住对应的table，使用完之后需要close()
+ */
 public final class Level0Iterator
         extends AbstractSeekingIterator<InternalKey, Slice>
-        implements InternalIterator
+        implements InternalIterator, Closeable
 {
     private final List<InternalTableIterator> inputs;
     private final PriorityQueue<ComparableIterator> priorityQueue;
     private final Comparator<InternalKey> comparator;
 
     public Level0Iterator(TableCache tableCache, List<FileMetaData> files, Comparator<InternalKey> comparator)
+    {
+        this(tableCache, files, comparator, new ReadOptions());
+    }
+
+    public Level0Iterator(TableCache tableCache, List<FileMetaData> files, Comparator<InternalKey> comparator, ReadOptions options)
     {
         ImmutableList.Builder<InternalTableIterator> builder = ImmutableList.builder();
-        for (FileMetaData file : files) {
-            builder.add(tableCache.newIterator(file));
+        try {
+            for (FileMetaData file : files) {
+                builder.add(tableCache.newIterator(file, options));
+            }
+        }
+        catch (RuntimeException e) {
+            // 打开某个文件失败时释放已经打开的文件
+            for (InternalTableIterator input : builder.build()) {
+                input.close();
+            }
+            throw e;
         }
         this.inputs = builder.build();
         this.comparator = comparator;
@@ -68,6 +87,18 @@ public final class Level0Iterator
         }
     }
 
+    /**
+     * 释放所有文件的pin，可以重复调用
+     */
+    @Override
+    public void close()
+    {
+        priorityQueue.clear();
+        for (InternalTableIterator input : inputs) {
+            input.close();
+        }
+    }
+
     @Override
     protected Map.Entry<InternalKey, Slice> getNextElement()
     {
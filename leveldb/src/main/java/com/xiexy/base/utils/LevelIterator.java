@@ -1,29 +1,42 @@
 package com.xiexy.base.utils;
 
+import com.xiexy.base.ReadOptions;
 import com.xiexy.base.impl.FileMetaData;
 import com.xiexy.base.impl.InternalKey;
 import com.xiexy.base.impl.InternalKeyComparator;
 import com.xiexy.base.impl.TableCache;
 import com.xiexy.base.include.Slice;
 
+import java.io.Closeable;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * 依次遍历一层中的文件，同一时间只pin住当前文件，使用完之后需要close()
+ */
 public final class LevelIterator
         extends AbstractSeekingIterator<InternalKey, Slice>
-        implements InternalIterator
+        implements InternalIterator, Closeable
 {
     private final TableCache tableCache;
     private final List<FileMetaData> files;
     private final InternalKeyComparator comparator;
+    // 打开每个文件的iterator时使用，决定data block是否放入block cache、是否校验
+    private final ReadOptions options;
     private InternalTableIterator current;
     private int index;
 
     public LevelIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator comparator)
+    {
+        this(tableCache, files, comparator, new ReadOptions());
+    }
+
+    public LevelIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator comparator, ReadOptions options)
     {
         this.tableCache = tableCache;
         this.files = files;
         this.comparator = comparator;
+        this.options = options;
     }
 
     @Override
@@ -31,7 +44,7 @@ public final class LevelIterator
     {
         //
         index = 0;
-        current = null;
+        setCurrent(null);
     }
 
     @Override
@@ -72,11 +85,11 @@ public final class LevelIterator
         // if indexIterator does not have a next, it mean the key does not exist in this iterator
         if (index < files.size()) {
             // seek the current iterator to the key
-            current = openNextFile();
+            setCurrent(openNextFile());
             current.seek(targetKey);
         }
         else {
-            current = null;
+            setCurrent(null);
         }
     }
 
@@ -94,7 +107,7 @@ public final class LevelIterator
             }
             if (!(currentHasNext)) {
                 if (index < files.size()) {
-                    current = openNextFile();
+                    setCurrent(openNextFile());
                 }
                 else {
                     break;
@@ -109,16 +122,35 @@ public final class LevelIterator
         }
         else {
             // set current to empty iterator to avoid extra calls to user iterators
-            current = null;
+            setCurrent(null);
             return null;
         }
     }
 
+    /**
+     * 释放当前文件的pin，可以重复调用
+     */
+    @Override
+    public void close()
+    {
+        index = files.size();
+        setCurrent(null);
+    }
+
+    // 切换到另一个文件时释放前一个文件的table
+    private void setCurrent(InternalTableIterator iterator)
+    {
+        if (current != null) {
+            current.close();
+        }
+        current = iterator;
+    }
+
     private InternalTableIterator openNextFile()
     {
         FileMetaData fileMetaData = files.get(index);
         index++;
-        return tableCache.newIterator(fileMetaData);
+        return tableCache.newIterator(fileMetaData, options);
     }
 
     @Override
@@ -3,13 +3,16 @@ package com.xiexy.base.utils;
 import com.xiexy.base.impl.InternalKey;
 import com.xiexy.base.include.Slice;
 
+import java.io.Closeable;
 import java.util.*;
 
 /**
  * MergingIterator主要是用于合并的。
+ * close()时关闭所有Closeable的子iterator，释放它们pin住的table
  */
 public final class MergingIterator
         extends AbstractSeekingIterator<InternalKey, Slice>
+        implements Closeable
 {
     private final List<? extends InternalIterator> levels;
     private final PriorityQueue<ComparableIterator> priorityQueue;
@@ -48,6 +51,8 @@ public final class MergingIterator
     // 注意这里从level 1 开始
     private void resetPriorityQueue(Comparator<InternalKey> comparator)
     {
+        // 丢弃seek之前的位置
+        priorityQueue.clear();
         int i = 1;
         for (InternalIterator level : levels) {
             if (level.hasNext()) {
@@ -58,6 +63,20 @@ public final class MergingIterator
             }
         }
     }
+    /**
+     * 可以重复调用，memtable的iterator不需要关闭
+     */
+    @Override
+    public void close()
+    {
+        priorityQueue.clear();
+        for (InternalIterator level : levels) {
+            if (level instanceof Closeable) {
+                Closeables.closeQuietly((Closeable) level);
+            }
+        }
+    }
+
     // NextElement一定是这几层中key最小的元素
     @Override
     protected Map.Entry<InternalKey, Slice> getNextElement()
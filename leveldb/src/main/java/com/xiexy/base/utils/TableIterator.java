@@ -13,6 +13,7 @@
  */
 package com.xiexy.base.utils;
 
+import com.xiexy.base.ReadOptions;
 import com.xiexy.base.include.Slice;
 import com.xiexy.base.table.Block;
 import com.xiexy.base.table.BlockIterator;
@@ -33,11 +34,19 @@ public final class TableIterator
      * 遍历block data的迭代器
      */
     private BlockIterator current;
+    // 读取data block时是否放入block cache、是否校验
+    private final ReadOptions options;
 
     public TableIterator(Table table, BlockIterator blockIterator)
+    {
+        this(table, blockIterator, new ReadOptions());
+    }
+
+    public TableIterator(Table table, BlockIterator blockIterator, ReadOptions options)
     {
         this.table = table;
         this.blockIterator = blockIterator;
+        this.options = options;
         current = null;
     }
 
@@ -99,7 +108,7 @@ public final class TableIterator
     private BlockIterator getNextBlock()
     {
         Slice blockHandle = blockIterator.next().getValue();
-        Block dataBlock = table.openBlock(blockHandle);
+        Block dataBlock = table.openBlock(blockHandle, options);
         return dataBlock.iterator();
     }
 
@@ -0,0 +1,131 @@
+package com.xiexy.base.db;
+
+import com.xiexy.base.impl.InternalKey;
+import com.xiexy.base.impl.InternalKeyComparator;
+import com.xiexy.base.impl.LookupKey;
+import com.xiexy.base.impl.LookupResult;
+import com.xiexy.base.impl.ValueType;
+import com.xiexy.base.include.Slice;
+import com.xiexy.base.table.BytewiseComparator;
+import com.xiexy.base.table.UserComparator;
+import com.xiexy.base.utils.InternalIterator;
+import org.testng.annotations.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class ArenaMemTableTest {
+
+    @Test
+    public void testSameAsSkipListMemTable()
+    {
+        assertSameAsSkipListMemTable(new BytewiseComparator());
+    }
+
+    @Test
+    public void testCustomComparator()
+    {
+        // 倒序的comparator，比较时需要把key复制到堆上
+        assertSameAsSkipListMemTable(new BytewiseComparator()
+        {
+            @Override
+            public int compare(Slice sliceA, Slice sliceB)
+            {
+                return sliceB.compareTo(sliceA);
+            }
+        });
+    }
+
+    @Test
+    public void testMemoryUsage()
+    {
+        ArenaMemTable memTable = new ArenaMemTable(new InternalKeyComparator(new BytewiseComparator()), 4096);
+        assertTrue(memTable.isEmpty());
+        // 只有头节点所在的页
+        assertEquals(memTable.approximateMemoryUsage(), 512);
+
+        memTable.add(1, ValueType.VALUE, slice("key"), slice("value"));
+        assertFalse(memTable.isEmpty());
+        assertEquals(memTable.approximateMemoryUsage(), 512 + 4096);
+
+        // 当前chunk放不下，且大于chunk四分之一的记录单独分配
+        memTable.add(2, ValueType.VALUE, slice("big"), new Slice(5000));
+        assertEquals(memTable.approximateMemoryUsage(), 512 + 4096 + 4 + 11 + 4 + 5000);
+        assertEquals(memTable.get(new LookupKey(slice("big"), 2)).getValue().length(), 5000);
+    }
+
+    private static void assertSameAsSkipListMemTable(UserComparator userComparator)
+    {
+        InternalKeyComparator comparator = new InternalKeyComparator(userComparator);
+        MemTable expected = new SkipListMemTable(comparator);
+        MemTable actual = new ArenaMemTable(comparator, 4096);
+
+        Random random = new Random(0);
+        for (long sequence = 1; sequence <= 5000; sequence++) {
+            Slice key = slice("key" + random.nextInt(1000));
+            if (random.nextInt(10) == 0) {
+                expected.add(sequence, ValueType.DELETION, key, Slices.EMPTY_SLICE);
+                actual.add(sequence, ValueType.DELETION, key, Slices.EMPTY_SLICE);
+            }
+            else {
+                Slice value = new Slice(random.nextInt(100));
+                random.nextBytes(value.getData());
+                expected.add(sequence, ValueType.VALUE, key, value);
+                actual.add(sequence, ValueType.VALUE, key, value);
+            }
+        }
+
+        for (int i = 0; i < 1100; i++) {
+            LookupKey lookupKey = new LookupKey(slice("key" + i), random.nextInt(5100));
+            LookupResult expectedResult = expected.get(lookupKey);
+            LookupResult actualResult = actual.get(lookupKey);
+            if (expectedResult == null) {
+                assertNull(actualResult);
+            }
+            else {
+                assertEquals(actualResult.isDeleted(), expectedResult.isDeleted());
+                assertEquals(actualResult.getValue(), expectedResult.getValue());
+            }
+        }
+
+        assertSameEntries(actual.iterator(), expected.iterator());
+        InternalKey target = new InternalKey(slice("key500"), 2500, ValueType.VALUE);
+        InternalIterator actualIterator = actual.iterator();
+        actualIterator.seek(target);
+        InternalIterator expectedIterator = expected.iterator();
+        expectedIterator.seek(target);
+        assertSameEntries(actualIterator, expectedIterator);
+
+        Iterator<Map.Entry<Slice, Slice>> encoded = actual.encodedIterator();
+        for (Map.Entry<InternalKey, Slice> entry : expected) {
+            Map.Entry<Slice, Slice> actualEntry = encoded.next();
+            assertEquals(actualEntry.getKey(), entry.getKey().encode());
+            assertEquals(actualEntry.getValue(), entry.getValue());
+        }
+        assertFalse(encoded.hasNext());
+    }
+
+    private static void assertSameEntries(InternalIterator actual, InternalIterator expected)
+    {
+        while (expected.hasNext()) {
+            assertTrue(actual.hasNext());
+            Map.Entry<InternalKey, Slice> actualEntry = actual.next();
+            Map.Entry<InternalKey, Slice> expectedEntry = expected.next();
+            assertEquals(actualEntry.getKey(), expectedEntry.getKey());
+            assertEquals(actualEntry.getValue(), expectedEntry.getValue());
+        }
+        assertFalse(actual.hasNext());
+    }
+
+    private static Slice slice(String value)
+    {
+        return new Slice(value.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,113 @@
+package com.xiexy.base.impl;
+
+import com.xiexy.base.CompressionType;
+import com.xiexy.base.Options;
+import com.xiexy.base.db.Slices;
+import com.xiexy.base.table.BytewiseComparator;
+import com.xiexy.base.table.TableBuilder;
+import com.xiexy.base.table.UserComparator;
+import com.xiexy.base.utils.FileUtils;
+import com.xiexy.base.utils.InternalTableIterator;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import static com.xiexy.base.impl.ValueType.VALUE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TableCacheTest {
+
+    private File databaseDir;
+    private TableCache tableCache;
+
+    @BeforeMethod
+    public void setUp()
+            throws IOException
+    {
+        databaseDir = FileUtils.createTempDir("table_cache_test");
+        InternalKeyComparator internalKeyComparator = new InternalKeyComparator(new BytewiseComparator());
+        UserComparator userComparator = new InternalUserComparator(internalKeyComparator);
+        writeTable(1, userComparator);
+        tableCache = new TableCache(databaseDir, 10, userComparator, true);
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        tableCache.close();
+        FileUtils.deleteRecursively(databaseDir);
+    }
+
+    @Test
+    public void testEvictUnpinnedTableClosesIt()
+    {
+        tableCache.newIterator(1).close();
+        assertEquals(tableCache.getOpenTableCount(), 1);
+        assertEquals(tableCache.getPinnedHandleCount(), 0);
+
+        tableCache.evict(1);
+        assertEquals(tableCache.getOpenTableCount(), 0);
+    }
+
+    @Test
+    public void testEvictPinnedTableKeepsItOpen()
+    {
+        InternalTableIterator iterator = tableCache.newIterator(1);
+        assertEquals(tableCache.getPinnedHandleCount(), 1);
+
+        tableCache.evict(1);
+        // 被iterator pin住，淘汰之后仍然可以读取
+        assertEquals(tableCache.getOpenTableCount(), 1);
+        iterator.seekToFirst();
+        assertTrue(iterator.hasNext());
+        assertEquals(iterator.next().getKey().getUserKey(), Slices.copiedBuffer("a", UTF_8));
+
+        iterator.close();
+    }
+
+    @Test
+    public void testLastReleaseClosesEvictedTable()
+    {
+        InternalTableIterator first = tableCache.newIterator(1);
+        InternalTableIterator second = tableCache.newIterator(1);
+        tableCache.evict(1);
+
+        first.close();
+        assertEquals(tableCache.getOpenTableCount(), 1);
+        assertEquals(tableCache.getPinnedHandleCount(), 1);
+
+        second.close();
+        assertEquals(tableCache.getOpenTableCount(), 0);
+        assertEquals(tableCache.getPinnedHandleCount(), 0);
+
+        // 重复close不会多释放一次
+        second.close();
+        assertEquals(tableCache.getPinnedHandleCount(), 0);
+
+        // 再次访问时重新打开
+        tableCache.newIterator(1).close();
+        assertEquals(tableCache.getOpenTableCount(), 1);
+    }
+
+    private void writeTable(long fileNumber, UserComparator userComparator)
+            throws IOException
+    {
+        Options options = new Options().compressionType(CompressionType.NONE);
+        File file = new File(databaseDir, Filename.tableFileName(fileNumber));
+        try (FileChannel fileChannel = new FileOutputStream(file).getChannel()) {
+            TableBuilder builder = new TableBuilder(options, fileChannel, userComparator);
+            for (String key : new String[] {"a", "b", "c"}) {
+                InternalKey internalKey = new InternalKey(Slices.copiedBuffer(key, UTF_8), 1, VALUE);
+                builder.add(internalKey.encode(), Slices.copiedBuffer("value", UTF_8));
+            }
+            builder.finish();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.xiexy.base.impl;
+
+import com.xiexy.base.include.Slice;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+
+public class WriteBatchImplTest {
+
+    @Test
+    public void testEncodeAndAppend()
+    {
+        WriteBatchImpl first = new WriteBatchImpl()
+                .put("a".getBytes(UTF_8), "1".getBytes(UTF_8))
+                .delete("b".getBytes(UTF_8));
+        WriteBatchImpl second = new WriteBatchImpl()
+                .put("c".getBytes(UTF_8), new byte[300]);
+
+        WriteBatchImpl merged = new WriteBatchImpl().append(first).append(second);
+        assertEquals(merged.size(), 3);
+        assertEquals(merged.getApproximateSize(), first.getApproximateSize() + second.getApproximateSize() - WriteBatchImpl.HEADER_SIZE);
+
+        // record可以直接写入log，头部是sequence和记录个数
+        Slice record = merged.encode(42);
+        assertEquals(record.length(), merged.getApproximateSize());
+        assertEquals(record.getLong(0), 42);
+        assertEquals(record.getInt(8), 3);
+
+        List<String> operations = new ArrayList<>();
+        assertEquals(WriteBatchImpl.forEach(record, new RecordingHandler(operations)), 3);
+        assertEquals(operations.toString(), "[put a 1, delete b, put c 300]");
+
+        operations.clear();
+        merged.forEach(new RecordingHandler(operations));
+        assertEquals(operations.toString(), "[put a 1, delete b, put c 300]");
+    }
+
+    @Test
+    public void testEmptyBatch()
+    {
+        WriteBatchImpl batch = new WriteBatchImpl();
+        assertEquals(batch.size(), 0);
+        Slice record = batch.encode(7);
+        assertEquals(record.length(), WriteBatchImpl.HEADER_SIZE);
+        assertEquals(WriteBatchImpl.forEach(record, new RecordingHandler(new ArrayList<String>())), 0);
+    }
+
+    private static class RecordingHandler
+            implements WriteBatchImpl.Handler
+    {
+        private final List<String> operations;
+
+        private RecordingHandler(List<String> operations)
+        {
+            this.operations = operations;
+        }
+
+        @Override
+        public void put(Slice key, Slice value)
+        {
+            String text = value.length() > 10 ? String.valueOf(value.length()) : value.toString(UTF_8);
+            operations.add("put " + key.toString(UTF_8) + " " + text);
+        }
+
+        @Override
+        public void delete(Slice key)
+        {
+            operations.add("delete " + key.toString(UTF_8));
+        }
+    }
+}
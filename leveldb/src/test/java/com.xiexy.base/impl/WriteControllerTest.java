@@ -0,0 +1,99 @@
+package com.xiexy.base.impl;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.xiexy.base.impl.DbConstants.HARD_PENDING_COMPACTION_BYTES_LIMIT;
+import static com.xiexy.base.impl.DbConstants.L0_SLOWDOWN_WRITES_TRIGGER;
+import static com.xiexy.base.impl.DbConstants.L0_STOP_WRITES_TRIGGER;
+import static com.xiexy.base.impl.DbConstants.SOFT_PENDING_COMPACTION_BYTES_LIMIT;
+import static com.xiexy.base.impl.WriteController.MIN_DELAYED_WRITE_RATE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class WriteControllerTest {
+
+    private static final long MAX_RATE = 16L << 20;
+
+    @Test
+    public void testNoDelayBelowTriggers()
+    {
+        WriteController controller = new WriteController(MAX_RATE);
+        controller.update(L0_SLOWDOWN_WRITES_TRIGGER, SOFT_PENDING_COMPACTION_BYTES_LIMIT);
+        assertFalse(controller.isDelayed());
+        assertEquals(controller.getDelayedWriteRate(), 0);
+        assertEquals(controller.delayNanos(1 << 20), 0);
+    }
+
+    @Test
+    public void testRateDecreasesWithPressure()
+    {
+        WriteController controller = new WriteController(MAX_RATE);
+        controller.update(L0_SLOWDOWN_WRITES_TRIGGER + 1, 0);
+        long light = controller.getDelayedWriteRate();
+        assertTrue(light > MIN_DELAYED_WRITE_RATE && light < MAX_RATE, "rate: " + light);
+
+        controller.update(L0_SLOWDOWN_WRITES_TRIGGER + 2, 0);
+        long heavy = controller.getDelayedWriteRate();
+        assertTrue(heavy < light, heavy + " >= " + light);
+
+        // 待compaction的字节数和level 0文件数取压力较大的一个
+        controller.update(L0_SLOWDOWN_WRITES_TRIGGER + 1, HARD_PENDING_COMPACTION_BYTES_LIMIT);
+        assertEquals(controller.getDelayedWriteRate(), MIN_DELAYED_WRITE_RATE);
+    }
+
+    @Test
+    public void testRateFloorsAtStopPressure()
+    {
+        WriteController controller = new WriteController(MAX_RATE);
+        controller.update(L0_STOP_WRITES_TRIGGER - 1, 0);
+        assertEquals(controller.getDelayedWriteRate(), MIN_DELAYED_WRITE_RATE);
+
+        // 超过停止阈值时压力不再增加
+        controller.update(L0_STOP_WRITES_TRIGGER + 10, 2 * HARD_PENDING_COMPACTION_BYTES_LIMIT);
+        assertEquals(controller.getDelayedWriteRate(), MIN_DELAYED_WRITE_RATE);
+    }
+
+    @Test
+    public void testDelayGrowsWithDebt()
+    {
+        WriteController controller = new WriteController(MAX_RATE);
+        controller.update(L0_STOP_WRITES_TRIGGER - 1, 0);
+
+        // 最低速率下1ms的突发只有16字节左右，写入1MB几乎全部是欠下的令牌
+        long bytes = 1 << 20;
+        long first = controller.delayNanos(bytes);
+        long expected = TimeUnit.SECONDS.toNanos(bytes) / MIN_DELAYED_WRITE_RATE;
+        assertTrue(first > expected * 0.99 && first <= expected, "delay: " + first);
+
+        long second = controller.delayNanos(bytes);
+        assertTrue(second > first * 1.9, second + " <= " + first);
+
+        // 压力解除后不再等待
+        controller.update(0, 0);
+        assertFalse(controller.isDelayed());
+        assertEquals(controller.delayNanos(bytes), 0);
+
+        // 重新开始限速时之前欠下的令牌不再计算
+        controller.update(L0_STOP_WRITES_TRIGGER - 1, 0);
+        assertTrue(controller.delayNanos(1) < TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Test
+    public void testBurstIsCapped()
+            throws InterruptedException
+    {
+        WriteController controller = new WriteController(MAX_RATE);
+        controller.update(L0_SLOWDOWN_WRITES_TRIGGER + 1, 0);
+        long rate = controller.getDelayedWriteRate();
+
+        // 空闲20ms也只积累1ms的令牌，写入10ms的量至少要等待8ms
+        Thread.sleep(20);
+        long bytes = rate / 100;
+        long delay = controller.delayNanos(bytes);
+        long maxBurst = rate / 1000;
+        assertTrue(delay >= TimeUnit.SECONDS.toNanos(bytes - 2 * maxBurst) / rate, "delay: " + delay);
+    }
+}
@@ -0,0 +1,74 @@
+package com.xiexy.base.table;
+
+import com.xiexy.base.include.Slice;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class BlockCacheTest {
+
+    @Test
+    public void testHitAndMiss()
+            throws Exception
+    {
+        BlockCache cache = new BlockCache(1 << 20);
+        AtomicInteger loads = new AtomicInteger();
+
+        Block first = cache.get(1, 0, loader(loads, 100));
+        Block second = cache.get(1, 0, loader(loads, 100));
+        assertTrue(first == second);
+        assertEquals(loads.get(), 1);
+        assertEquals(cache.getHitCount(), 1);
+        assertEquals(cache.getMissCount(), 1);
+        assertEquals(cache.getUsage(), 100);
+
+        // 文件编号不同，是不同的block
+        cache.get(2, 0, loader(loads, 100));
+        assertEquals(loads.get(), 2);
+        assertEquals(cache.getUsage(), 200);
+    }
+
+    @Test
+    public void testGetIfPresent()
+            throws Exception
+    {
+        BlockCache cache = new BlockCache(1 << 20);
+        assertNull(cache.getIfPresent(1, 0));
+        cache.get(1, 0, loader(new AtomicInteger(), 100));
+        assertTrue(cache.getIfPresent(1, 0) != null);
+    }
+
+    @Test
+    public void testEvictionByUsage()
+            throws Exception
+    {
+        BlockCache cache = new BlockCache(64 * 1024);
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 100; i++) {
+            cache.get(1, i * 4096, loader(loads, 4096));
+        }
+        assertTrue(cache.getUsage() <= 64 * 1024, "usage: " + cache.getUsage());
+
+        cache.invalidateAll();
+        assertEquals(cache.getUsage(), 0);
+    }
+
+    private static Callable<Block> loader(final AtomicInteger loads, final int size)
+    {
+        return new Callable<Block>()
+        {
+            @Override
+            public Block call()
+            {
+                loads.incrementAndGet();
+                // 空的block，只有重启点个数
+                return new Block(new Slice(size), new BytewiseComparator());
+            }
+        };
+    }
+}
@@ -4,11 +4,15 @@ import com.xiexy.base.db.Slices;
 import com.xiexy.base.include.Slice;
 import org.testng.annotations.Test;
 
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 
 import static java.util.Arrays.asList;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 public class BlockTest {
 
@@ -85,6 +89,86 @@ public class BlockTest {
         }
     }
 
+    @Test
+    public void testGet()
+            throws Exception
+    {
+        List<BlockEntry> entries = asList(
+                BlockHelper.createBlockEntry("beer/ale", "Lagunitas  Little Sumpin’ Sumpin’"),
+                BlockHelper.createBlockEntry("beer/ipa", "Lagunitas IPA"),
+                BlockHelper.createBlockEntry("beer/stout", "Lagunitas Imperial Stout"),
+                BlockHelper.createBlockEntry("scotch/light", "Oban 14"),
+                BlockHelper.createBlockEntry("scotch/medium", "Highland Park"),
+                BlockHelper.createBlockEntry("scotch/strong", "Lagavulin"));
+
+        for (int blockRestartInterval = 1; blockRestartInterval <= entries.size(); blockRestartInterval++) {
+            BlockBuilder builder = new BlockBuilder(256, blockRestartInterval, new BytewiseComparator());
+            for (BlockEntry entry : entries) {
+                builder.add(entry);
+            }
+            Block block = new Block(builder.finish(), new BytewiseComparator());
+
+            // get()的结果应该与seek()之后的第一个entry相同
+            for (int i = 0; i < entries.size(); i++) {
+                BlockEntry entry = entries.get(i);
+                BlockHelper.assertEntryEquals(block.get(entry.getKey()), entry);
+                BlockHelper.assertEntryEquals(block.get(BlockHelper.before(entry)), entry);
+                if (i + 1 < entries.size()) {
+                    BlockHelper.assertEntryEquals(block.get(BlockHelper.after(entry)), entries.get(i + 1));
+                }
+            }
+            assertNull(block.get(Slices.wrappedBuffer(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF})));
+        }
+    }
+
+    @Test
+    public void testDirectBuffer()
+            throws Exception
+    {
+        List<BlockEntry> entries = asList(
+                BlockHelper.createBlockEntry("beer/ale", "Lagunitas  Little Sumpin’ Sumpin’"),
+                BlockHelper.createBlockEntry("beer/ipa", "Lagunitas IPA"),
+                BlockHelper.createBlockEntry("beer/stout", "Lagunitas Imperial Stout"),
+                BlockHelper.createBlockEntry("scotch/light", "Oban 14"),
+                BlockHelper.createBlockEntry("scotch/medium", "Highland Park"),
+                BlockHelper.createBlockEntry("scotch/strong", "Lagavulin"));
+
+        for (int blockRestartInterval = 1; blockRestartInterval <= entries.size(); blockRestartInterval++) {
+            BlockBuilder builder = new BlockBuilder(256, blockRestartInterval, new BytewiseComparator());
+            for (BlockEntry entry : entries) {
+                builder.add(entry);
+            }
+            Slice blockSlice = builder.finish();
+            // 模拟mmap：block前后还有其他数据
+            ByteBuffer mapped = ByteBuffer.allocateDirect(blockSlice.length() + 10);
+            mapped.position(5);
+            mapped.put(blockSlice.getData(), blockSlice.getOffset(), blockSlice.length());
+            mapped.position(5).limit(5 + blockSlice.length());
+
+            Block block = new Block(mapped, new BytewiseComparator());
+            assertTrue(block.isDirect());
+            assertFalse(new Block(blockSlice, new BytewiseComparator()).isDirect());
+            assertEquals(block.size(), blockSlice.length());
+
+            BlockIterator blockIterator = block.iterator();
+            BlockHelper.assertSequence(blockIterator, entries);
+            for (int i = 0; i < entries.size(); i++) {
+                BlockEntry entry = entries.get(i);
+                blockIterator.seek(BlockHelper.before(entry));
+                BlockHelper.assertSequence(blockIterator, entries.subList(i, entries.size()));
+                BlockHelper.assertEntryEquals(block.get(entry.getKey()), entry);
+            }
+
+            // 读到的key和value在堆上，不引用映射的内存
+            BlockEntry first = block.iterator().next();
+            mapped.clear();
+            for (int i = 0; i < mapped.capacity(); i++) {
+                mapped.put(i, (byte) 0);
+            }
+            BlockHelper.assertEntryEquals(first, entries.get(0));
+        }
+    }
+
     private static void blockTest(int blockRestartInterval, BlockEntry... entries)
     {
         blockTest(blockRestartInterval, asList(entries));
@@ -0,0 +1,70 @@
+package com.xiexy.base.table;
+
+import com.xiexy.base.CompressionType;
+import com.xiexy.base.include.Slice;
+import com.xiexy.base.utils.Checksums;
+import com.xiexy.base.utils.Crc32;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.testng.Assert.assertEquals;
+
+public class ChecksumsTest {
+
+    @Test
+    public void testKnownValue()
+    {
+        byte[] data = "123456789".getBytes(US_ASCII);
+        for (Checksums.Provider provider : providers()) {
+            Checksum checksum = provider.newChecksum();
+            checksum.update(data, 0, data.length);
+            assertEquals(checksum.getValue(), 0xe3069283L);
+        }
+    }
+
+    @Test
+    public void testProvidersAgree()
+    {
+        Random random = new Random(0);
+        for (int length : new int[] {0, 1, 7, 8, 63, 4096, 65537}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            ByteBuffer direct = ByteBuffer.allocateDirect(length);
+            direct.put(data).flip();
+
+            Crc32 expected = new Crc32();
+            expected.update(data, 0, length);
+            for (Checksums.Provider provider : providers()) {
+                Checksum heap = provider.newChecksum();
+                heap.update(data, 0, length);
+                assertEquals(heap.getValue(), expected.getValue());
+
+                Checksum buffer = provider.newChecksum();
+                provider.update(buffer, direct);
+                assertEquals(buffer.getValue(), expected.getValue());
+                // update不改变position
+                assertEquals(direct.position(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testBlockTrailerCrcUnchanged()
+    {
+        // 与纯Java实现写入的文件兼容
+        Slice data = new Slice("block contents".getBytes(US_ASCII));
+        Crc32 crc32 = new Crc32();
+        crc32.update(data.getData(), data.getOffset(), data.length());
+        crc32.update(CompressionType.SNAPPY.persistentId() & 0xFF);
+        assertEquals(TableBuilder.crc32c(data, CompressionType.SNAPPY), crc32.getMaskedValue());
+    }
+
+    private static Checksums.Provider[] providers()
+    {
+        return new Checksums.Provider[] {Checksums.provider(), new Checksums.PureJavaCrc32C()};
+    }
+}
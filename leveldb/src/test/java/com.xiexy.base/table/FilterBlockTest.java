@@ -0,0 +1,119 @@
+package com.xiexy.base.table;
+
+import com.xiexy.base.include.Slice;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class FilterBlockTest {
+
+    private final BloomFilterPolicy policy = new BloomFilterPolicy(10);
+
+    @Test
+    public void testEmptyBuilder()
+    {
+        FilterBlockBuilder builder = new FilterBlockBuilder(policy);
+        FilterBlockReader reader = new FilterBlockReader(policy, builder.finish());
+        assertTrue(reader.keyMayMatch(0, new Slice("foo")));
+        assertTrue(reader.keyMayMatch(100000, new Slice("foo")));
+    }
+
+    @Test
+    public void testSingleChunk()
+    {
+        FilterBlockBuilder builder = new FilterBlockBuilder(policy);
+        builder.startBlock(100);
+        builder.addKey(new Slice("foo"));
+        builder.addKey(new Slice("bar"));
+        builder.addKey(new Slice("box"));
+        builder.startBlock(200);
+        builder.addKey(new Slice("box"));
+        builder.startBlock(300);
+        builder.addKey(new Slice("hello"));
+        FilterBlockReader reader = new FilterBlockReader(policy, builder.finish());
+        assertTrue(reader.keyMayMatch(100, new Slice("foo")));
+        assertTrue(reader.keyMayMatch(100, new Slice("bar")));
+        assertTrue(reader.keyMayMatch(100, new Slice("box")));
+        assertTrue(reader.keyMayMatch(100, new Slice("hello")));
+        assertFalse(reader.keyMayMatch(100, new Slice("missing")));
+        assertFalse(reader.keyMayMatch(100, new Slice("other")));
+    }
+
+    @Test
+    public void testMultiChunk()
+    {
+        FilterBlockBuilder builder = new FilterBlockBuilder(policy);
+
+        // 第一个filter
+        builder.startBlock(0);
+        builder.addKey(new Slice("foo"));
+        builder.startBlock(2000);
+        builder.addKey(new Slice("bar"));
+
+        // 第二个filter
+        builder.startBlock(3100);
+        builder.addKey(new Slice("box"));
+
+        // 第三个filter为空
+
+        // 最后一个filter
+        builder.startBlock(9000);
+        builder.addKey(new Slice("box"));
+        builder.addKey(new Slice("hello"));
+
+        FilterBlockReader reader = new FilterBlockReader(policy, builder.finish());
+
+        assertTrue(reader.keyMayMatch(0, new Slice("foo")));
+        assertTrue(reader.keyMayMatch(2000, new Slice("bar")));
+        assertFalse(reader.keyMayMatch(0, new Slice("box")));
+        assertFalse(reader.keyMayMatch(0, new Slice("hello")));
+
+        assertTrue(reader.keyMayMatch(3100, new Slice("box")));
+        assertFalse(reader.keyMayMatch(3100, new Slice("foo")));
+        assertFalse(reader.keyMayMatch(3100, new Slice("bar")));
+        assertFalse(reader.keyMayMatch(3100, new Slice("hello")));
+
+        assertFalse(reader.keyMayMatch(4100, new Slice("foo")));
+        assertFalse(reader.keyMayMatch(4100, new Slice("bar")));
+        assertFalse(reader.keyMayMatch(4100, new Slice("box")));
+        assertFalse(reader.keyMayMatch(4100, new Slice("hello")));
+
+        assertTrue(reader.keyMayMatch(9000, new Slice("box")));
+        assertTrue(reader.keyMayMatch(9000, new Slice("hello")));
+        assertFalse(reader.keyMayMatch(9000, new Slice("foo")));
+        assertFalse(reader.keyMayMatch(9000, new Slice("bar")));
+    }
+
+    @Test
+    public void testBloomFalsePositiveRate()
+    {
+        List<Slice> keys = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            keys.add(key(i));
+        }
+        Slice filter = policy.createFilter(keys);
+        for (Slice key : keys) {
+            assertTrue(policy.keyMayMatch(key, filter));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (policy.keyMayMatch(key(i + 1000000000), filter)) {
+                falsePositives++;
+            }
+        }
+        // bitsPerKey为10时误判率约为1%
+        assertTrue(falsePositives < 200, "false positives: " + falsePositives);
+    }
+
+    private static Slice key(int i)
+    {
+        Slice key = new Slice(4);
+        key.setInt(0, i);
+        return key;
+    }
+}
@@ -0,0 +1,76 @@
+package com.xiexy.base.table;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class MappedSegmentsTest {
+
+    @Test
+    public void testReadAcrossSegments()
+            throws Exception
+    {
+        // 每段16字节，文件100字节，最后一段只有4字节
+        byte[] content = new byte[100];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        File file = File.createTempFile("mapped", ".sst");
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(content);
+            }
+            try (FileChannel channel = new FileInputStream(file).getChannel()) {
+                MappedSegments segments = MappedSegments.map(channel, 4);
+                assertEquals(segments.size(), 100);
+
+                for (int offset = 0; offset < content.length; offset++) {
+                    for (int length = 0; offset + length <= content.length; length++) {
+                        ByteBuffer buffer = segments.read(offset, length);
+                        assertEquals(buffer.position(), 0);
+                        assertEquals(buffer.remaining(), length);
+                        for (int i = 0; i < length; i++) {
+                            assertEquals(buffer.get(i), content[offset + i]);
+                        }
+                    }
+                }
+
+                // 段内的读取直接使用映射的内存，跨段的读取复制到堆上
+                assertTrue(segments.read(16, 16).isDirect());
+                assertFalse(segments.read(15, 2).isDirect());
+                assertEquals(segments.read(96, 4).getInt(0), 0x63626160);
+
+                segments.unmap();
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testReadBeyondEnd()
+            throws Exception
+    {
+        File file = File.createTempFile("mapped", ".sst");
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(new byte[10]);
+            }
+            try (FileChannel channel = new FileInputStream(file).getChannel()) {
+                MappedSegments.map(channel, 4).read(8, 3);
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.xiexy.base.table;
+
+import com.xiexy.base.CompressionType;
+import com.xiexy.base.Options;
+import com.xiexy.base.include.Slice;
+import com.xiexy.base.utils.Snappy;
+import com.xiexy.base.utils.TableIterator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * 多线程随机读取同一个sstable，观察解压data block的吞吐量随线程数的变化。
+ * 不使用block cache，每次读取都会解压block。
+ * 运行：java TableReadBenchmark [entries] [secondsPerRun]，
+ * 通过-Dleveldb.mmap=false测试FileChannelTable
+ */
+public class TableReadBenchmark
+{
+    private static final int VALUE_SIZE = 100;
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        boolean useMmap = Boolean.parseBoolean(System.getProperty("leveldb.mmap", "true"));
+
+        File file = File.createTempFile("table-read-benchmark", ".sst");
+        file.deleteOnExit();
+        CompressionType compressionType = Snappy.available() ? CompressionType.SNAPPY : CompressionType.NONE;
+        writeTable(file, entries, compressionType);
+        System.out.printf("table: %s entries, %s bytes, compression %s, %s%n",
+                entries, file.length(), compressionType, useMmap ? "mmap" : "file channel");
+
+        FileChannel fileChannel = new FileInputStream(file).getChannel();
+        Table table;
+        if (useMmap) {
+            table = new MMapTable(file.getName(), fileChannel, new BytewiseComparator(), false);
+        }
+        else {
+            table = new FileChannelTable(file.getName(), fileChannel, new BytewiseComparator(), false);
+        }
+
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+        // 预热
+        run(table, entries, 1, 1);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long reads = run(table, entries, threads, seconds);
+            System.out.printf("threads %3d: %,12d reads/s%n", threads, reads / seconds);
+        }
+        table.closer().call();
+    }
+
+    private static void writeTable(File file, int entries, CompressionType compressionType)
+            throws Exception
+    {
+        Options options = new Options().compressionType(compressionType);
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            TableBuilder builder = new TableBuilder(options, channel, new BytewiseComparator());
+            byte[] value = new byte[VALUE_SIZE];
+            for (int i = 0; i < entries; i++) {
+                // value的一半是重复数据，使压缩率接近db_bench的默认值
+                for (int j = 0; j < VALUE_SIZE / 2; j++) {
+                    value[j] = (byte) ThreadLocalRandom.current().nextInt(' ', '~');
+                }
+                builder.add(key(i), new Slice(value.clone()));
+            }
+            builder.finish();
+        }
+    }
+
+    private static long run(final Table table, final int entries, int threads, int seconds)
+            throws InterruptedException
+    {
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicLong reads = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    long count = 0;
+                    while (!done.get()) {
+                        Slice key = key(ThreadLocalRandom.current().nextInt(entries));
+                        TableIterator iterator = table.iterator();
+                        iterator.seek(key);
+                        if (!iterator.hasNext() || !iterator.next().getKey().equals(key)) {
+                            throw new IllegalStateException("key not found: " + key.toString(UTF_8));
+                        }
+                        count++;
+                    }
+                    reads.addAndGet(count);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        done.set(true);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return reads.get();
+    }
+
+    private static Slice key(int i)
+    {
+        return new Slice(String.format("%016d", i).getBytes(UTF_8));
+    }
+}
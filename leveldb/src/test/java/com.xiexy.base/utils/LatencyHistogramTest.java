@@ -0,0 +1,106 @@
+package com.xiexy.base.utils;
+
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketBounds()
+    {
+        Random random = new Random(0);
+        for (int i = 0; i < 100000; i++) {
+            long value = i < 10000 ? i : (random.nextLong() >>> 1) >>> random.nextInt(63);
+            assertBucket(value);
+        }
+        assertBucket(Long.MAX_VALUE);
+        assertEquals(LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(Long.MAX_VALUE)), Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testPercentilesOfUniformDistribution()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(histogram.getCount(), 10000);
+        assertEquals(histogram.getMean(), 5000.5, 0.001);
+        assertWithinRelativeError(histogram.getValueAtPercentile(50), 5000);
+        assertWithinRelativeError(histogram.getValueAtPercentile(99), 9900);
+        assertWithinRelativeError(histogram.getValueAtPercentile(99.9), 9990);
+        assertEquals(histogram.getValueAtPercentile(100), 10000);
+        assertEquals(histogram.getValueAtPercentile(0), 1);
+    }
+
+    @Test
+    public void testPercentilesOfBimodalDistribution()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 99%的请求为100us，1%为50ms
+        for (int i = 0; i < 9900; i++) {
+            histogram.record(100_000);
+        }
+        for (int i = 0; i < 100; i++) {
+            histogram.record(50_000_000);
+        }
+        assertWithinRelativeError(histogram.getValueAtPercentile(50), 100_000);
+        assertWithinRelativeError(histogram.getValueAtPercentile(99), 100_000);
+        assertWithinRelativeError(histogram.getValueAtPercentile(99.5), 50_000_000);
+        assertEquals(histogram.getMax(), 50_000_000);
+    }
+
+    @Test
+    public void testPercentileIsClampedToMax()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        // 1000所在bucket的上界是1023
+        assertEquals(LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(1000)), 1023);
+        assertEquals(histogram.getValueAtPercentile(50), 1000);
+        assertEquals(histogram.getValueAtPercentile(100), 1000);
+
+        // 负值按0记录
+        histogram.record(-5);
+        assertEquals(histogram.getValueAtPercentile(50), 0);
+        assertEquals(histogram.getMax(), 1000);
+    }
+
+    @Test
+    public void testReset()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 100; i++) {
+            histogram.record(1_000_000);
+        }
+        histogram.reset();
+        assertEquals(histogram.getCount(), 0);
+        assertEquals(histogram.getMax(), 0);
+        assertEquals(histogram.getMean(), 0.0);
+        assertEquals(histogram.getValueAtPercentile(99), 0);
+
+        histogram.record(10);
+        assertEquals(histogram.getCount(), 1);
+        assertEquals(histogram.getValueAtPercentile(99), 10);
+        assertEquals(histogram.snapshot().getMaxMicros(), 0.01);
+    }
+
+    // value落在bucket中，bucket的宽度不超过下界的1/16，且相邻bucket之间没有空隙
+    private static void assertBucket(long value)
+    {
+        int index = LatencyHistogram.bucketIndex(value);
+        long upperBound = LatencyHistogram.bucketUpperBound(index);
+        long lowerBound = index == 0 ? 0 : LatencyHistogram.bucketUpperBound(index - 1) + 1;
+        assertTrue(lowerBound <= value && value <= upperBound, value + " not in [" + lowerBound + ", " + upperBound + "]");
+        assertTrue(upperBound - lowerBound <= lowerBound / 16, "bucket [" + lowerBound + ", " + upperBound + "] is too wide");
+    }
+
+    private static void assertWithinRelativeError(long actual, long expected)
+    {
+        assertTrue(actual >= expected && actual <= expected + expected / 16, actual + " is not within 1/16 of " + expected);
+    }
+}